@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+// hears how far the generation of a board has got
+interface GenerationProgress {
+  // EFFECT: notes that generation reached the given fraction, from 0 to 1, of
+  // the given stage
+  void reached(String stage, double fraction);
+}
+
+// Generates a board on a worker thread so the window can open at once, and
+// measures how long the player waits: until the first frame, until the
+// board is generated, and until it is shown.
+class BoardLoader implements GenerationProgress {
+  int width;
+  int height;
+  int radius;
+  long seed;
+  // where the session is recorded once the board is ready, if anywhere
+  OutputStream record;
+  // prints the startup times once the board is shown
+  boolean verbose;
+
+  volatile String stage;
+  volatile double fraction;
+  volatile LightEmAll result;
+  volatile RuntimeException failure;
+  Thread worker;
+
+  // System.nanoTime of each startup step, 0 until it happens
+  long startNanos;
+  volatile long firstFrameNanos;
+  volatile long readyNanos;
+  long revealedNanos;
+
+  BoardLoader(int width, int height, int radius, long seed, long startNanos) {
+    this.width = width;
+    this.height = height;
+    this.radius = radius;
+    this.seed = seed;
+    this.startNanos = startNanos;
+    this.stage = "starting";
+    this.fraction = 0;
+  }
+
+  // EFFECT: starts generating the board on a daemon thread
+  void start() {
+    this.worker = new Thread(this::generate, "board-loader");
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  // EFFECT: generates the board, the same one ReplayEngine.newGame makes for
+  // the same seed, and attaches the recorder if there is one
+  void generate() {
+    try {
+      LightEmAll game = new LightEmAll(new SquareTopology(this.height, this.width),
+          this.radius, new Random(this.seed), new UniformWeights(), this);
+      if (this.record != null) {
+        game.inputs = new InputRecorder(this.record, this.seed, this.width, this.height,
+            this.radius);
+      }
+      this.readyNanos = System.nanoTime();
+      this.result = game;
+    }
+    catch (IOException e) {
+      this.failure = new UncheckedIOException(e);
+    }
+    catch (RuntimeException e) {
+      this.failure = e;
+    }
+  }
+
+  public void reached(String stage, double fraction) {
+    this.stage = stage;
+    this.fraction = fraction;
+  }
+
+  // returns true once the board is generated
+  // throws the generation's exception if it failed
+  boolean ready() {
+    if (this.failure != null) {
+      throw this.failure;
+    }
+    return this.result != null;
+  }
+
+  // returns the generated board, waiting for it if needed
+  LightEmAll await() {
+    try {
+      this.worker.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.ready();
+    return this.result;
+  }
+
+  // EFFECT: notes that a frame was drawn, keeping the time of the first
+  void frameShown() {
+    if (this.firstFrameNanos == 0) {
+      this.firstFrameNanos = System.nanoTime();
+    }
+  }
+
+  // EFFECT: notes that the board is now shown
+  void revealed() {
+    this.revealedNanos = System.nanoTime();
+    if (this.verbose) {
+      System.out.println(this.report());
+    }
+  }
+
+  // returns the milliseconds from the start until the given time, or -1 if it
+  // has not happened
+  double millisTo(long nanos) {
+    return nanos == 0 ? -1 : (nanos - this.startNanos) / 1e6;
+  }
+
+  // returns a line with the startup times
+  String report() {
+    return String.format("%dx%d board: first frame after %.1f ms, generated after %.1f ms, "
+        + "shown after %.1f ms", this.width, this.height, this.millisTo(this.firstFrameNanos),
+        this.millisTo(this.readyNanos), this.millisTo(this.revealedNanos));
+  }
+}
@@ -0,0 +1,157 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javalib.worldimages.ComputedPixelImage;
+import javalib.worldimages.RotateImage;
+import javalib.worldimages.WorldImage;
+
+// Composes the visible tiles of a board into one image by splitting the
+// window into bands of tile rows. Each band is drawn off-screen on its own
+// worker and copied into a shared pixel buffer, so the result does not
+// depend on how many workers there are. Tiles part way through a turn are
+// drawn turned back like in drawScene, clipped to their band.
+class BandComposer implements WorldConstants {
+  // makeScene uses bands once at least this many tiles are visible
+  static final int MIN_TILES = 400;
+  // the number of tile rows in each band
+  static final int BAND_ROWS = 4;
+
+  ForkJoinPool pool;
+  // tile images by size, wire mask, power and station
+  ConcurrentHashMap<Long, WorldImage> tiles;
+
+  BandComposer(ForkJoinPool pool) {
+    this.pool = pool;
+    this.tiles = new ConcurrentHashMap<Long, WorldImage>();
+  }
+
+  // the composer shared by every game, running on the common pool
+  static final BandComposer SHARED = new BandComposer(ForkJoinPool.commonPool());
+
+  // returns the image of a tile with the given wires, power and station,
+  // building it the first time it is needed
+  WorldImage tileImage(int size, int mask, boolean powered, boolean station) {
+    long key = ((long) size << 6) | (mask << 2) | (powered ? 2 : 0) | (station ? 1 : 0);
+    WorldImage image = this.tiles.get(key);
+    if (image == null) {
+      GamePiece piece = new GamePiece(0, 0, (mask & 8) != 0, (mask & 2) != 0, (mask & 1) != 0,
+          (mask & 4) != 0, station, powered);
+      image = piece.tileImage(size, WIRE_WIDTH, powered || station ? Color.YELLOW : Color.GRAY,
+          station);
+      this.tiles.put(key, image);
+    }
+    return image;
+  }
+
+  // returns an image of the tiles inside the given camera's window
+  ComputedPixelImage compose(LightEmAll game, Camera camera, boolean parallel) {
+    ComputedPixelImage image = new ComputedPixelImage(camera.viewWidth, camera.viewHeight);
+    int[] pixels = LodRasterizer.pixelsOf(image);
+    boolean direct = pixels != null;
+    if (!direct) {
+      pixels = new int[camera.viewWidth * camera.viewHeight];
+    }
+    this.composeInto(game, camera, pixels, parallel);
+    if (!direct) {
+      LodRasterizer.copyInto(image, pixels);
+    }
+    return image;
+  }
+
+  // EFFECT: draws the tiles inside the given camera's window into the given
+  // row-major ARGB pixels
+  void composeInto(LightEmAll game, Camera camera, int[] pixels, boolean parallel) {
+    int first = camera.firstRow();
+    int last = camera.lastRow();
+    if (!parallel) {
+      for (int row = first; row < last; row += BAND_ROWS) {
+        this.drawBand(game, camera, pixels, row, Math.min(last, row + BAND_ROWS));
+      }
+      return;
+    }
+    ArrayList<ForkJoinTask<?>> bands = new ArrayList<ForkJoinTask<?>>();
+    for (int row = first; row < last; row += BAND_ROWS) {
+      int bandFirst = row;
+      int bandLast = Math.min(last, row + BAND_ROWS);
+      bands.add(this.pool.submit(() -> this.drawBand(game, camera, pixels, bandFirst, bandLast)));
+    }
+    for (ForkJoinTask<?> band : bands) {
+      band.join();
+    }
+  }
+
+  // EFFECT: draws the given rows of tiles into their part of the pixels
+  void drawBand(LightEmAll game, Camera camera, int[] pixels, int firstRow, int lastRow) {
+    int size = camera.tileSize();
+    // the window rows covered by this band
+    int top = Math.max(0, firstRow * size - camera.y);
+    int bottom = Math.min(camera.viewHeight, lastRow * size - camera.y);
+    if (bottom <= top) {
+      return;
+    }
+    BufferedImage band = new BufferedImage(camera.viewWidth, bottom - top,
+        BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = band.createGraphics();
+    g.setColor(new Color(LodRasterizer.BACKGROUND, true));
+    g.fillRect(0, 0, camera.viewWidth, bottom - top);
+    for (int row = firstRow; row < lastRow; row++) {
+      for (int col = camera.firstCol(); col < camera.lastCol(); col++) {
+        GamePiece piece = game.pieceAt(row, col);
+        boolean station = game.isStation(game.cellId(row, col));
+        WorldImage image = this.tileImage(size, piece.wireMask(), piece.powered, station);
+        int turning = game.animation == null ? 0
+            : game.animation.degreesLeft(game.cellId(row, col));
+        if (turning > 0) {
+          image = new RotateImage(image, -turning);
+        }
+        int x = col * size + size / 2 - camera.x;
+        int y = row * size + size / 2 - camera.y - top;
+        g.translate(x, y);
+        image.draw(g);
+        g.translate(-x, -y);
+      }
+    }
+    g.dispose();
+    int[] bandPixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+    System.arraycopy(bandPixels, 0, pixels, top * camera.viewWidth, bandPixels.length);
+  }
+
+  // measures the frame time of composing a large view with different numbers
+  // of workers: java BandComposer <boardSize> <tileSize> <frames>
+  public static void main(String[] args) {
+    int boardSize = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int tileSize = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int frames = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    LightEmAll game = new LightEmAll(boardSize, boardSize, 0, false, new Random(1));
+    game.camera.resize(1600, 1200);
+    game.camera.zoomBy((double) tileSize / PIECE_SIZE);
+    int visible = (game.camera.lastRow() - game.camera.firstRow())
+        * (game.camera.lastCol() - game.camera.firstCol());
+    System.out.printf("%d visible tiles of %d px%n", visible, game.camera.tileSize());
+
+    int[] serial = new int[1600 * 1200];
+    new BandComposer(new ForkJoinPool(1)).composeInto(game, game.camera, serial, false);
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int workers = 1; workers <= cores; workers *= 2) {
+      BandComposer composer = new BandComposer(new ForkJoinPool(workers));
+      int[] pixels = new int[1600 * 1200];
+      composer.composeInto(game, game.camera, pixels, true);
+      long start = System.nanoTime();
+      for (int i = 0; i < frames; i++) {
+        composer.composeInto(game, game.camera, pixels, true);
+      }
+      double ms = (System.nanoTime() - start) / 1e6 / frames;
+      System.out.printf("%d workers: %.2f ms/frame, same as serial: %b%n", workers, ms,
+          Arrays.equals(pixels, serial));
+      composer.pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,315 @@
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// receives the encoded frames produced by a BoardDeltaRecorder
+interface DeltaListener {
+  // EFFECT: handles one encoded delta or key frame
+  void onFrame(byte[] frame);
+}
+
+// Records what changes on a LightEmAll board and encodes it as a compact
+// binary stream of frames.
+//
+// A key frame ('K') holds the whole board:
+// 'K' seq width height station, the wire masks packed two per byte,
+// then the powered runs
+// A delta frame ('D') holds what changed during a window of ticks:
+// 'D' seq ticks, the rotated cells as (cell gap, turns) pairs in increasing
+// cell order, the new station cell + 1 (0 if it did not move), then the
+// powered runs
+// Powered runs are a count followed by (gap, length << 1 | on) pairs, where
+// gap is the number of cells skipped since the end of the previous run.
+// Every number is an unsigned LEB128 varint.
+class BoardDeltaRecorder {
+  LightEmAll game;
+  ArrayList<DeltaListener> listeners;
+  // the number of ticks that are batched into one delta frame
+  int tickWindow;
+  int ticks;
+  int seq;
+
+  // the quarter turns applied to each cell in the current window
+  int[] turns;
+  // the cells with pending turns, in the order they were first rotated
+  int[] touched;
+  int touchedCount;
+  // the station cell if it moved in the current window, otherwise -1
+  int stationMove;
+  // the powered flags as of the last frame
+  long[] lastPowered;
+
+  BoardDeltaRecorder(LightEmAll game, int tickWindow) {
+    this.game = game;
+    this.listeners = new ArrayList<DeltaListener>();
+    this.tickWindow = Math.max(1, tickWindow);
+    this.ticks = 0;
+    this.seq = 0;
+    int cells = game.width * game.height;
+    this.turns = new int[cells];
+    this.touched = new int[cells];
+    this.touchedCount = 0;
+    this.stationMove = -1;
+    this.lastPowered = this.poweredBits();
+  }
+
+  // EFFECT: records one clockwise quarter turn of the given cell
+  void rotated(int cell) {
+    if (this.turns[cell] == 0) {
+      this.touched[this.touchedCount] = cell;
+      this.touchedCount++;
+    }
+    // 4 marks a full turn so the cell is not added to touched twice
+    this.turns[cell] = this.turns[cell] % 4 + 1;
+  }
+
+  // EFFECT: records that the power station moved to the given cell
+  void stationMoved(int cell) {
+    this.stationMove = cell;
+  }
+
+  // EFFECT: ends a tick, emitting a delta frame to the listeners once the
+  // tick window is full
+  void tick() {
+    this.ticks++;
+    if (this.ticks >= this.tickWindow) {
+      this.flush();
+    }
+  }
+
+  // EFFECT: emits a delta frame for everything recorded since the last frame,
+  // even if the tick window is not full yet
+  void flush() {
+    byte[] frame = this.encodeDelta();
+    for (DeltaListener listener : this.listeners) {
+      listener.onFrame(frame);
+    }
+  }
+
+  // returns the powered flag of every cell in row-major order as a bitset
+  long[] poweredBits() {
+    long[] bits = new long[(this.game.width * this.game.height + 63) / 64];
+    for (int i = 0; i < this.game.nodes.size(); i++) {
+      if (this.game.nodes.get(i).powered) {
+        bits[i >> 6] |= 1L << i;
+      }
+    }
+    return bits;
+  }
+
+  // returns the delta frame for the current window
+  // EFFECT: starts a new window
+  byte[] encodeDelta() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write('D');
+    BoardDeltaRecorder.writeVarint(out, this.seq);
+    BoardDeltaRecorder.writeVarint(out, this.ticks);
+
+    int[] cells = Arrays.copyOf(this.touched, this.touchedCount);
+    Arrays.sort(cells);
+    int rotations = 0;
+    for (int cell : cells) {
+      if (this.turns[cell] % 4 != 0) {
+        rotations++;
+      }
+    }
+    BoardDeltaRecorder.writeVarint(out, rotations);
+    int prev = 0;
+    for (int cell : cells) {
+      if (this.turns[cell] % 4 != 0) {
+        BoardDeltaRecorder.writeVarint(out, cell - prev);
+        out.write(this.turns[cell] % 4);
+        prev = cell;
+      }
+      this.turns[cell] = 0;
+    }
+    this.touchedCount = 0;
+
+    BoardDeltaRecorder.writeVarint(out, this.stationMove + 1);
+    this.stationMove = -1;
+
+    long[] powered = this.poweredBits();
+    long[] flipped = new long[powered.length];
+    for (int i = 0; i < powered.length; i++) {
+      flipped[i] = powered[i] ^ this.lastPowered[i];
+    }
+    BoardDeltaRecorder.writeRuns(out, flipped, powered, this.game.width * this.game.height);
+    this.lastPowered = powered;
+
+    this.seq++;
+    this.ticks = 0;
+    return out.toByteArray();
+  }
+
+  // returns a key frame holding the whole board
+  byte[] keyframe() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int cells = this.game.width * this.game.height;
+    out.write('K');
+    BoardDeltaRecorder.writeVarint(out, this.seq);
+    BoardDeltaRecorder.writeVarint(out, this.game.width);
+    BoardDeltaRecorder.writeVarint(out, this.game.height);
+    BoardDeltaRecorder.writeVarint(out, this.game.powerRow * this.game.width
+        + this.game.powerCol);
+
+    byte[] masks = new byte[(cells + 1) / 2];
+    for (int i = 0; i < cells; i++) {
+      masks[i >> 1] |= this.game.nodes.get(i).wireMask() << ((i & 1) * 4);
+    }
+    out.write(masks, 0, masks.length);
+
+    long[] powered = this.poweredBits();
+    BoardDeltaRecorder.writeRuns(out, powered, powered, cells);
+    return out.toByteArray();
+  }
+
+  // EFFECT: writes the runs of cells set in the given mask, split wherever the
+  // value in the given bitset changes
+  static void writeRuns(ByteArrayOutputStream out, long[] mask, long[] values, int cells) {
+    ArrayList<int[]> runs = new ArrayList<int[]>();
+    int i = 0;
+    while (i < cells) {
+      if (!BoardDeltaRecorder.bit(mask, i)) {
+        i++;
+      }
+      else {
+        boolean on = BoardDeltaRecorder.bit(values, i);
+        int start = i;
+        while (i < cells && BoardDeltaRecorder.bit(mask, i)
+            && BoardDeltaRecorder.bit(values, i) == on) {
+          i++;
+        }
+        runs.add(new int[] { start, i - start, on ? 1 : 0 });
+      }
+    }
+    BoardDeltaRecorder.writeVarint(out, runs.size());
+    int end = 0;
+    for (int[] run : runs) {
+      BoardDeltaRecorder.writeVarint(out, run[0] - end);
+      BoardDeltaRecorder.writeVarint(out, (run[1] << 1) | run[2]);
+      end = run[0] + run[1];
+    }
+  }
+
+  // returns whether the given bit is set
+  static boolean bit(long[] bits, int i) {
+    return (bits[i >> 6] & (1L << i)) != 0;
+  }
+
+  // EFFECT: writes the given non-negative number as an unsigned varint
+  static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+}
+
+// a copy of a board rebuilt from key and delta frames, as kept by renderers,
+// network clients and replays
+class BoardMirror {
+  int width;
+  int height;
+  int station;
+  // the wire mask of every cell in row-major order
+  int[] masks;
+  boolean[] powered;
+  // the sequence number of the last frame applied
+  int seq;
+
+  // the frame being decoded and the position in it
+  byte[] frame;
+  int pos;
+
+  BoardMirror() {
+    this.masks = new int[0];
+    this.powered = new boolean[0];
+    this.seq = -1;
+  }
+
+  // EFFECT: applies the given key or delta frame to this mirror
+  void apply(byte[] frame) {
+    this.frame = frame;
+    this.pos = 1;
+    if (frame[0] == 'K') {
+      this.seq = this.readVarint();
+      this.width = this.readVarint();
+      this.height = this.readVarint();
+      this.station = this.readVarint();
+      int cells = this.width * this.height;
+      this.masks = new int[cells];
+      this.powered = new boolean[cells];
+      for (int i = 0; i < cells; i++) {
+        this.masks[i] = (frame[this.pos + (i >> 1)] >> ((i & 1) * 4)) & 15;
+      }
+      this.pos += (cells + 1) / 2;
+      this.readRuns();
+    }
+    else if (frame[0] == 'D') {
+      this.seq = this.readVarint();
+      this.readVarint();
+      int rotations = this.readVarint();
+      int cell = 0;
+      for (int i = 0; i < rotations; i++) {
+        cell += this.readVarint();
+        int turns = frame[this.pos];
+        this.pos++;
+        this.masks[cell] = ((this.masks[cell] << turns) | (this.masks[cell] >> (4 - turns))) & 15;
+      }
+      int station = this.readVarint();
+      if (station != 0) {
+        this.station = station - 1;
+      }
+      this.readRuns();
+    }
+    else {
+      throw new IllegalArgumentException("Unknown frame type: " + frame[0]);
+    }
+  }
+
+  // EFFECT: sets the powered flag of every cell in the runs at the current
+  // position
+  void readRuns() {
+    int runs = this.readVarint();
+    int cell = 0;
+    for (int i = 0; i < runs; i++) {
+      cell += this.readVarint();
+      int header = this.readVarint();
+      boolean on = (header & 1) == 1;
+      int end = cell + (header >>> 1);
+      Arrays.fill(this.powered, cell, end, on);
+      cell = end;
+    }
+  }
+
+  // returns the unsigned varint at the current position
+  // EFFECT: moves past it
+  int readVarint() {
+    int value = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = this.frame[this.pos] & 0xFF;
+      this.pos++;
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  // returns true if this mirror shows the same board as the given game
+  boolean matches(LightEmAll game) {
+    if (game.width != this.width || game.height != this.height
+        || game.powerRow * game.width + game.powerCol != this.station) {
+      return false;
+    }
+    for (int i = 0; i < game.nodes.size(); i++) {
+      GamePiece piece = game.nodes.get(i);
+      if (piece.wireMask() != this.masks[i] || piece.powered != this.powered[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,238 @@
+import java.util.Random;
+
+// how the wires of a whole board meet: pairs of neighbors joined by a wire on
+// both sides, pairs with a wire on one side only, and wires that point off
+// the board
+class WireCounts {
+  long matched;
+  long mismatched;
+  long dangling;
+
+  WireCounts(long matched, long mismatched, long dangling) {
+    this.matched = matched;
+    this.mismatched = mismatched;
+    this.dangling = dangling;
+  }
+
+  // returns true if every wire meets a wire of its neighbor
+  boolean consistent() {
+    return this.mismatched == 0 && this.dangling == 0;
+  }
+
+  public boolean equals(Object other) {
+    if (!(other instanceof WireCounts)) {
+      return false;
+    }
+    WireCounts that = (WireCounts) other;
+    return this.matched == that.matched && this.mismatched == that.mismatched
+        && this.dangling == that.dangling;
+  }
+
+  public int hashCode() {
+    return Long.hashCode(this.matched * 31 * 31 + this.mismatched * 31 + this.dangling);
+  }
+
+  public String toString() {
+    return this.matched + " matched, " + this.mismatched + " mismatched, " + this.dangling
+        + " dangling";
+  }
+}
+
+// The wire masks of a square board packed 16 cells to a long, four bits
+// each, with every row starting a new long. Whole-board checks then work on
+// 16 cells at a time with shifts, masks and bit counts: shifting a row's
+// longs by one nibble lines each cell up with its right-hand neighbor, and
+// the long at the same place in the next row holds the cells below, so the
+// wires of 16 edges are compared with one XOR.
+//
+// This is the vector path on plain longs rather than jdk.incubator.vector:
+// on this JDK the Vector API is an incubator module that must be added with
+// --add-modules when compiling and when running, and the project is built
+// and tested with a plain javac and java that do not pass it. The one-cell-
+// at-a-time walk in BulkCheck.scalar stays the fallback.
+class NibbleBoard {
+  // bit 0 of every nibble
+  static final long LOW = 0x1111111111111111L;
+
+  int rows;
+  int cols;
+  // the longs per row
+  int lanes;
+  long[] words;
+  // per lane: bit 0 of the nibbles of cells with a right-hand neighbor, of
+  // the first column and of the last column
+  long[] hasRight;
+  long[] firstCol;
+  long[] lastCol;
+
+  NibbleBoard(int rows, int cols) {
+    this.rows = rows;
+    this.cols = cols;
+    this.lanes = (cols + 15) / 16;
+    this.words = new long[rows * this.lanes];
+    this.hasRight = new long[this.lanes];
+    this.firstCol = new long[this.lanes];
+    this.lastCol = new long[this.lanes];
+    for (int col = 0; col < cols; col++) {
+      long bit = 1L << (4 * (col % 16));
+      int lane = col / 16;
+      if (col + 1 < cols) {
+        this.hasRight[lane] |= bit;
+      }
+      if (col == 0) {
+        this.firstCol[lane] |= bit;
+      }
+      if (col == cols - 1) {
+        this.lastCol[lane] |= bit;
+      }
+    }
+  }
+
+  // returns the packed form of the given row-major wire masks of a square
+  // board with the given number of rows and columns
+  static NibbleBoard of(int rows, int cols, int[] masks) {
+    NibbleBoard board = new NibbleBoard(rows, cols);
+    for (int cell = 0; cell < masks.length; cell++) {
+      board.set(cell, masks[cell]);
+    }
+    return board;
+  }
+
+  // returns the wires of the given cell
+  int get(int cell) {
+    int col = cell % this.cols;
+    long word = this.words[(cell / this.cols) * this.lanes + col / 16];
+    return (int) (word >>> (4 * (col % 16))) & 15;
+  }
+
+  // EFFECT: sets the wires of the given cell to the given mask
+  void set(int cell, int mask) {
+    int col = cell % this.cols;
+    int index = (cell / this.cols) * this.lanes + col / 16;
+    int shift = 4 * (col % 16);
+    this.words[index] = (this.words[index] & ~(15L << shift)) | ((long) (mask & 15) << shift);
+  }
+
+  // returns how the wires of the whole board meet
+  WireCounts counts() {
+    long matched = 0;
+    long mismatched = 0;
+    long dangling = 0;
+    for (int row = 0; row < this.rows; row++) {
+      int base = row * this.lanes;
+      boolean lastRow = row == this.rows - 1;
+      for (int lane = 0; lane < this.lanes; lane++) {
+        long cells = this.words[base + lane];
+        long next = lane + 1 < this.lanes ? this.words[base + lane + 1] : 0;
+        // each nibble of the neighbor long is the cell to its right
+        long neighbors = (cells >>> 4) | (next << 60);
+        long right = (cells >>> 1) & LOW;
+        long left = (neighbors >>> 3) & LOW;
+        matched += Long.bitCount(right & left & this.hasRight[lane]);
+        mismatched += Long.bitCount((right ^ left) & this.hasRight[lane]);
+        dangling += Long.bitCount(right & this.lastCol[lane])
+            + Long.bitCount((cells >>> 3) & LOW & this.firstCol[lane]);
+
+        long bottom = (cells >>> 2) & LOW;
+        if (lastRow) {
+          dangling += Long.bitCount(bottom);
+        }
+        else {
+          long top = this.words[base + this.lanes + lane] & LOW;
+          matched += Long.bitCount(bottom & top);
+          mismatched += Long.bitCount(bottom ^ top);
+        }
+        if (row == 0) {
+          dangling += Long.bitCount(cells & LOW);
+        }
+      }
+    }
+    return new WireCounts(matched, mismatched, dangling);
+  }
+}
+
+// Whole-board wire checks: packed 16 cells to a long on square boards, and
+// one cell at a time through the neighbor table on any other topology.
+class BulkCheck {
+  // returns how the given wires meet, one cell at a time
+  static WireCounts scalar(Topology topology, int[] masks) {
+    long matched = 0;
+    long mismatched = 0;
+    long dangling = 0;
+    for (int cell = 0; cell < masks.length; cell++) {
+      for (int dir = 0; dir < topology.directions; dir++) {
+        int opposite = topology.opposite(dir);
+        int other = topology.neighbors[dir][cell];
+        boolean wire = (masks[cell] & (1 << dir)) != 0;
+        if (other < 0) {
+          if (wire) {
+            dangling++;
+          }
+        }
+        else if (dir < opposite) {
+          // each pair of neighbors is looked at from one side only
+          boolean back = (masks[other] & (1 << opposite)) != 0;
+          if (wire && back) {
+            matched++;
+          }
+          else if (wire != back) {
+            mismatched++;
+          }
+        }
+      }
+    }
+    return new WireCounts(matched, mismatched, dangling);
+  }
+
+  // returns how the given wires meet, packed when the board is square
+  static WireCounts counts(Topology topology, int[] masks) {
+    if (topology instanceof SquareTopology) {
+      return NibbleBoard.of(topology.rows, topology.cols, masks).counts();
+    }
+    return BulkCheck.scalar(topology, masks);
+  }
+
+  // returns true if the given counts and wires are solved: every wire is
+  // matched, there is one joined pair fewer than cells, and they all hang
+  // together; the search only runs once the counts allow it
+  static boolean solved(WireCounts counts, Topology topology, int[] masks) {
+    return counts.consistent() && counts.matched == masks.length - 1
+        && topology.reachable(masks, 0).length == masks.length;
+  }
+
+  // checks a 4M-cell board packed and one cell at a time, before and after
+  // scrambling: java BulkCheck <size> <repeats>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+    int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    PackedBoard board = new PackedBoard(size, size);
+    new KruskalGenerator().generate(board, new Random(1));
+    for (String state : new String[] { "solved", "scrambled" }) {
+      if (state.equals("scrambled")) {
+        board.scramble(new Random(2));
+      }
+      int[] masks = board.masks();
+      NibbleBoard packed = NibbleBoard.of(size, size, masks);
+      WireCounts scalar = null;
+      WireCounts swar = null;
+      for (int warm = 0; warm < 3; warm++) {
+        scalar = BulkCheck.scalar(board.topology, masks);
+        swar = packed.counts();
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < repeats; i++) {
+        scalar = BulkCheck.scalar(board.topology, masks);
+      }
+      double scalarMs = (System.nanoTime() - start) / 1e6 / repeats;
+      start = System.nanoTime();
+      for (int i = 0; i < repeats; i++) {
+        swar = packed.counts();
+      }
+      double swarMs = (System.nanoTime() - start) / 1e6 / repeats;
+      System.out.printf("%dx%d %s (%s), solved %b: one cell at a time %.2f ms, packed %.2f ms, "
+          + "%.1fx, same counts: %b%n", size, size, state, swar,
+          BulkCheck.solved(swar, board.topology, masks), scalarMs, swarMs, scalarMs / swarMs,
+          swar.equals(scalar));
+    }
+  }
+}
@@ -0,0 +1,141 @@
+import javalib.worldimages.Posn;
+
+// the part of the board that is shown in the window, in screen pixels
+class Camera implements WorldConstants {
+  // the size of the window
+  int viewWidth;
+  int viewHeight;
+  // the number of cells on the board
+  int rows;
+  int cols;
+  // the position of the top-left corner of the window on the zoomed board
+  int x;
+  int y;
+  // the scale applied to PIECE_SIZE
+  double zoom;
+
+  static final double MIN_ZOOM = 0.01;
+  static final double MAX_ZOOM = 2.0;
+  // how many pixels one pan key press moves the camera
+  static final int PAN_STEP = PIECE_SIZE / 2;
+
+  Camera(int viewWidth, int viewHeight, int rows, int cols) {
+    this.viewWidth = viewWidth;
+    this.viewHeight = viewHeight;
+    this.rows = rows;
+    this.cols = cols;
+    this.x = 0;
+    this.y = 0;
+    this.zoom = 1.0;
+  }
+
+  // returns the size of a tile on screen, in pixels
+  int tileSize() {
+    return Math.max(1, (int) Math.round(PIECE_SIZE * this.zoom));
+  }
+
+  // returns the index of the first row that is at least partly visible
+  int firstRow() {
+    return this.y / this.tileSize();
+  }
+
+  // returns the index after the last row that is at least partly visible
+  int lastRow() {
+    int size = this.tileSize();
+    return Math.min(this.rows, (this.y + this.viewHeight + size - 1) / size);
+  }
+
+  // returns the index of the first column that is at least partly visible
+  int firstCol() {
+    return this.x / this.tileSize();
+  }
+
+  // returns the index after the last column that is at least partly visible
+  int lastCol() {
+    int size = this.tileSize();
+    return Math.min(this.cols, (this.x + this.viewWidth + size - 1) / size);
+  }
+
+  // returns the screen position of the center of the given cell
+  Posn center(int row, int col) {
+    int size = this.tileSize();
+    return new Posn(col * size + size / 2 - this.x, row * size + size / 2 - this.y);
+  }
+
+  // returns the row and column of the cell under the given screen position,
+  // or null if there is no cell there
+  Posn cellAt(Posn pos) {
+    if (pos.x < 0 || pos.y < 0 || pos.x >= this.viewWidth || pos.y >= this.viewHeight) {
+      return null;
+    }
+    int size = this.tileSize();
+    int row = (pos.y + this.y) / size;
+    int col = (pos.x + this.x) / size;
+    if (row >= this.rows || col >= this.cols) {
+      return null;
+    }
+    return new Posn(col, row);
+  }
+
+  // EFFECT: moves the camera by the given number of pixels, staying on the
+  // board
+  void pan(int dx, int dy) {
+    this.x += dx;
+    this.y += dy;
+    this.clamp();
+  }
+
+  // EFFECT: scales the zoom by the given factor, keeping the center of the
+  // window over the same point of the board
+  void zoomBy(double factor) {
+    double oldSize = this.tileSize();
+    double centerX = (this.x + this.viewWidth / 2.0) / oldSize;
+    double centerY = (this.y + this.viewHeight / 2.0) / oldSize;
+    this.zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, this.zoom * factor));
+    int size = this.tileSize();
+    this.x = (int) Math.round(centerX * size - this.viewWidth / 2.0);
+    this.y = (int) Math.round(centerY * size - this.viewHeight / 2.0);
+    this.clamp();
+  }
+
+  // EFFECT: changes the size of the window
+  void resize(int viewWidth, int viewHeight) {
+    this.viewWidth = viewWidth;
+    this.viewHeight = viewHeight;
+    this.clamp();
+  }
+
+  // EFFECT: keeps the window inside the board
+  void clamp() {
+    int size = this.tileSize();
+    this.x = Math.max(0, Math.min(this.x, this.cols * size - this.viewWidth));
+    this.y = Math.max(0, Math.min(this.y, this.rows * size - this.viewHeight));
+  }
+
+  // EFFECT: pans or zooms the camera for the given key
+  // returns true if the key was a camera key
+  boolean onKey(String key) {
+    if (key.equals("w")) {
+      this.pan(0, -PAN_STEP);
+    }
+    else if (key.equals("s")) {
+      this.pan(0, PAN_STEP);
+    }
+    else if (key.equals("a")) {
+      this.pan(-PAN_STEP, 0);
+    }
+    else if (key.equals("d")) {
+      this.pan(PAN_STEP, 0);
+    }
+    else if (key.equals("+") || key.equals("=")) {
+      this.zoomBy(1.25);
+    }
+    else if (key.equals("-")) {
+      this.zoomBy(0.8);
+    }
+    else {
+      return false;
+    }
+    return true;
+  }
+}
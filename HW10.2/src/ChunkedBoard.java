@@ -0,0 +1,399 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javalib.impworld.WorldScene;
+import javalib.worldimages.WorldImage;
+
+import java.awt.Color;
+
+// Stores a board that may be too big for the heap as square tiles of cells
+// in a memory-mapped file. Only the most recently used tiles stay mapped.
+//
+// Every cell is one byte: bits 0-3 hold the wire mask (top 1, right 2,
+// bottom 4, left 8), bit 4 is set when the cell is powered. Tiles on the
+// right and bottom edges are padded to the full tile size.
+class ChunkedBoardStore implements WorldConstants {
+  static final int POWERED = 16;
+  // the direction bits, indexed by direction: top, right, bottom, left
+  static final int[] DIR_BITS = { 1, 2, 4, 8 };
+  static final int[] DROW = { -1, 0, 1, 0 };
+  static final int[] DCOL = { 0, 1, 0, -1 };
+
+  int width;
+  int height;
+  int tileSize;
+  int tilesAcross;
+  int tilesDown;
+  Path file;
+  FileChannel channel;
+  // the mapped tiles, least recently used first
+  LinkedHashMap<Integer, MappedByteBuffer> resident;
+  int maxResident;
+  // how often a tile was mapped and dropped
+  long loads;
+  long evictions;
+
+  ChunkedBoardStore(int width, int height, int tileSize, int maxResident) throws IOException {
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.tilesAcross = (width + tileSize - 1) / tileSize;
+    this.tilesDown = (height + tileSize - 1) / tileSize;
+    this.maxResident = Math.max(1, maxResident);
+    this.file = Files.createTempFile("lightemall", ".tiles");
+    this.channel = FileChannel.open(this.file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    this.resident = new LinkedHashMap<Integer, MappedByteBuffer>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Integer, MappedByteBuffer> eldest) {
+        if (this.size() > ChunkedBoardStore.this.maxResident) {
+          eldest.getValue().force();
+          ChunkedBoardStore.this.evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  // returns the mapped bytes of the given tile, mapping it if needed
+  MappedByteBuffer tile(int tile) {
+    MappedByteBuffer buffer = this.resident.get(tile);
+    if (buffer == null) {
+      long bytes = (long) this.tileSize * this.tileSize;
+      try {
+        buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, tile * bytes, bytes);
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      this.loads++;
+      this.resident.put(tile, buffer);
+    }
+    return buffer;
+  }
+
+  // returns the index of the tile holding the given cell
+  int tileOf(int row, int col) {
+    return (row / this.tileSize) * this.tilesAcross + col / this.tileSize;
+  }
+
+  // returns the offset of the given cell inside its tile
+  int offsetOf(int row, int col) {
+    return (row % this.tileSize) * this.tileSize + col % this.tileSize;
+  }
+
+  // returns the byte stored for the given cell
+  int get(int row, int col) {
+    return this.tile(this.tileOf(row, col)).get(this.offsetOf(row, col));
+  }
+
+  // EFFECT: stores the given byte for the given cell
+  void set(int row, int col, int value) {
+    this.tile(this.tileOf(row, col)).put(this.offsetOf(row, col), (byte) value);
+  }
+
+  // EFFECT: rotates the wires of the given cell by 90 degrees clockwise
+  void rotate(int row, int col) {
+    int cell = this.get(row, col);
+    int mask = cell & 15;
+    this.set(row, col, (cell & ~15) | (((mask << 1) | (mask >> 3)) & 15));
+  }
+
+  // EFFECT: connects the two given adjacent cells with a wire
+  void connect(int row, int col, int dir) {
+    this.set(row, col, this.get(row, col) | DIR_BITS[dir]);
+    int otherRow = row + DROW[dir];
+    int otherCol = col + DCOL[dir];
+    this.set(otherRow, otherCol, this.get(otherRow, otherCol) | DIR_BITS[(dir + 2) % 4]);
+  }
+
+  // EFFECT: fills the board with a random spanning tree, one tile at a time
+  // Each tile gets its own spanning tree using Kruskal's algorithm on a
+  // shuffled edge list, then a spanning tree over the tiles picks one random
+  // wire across each chosen tile border, so at most two tiles are needed at
+  // once.
+  void generate(Random rand) {
+    int[] local = new int[this.tileSize * this.tileSize];
+    int[] edges = new int[2 * this.tileSize * this.tileSize];
+    for (int tr = 0; tr < this.tilesDown; tr++) {
+      for (int tc = 0; tc < this.tilesAcross; tc++) {
+        this.generateTile(tr, tc, rand, local, edges);
+      }
+    }
+
+    int tiles = this.tilesAcross * this.tilesDown;
+    int[] reps = new int[tiles];
+    int[] tileEdges = new int[2 * tiles];
+    int count = 0;
+    for (int t = 0; t < tiles; t++) {
+      reps[t] = t;
+      // odd edges go right, even edges go down
+      if (t % this.tilesAcross < this.tilesAcross - 1) {
+        tileEdges[count] = t * 2 + 1;
+        count++;
+      }
+      if (t / this.tilesAcross < this.tilesDown - 1) {
+        tileEdges[count] = t * 2;
+        count++;
+      }
+    }
+    ChunkedBoardStore.shuffle(tileEdges, count, rand);
+    for (int i = 0; i < count; i++) {
+      int t = tileEdges[i] / 2;
+      boolean right = tileEdges[i] % 2 == 1;
+      int other = right ? t + 1 : t + this.tilesAcross;
+      int from = ChunkedBoardStore.find(reps, t);
+      int to = ChunkedBoardStore.find(reps, other);
+      if (from != to) {
+        reps[to] = from;
+        int top = (t / this.tilesAcross) * this.tileSize;
+        int left = (t % this.tilesAcross) * this.tileSize;
+        if (right) {
+          int rows = Math.min(this.tileSize, this.height - top);
+          this.connect(top + rand.nextInt(rows), left + this.tileSize - 1, 1);
+        }
+        else {
+          int cols = Math.min(this.tileSize, this.width - left);
+          this.connect(top + this.tileSize - 1, left + rand.nextInt(cols), 2);
+        }
+      }
+    }
+  }
+
+  // EFFECT: fills the given tile with a random spanning tree of its cells
+  void generateTile(int tr, int tc, Random rand, int[] reps, int[] edges) {
+    int top = tr * this.tileSize;
+    int left = tc * this.tileSize;
+    int rows = Math.min(this.tileSize, this.height - top);
+    int cols = Math.min(this.tileSize, this.width - left);
+    int count = 0;
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        int cell = r * cols + c;
+        reps[cell] = cell;
+        // even edges go right, odd edges go down
+        if (c < cols - 1) {
+          edges[count] = cell * 2;
+          count++;
+        }
+        if (r < rows - 1) {
+          edges[count] = cell * 2 + 1;
+          count++;
+        }
+      }
+    }
+    ChunkedBoardStore.shuffle(edges, count, rand);
+    for (int i = 0; i < count; i++) {
+      int cell = edges[i] / 2;
+      boolean right = edges[i] % 2 == 0;
+      int other = right ? cell + 1 : cell + cols;
+      int from = ChunkedBoardStore.find(reps, cell);
+      int to = ChunkedBoardStore.find(reps, other);
+      if (from != to) {
+        reps[to] = from;
+        this.connect(top + cell / cols, left + cell % cols, right ? 1 : 2);
+      }
+    }
+  }
+
+  // EFFECT: rotates every cell a random number of times, one tile at a time
+  void scramble(Random rand) {
+    for (int top = 0; top < this.height; top += this.tileSize) {
+      for (int left = 0; left < this.width; left += this.tileSize) {
+        for (int row = top; row < Math.min(this.height, top + this.tileSize); row++) {
+          for (int col = left; col < Math.min(this.width, left + this.tileSize); col++) {
+            int turns = rand.nextInt(4);
+            for (int i = 0; i < turns; i++) {
+              this.rotate(row, col);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // EFFECT: sets the powered bit of exactly the cells connected to the given
+  // station, working through one tile at a time
+  // returns the number of powered cells
+  long propagate(int stationRow, int stationCol) {
+    for (int t = 0; t < this.tilesAcross * this.tilesDown; t++) {
+      MappedByteBuffer buffer = this.tile(t);
+      for (int i = 0; i < buffer.capacity(); i++) {
+        buffer.put(i, (byte) (buffer.get(i) & ~POWERED));
+      }
+    }
+
+    // cells waiting to be powered, grouped by tile, stored as
+    // cell offset * 8 + the direction the power comes from + 1 (0 for the
+    // station)
+    HashMap<Integer, ArrayDeque<Integer>> pending = new HashMap<Integer, ArrayDeque<Integer>>();
+    ArrayDeque<Integer> tilesToVisit = new ArrayDeque<Integer>();
+    this.addPending(pending, tilesToVisit, stationRow, stationCol, -1);
+
+    long powered = 0;
+    int[] queue = new int[this.tileSize * this.tileSize];
+    while (!tilesToVisit.isEmpty()) {
+      int t = tilesToVisit.poll();
+      ArrayDeque<Integer> seeds = pending.remove(t);
+      MappedByteBuffer buffer = this.tile(t);
+      int top = (t / this.tilesAcross) * this.tileSize;
+      int left = (t % this.tilesAcross) * this.tileSize;
+      int head = 0;
+      int tail = 0;
+      for (int seed : seeds) {
+        int offset = seed >> 3;
+        int from = (seed & 7) - 1;
+        int cell = buffer.get(offset);
+        if ((cell & POWERED) == 0 && (from < 0 || (cell & DIR_BITS[from]) != 0)) {
+          buffer.put(offset, (byte) (cell | POWERED));
+          queue[tail] = offset;
+          tail++;
+        }
+      }
+      while (head < tail) {
+        int offset = queue[head];
+        head++;
+        powered++;
+        int cell = buffer.get(offset);
+        int row = top + offset / this.tileSize;
+        int col = left + offset % this.tileSize;
+        for (int dir = 0; dir < 4; dir++) {
+          int nRow = row + DROW[dir];
+          int nCol = col + DCOL[dir];
+          if ((cell & DIR_BITS[dir]) == 0 || nRow < 0 || nRow >= this.height || nCol < 0
+              || nCol >= this.width) {
+            continue;
+          }
+          if (this.tileOf(nRow, nCol) != t) {
+            this.addPending(pending, tilesToVisit, nRow, nCol, (dir + 2) % 4);
+            continue;
+          }
+          int nOffset = this.offsetOf(nRow, nCol);
+          int neighbor = buffer.get(nOffset);
+          if ((neighbor & POWERED) == 0 && (neighbor & DIR_BITS[(dir + 2) % 4]) != 0) {
+            buffer.put(nOffset, (byte) (neighbor | POWERED));
+            queue[tail] = nOffset;
+            tail++;
+          }
+        }
+      }
+    }
+    return powered;
+  }
+
+  // EFFECT: queues the given cell to be powered from the given direction
+  // (-1 for the station), scheduling its tile for a visit
+  void addPending(HashMap<Integer, ArrayDeque<Integer>> pending,
+      ArrayDeque<Integer> tilesToVisit, int row, int col, int from) {
+    int t = this.tileOf(row, col);
+    ArrayDeque<Integer> seeds = pending.get(t);
+    if (seeds == null) {
+      seeds = new ArrayDeque<Integer>();
+      pending.put(t, seeds);
+      tilesToVisit.add(t);
+    }
+    seeds.add((this.offsetOf(row, col) << 3) | (from + 1));
+  }
+
+  // returns a GamePiece showing the given cell
+  GamePiece pieceAt(int row, int col) {
+    int cell = this.get(row, col);
+    return new GamePiece(row, col, (cell & 8) != 0, (cell & 2) != 0, (cell & 1) != 0,
+        (cell & 4) != 0, false, (cell & POWERED) != 0);
+  }
+
+  // EFFECT: draws the given region of cells onto the given scene, with the
+  // top-left cell of the region at the top-left of the scene, visiting the
+  // cells one tile at a time
+  void renderRegion(WorldScene scene, int firstRow, int firstCol, int rows, int cols,
+      int pieceSize) {
+    int lastRow = Math.min(this.height, firstRow + rows);
+    int lastCol = Math.min(this.width, firstCol + cols);
+    for (int tileRow = firstRow - firstRow % this.tileSize; tileRow < lastRow;
+        tileRow += this.tileSize) {
+      for (int tileCol = firstCol - firstCol % this.tileSize; tileCol < lastCol;
+          tileCol += this.tileSize) {
+        int rowEnd = Math.min(lastRow, tileRow + this.tileSize);
+        int colEnd = Math.min(lastCol, tileCol + this.tileSize);
+        for (int row = Math.max(firstRow, tileRow); row < rowEnd; row++) {
+          for (int col = Math.max(firstCol, tileCol); col < colEnd; col++) {
+            GamePiece piece = this.pieceAt(row, col);
+            Color wireColor = piece.powered ? Color.YELLOW : Color.GRAY;
+            WorldImage image = piece.tileImage(pieceSize, WIRE_WIDTH, wireColor, false);
+            scene.placeImageXY(image, (col - firstCol) * pieceSize + pieceSize / 2,
+                (row - firstRow) * pieceSize + pieceSize / 2);
+          }
+        }
+      }
+    }
+  }
+
+  // EFFECT: writes every mapped tile back and deletes the backing file
+  void close() throws IOException {
+    for (MappedByteBuffer buffer : this.resident.values()) {
+      buffer.force();
+    }
+    this.resident.clear();
+    this.channel.close();
+    Files.deleteIfExists(this.file);
+  }
+
+  // returns the representative of the given element, halving the path to it
+  static int find(int[] reps, int i) {
+    while (reps[i] != i) {
+      reps[i] = reps[reps[i]];
+      i = reps[i];
+    }
+    return i;
+  }
+
+  // EFFECT: shuffles the first count elements of the given array
+  static void shuffle(int[] items, int count, Random rand) {
+    for (int i = count - 1; i > 0; i--) {
+      int j = rand.nextInt(i + 1);
+      int tmp = items[i];
+      items[i] = items[j];
+      items[j] = tmp;
+    }
+  }
+
+  // generates, scrambles, solves and re-powers a large board, reporting the
+  // time of each step and how many tiles were mapped:
+  // java ChunkedBoardStore <size> <tileSize> <maxResident>
+  public static void main(String[] args) throws IOException {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+    int tileSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+    int maxResident = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+    ChunkedBoardStore store = new ChunkedBoardStore(size, size, tileSize, maxResident);
+    Random rand = new Random(1);
+
+    long start = System.nanoTime();
+    store.generate(rand);
+    long generated = System.nanoTime();
+    long powered = store.propagate(0, 0);
+    long propagated = System.nanoTime();
+    store.scramble(rand);
+    long scrambled = System.nanoTime();
+    long after = store.propagate(0, 0);
+    long end = System.nanoTime();
+
+    System.out.printf("%dx%d board in %dx%d tiles, at most %d resident%n", size, size,
+        tileSize, tileSize, maxResident);
+    System.out.printf("generate %.1f ms, propagate solved %.1f ms (%d powered), "
+        + "scramble %.1f ms, propagate scrambled %.1f ms (%d powered)%n",
+        (generated - start) / 1e6, (propagated - generated) / 1e6, powered,
+        (scrambled - propagated) / 1e6, (end - scrambled) / 1e6, after);
+    System.out.printf("%d tile loads, %d evictions%n", store.loads, store.evictions);
+    store.close();
+  }
+}
@@ -0,0 +1,278 @@
+import java.util.Random;
+
+// Ranks the tiles that are turned wrong by how many cells turning that tile
+// right alone would give back to the station: the cells of its subtree in the
+// solution tree whose first wrong tile on the wire from the station is this
+// one. A cell further down behind another wrong tile stays dark until that
+// tile is fixed too, so it counts for the lower tile only.
+//
+// Every cell keeps how many cells under it are already behind a wrong tile
+// below it. Turning a tile right or wrong changes that only on its way up to
+// the first wrong tile above it, so a turn walks that part of its path to the
+// station, and a station move redoes the cells between the old and the new
+// station. A max segment tree over the cells keeps the most critical wrong
+// tile of every range, so each changed ranking updates O(log n) entries, and
+// the top k are read by walking down from the root with a small heap, without
+// looking at the rest of the board.
+class CriticalityIndex {
+  SolutionTree tree;
+  MoveScore score;
+  // whether each cell was turned wrong when it was last ranked
+  boolean[] wrong;
+  // covered[cell] is the number of cells under the cell, itself left out,
+  // that sit behind a wrong tile below it
+  int[] covered;
+  // the number of leaves, a power of two at least the number of cells
+  int leaves;
+  // best[node] is the most critical wrong cell under the node, or -1; the
+  // leaf of cell c is node leaves + c
+  int[] best;
+  // the nodes waiting to be looked at by top, reused between calls
+  int[] heap;
+
+  CriticalityIndex(SolutionTree tree, MoveScore score) {
+    this.tree = tree;
+    this.score = score;
+    int cells = tree.parent.length;
+    this.leaves = Integer.highestOneBit(Math.max(1, cells - 1)) << 1;
+    this.wrong = new boolean[cells];
+    this.covered = new int[cells];
+    this.best = new int[2 * this.leaves];
+    this.heap = new int[16];
+    this.rebuild();
+  }
+
+  // returns the number of cells that turning the given tile right alone
+  // would power again, or -1 if the tile is not turned wrong
+  int criticality(int cell) {
+    if (cell >= this.wrong.length || !this.wrong[cell]) {
+      return -1;
+    }
+    return this.tree.cutOff(cell) - this.covered[cell];
+  }
+
+  // returns the number of cells in the subtree of the given cell that sit
+  // behind a wrong tile in that subtree
+  int cover(int cell) {
+    return this.wrong[cell] ? this.tree.size[cell] : this.covered[cell];
+  }
+
+  // returns true if the given cell is turned wrong now
+  boolean isWrong(int cell) {
+    return cell < this.score.needed.length && this.score.needed[cell] != 0;
+  }
+
+  // returns the number of cells the given cell's children cover
+  int childCover(int cell) {
+    int sum = 0;
+    Topology topology = this.tree.topology;
+    for (int dir = 0; dir < topology.directions; dir++) {
+      int child = topology.neighbors[dir][cell];
+      if (child >= 0 && this.tree.parent[child] == cell) {
+        sum += this.cover(child);
+      }
+    }
+    return sum;
+  }
+
+  // returns whichever of the two given cells is more critical, the first on
+  // a tie; -1 stands for no cell
+  int better(int a, int b) {
+    if (a < 0) {
+      return b;
+    }
+    if (b < 0) {
+      return a;
+    }
+    return this.criticality(a) >= this.criticality(b) ? a : b;
+  }
+
+  // EFFECT: works out what every cell covers and ranks every cell from
+  // scratch
+  void rebuild() {
+    int cells = this.wrong.length;
+    for (int cell = 0; cell < cells; cell++) {
+      this.wrong[cell] = this.isWrong(cell);
+    }
+    // breadth-first from the station, then covers from the leaves up
+    int[] order = new int[cells];
+    order[0] = this.tree.root;
+    int tail = 1;
+    Topology topology = this.tree.topology;
+    for (int head = 0; head < tail; head++) {
+      int cell = order[head];
+      for (int dir = 0; dir < topology.directions; dir++) {
+        int child = topology.neighbors[dir][cell];
+        if (child >= 0 && this.tree.parent[child] == cell) {
+          order[tail] = child;
+          tail++;
+        }
+      }
+    }
+    java.util.Arrays.fill(this.covered, 0);
+    for (int i = tail - 1; i > 0; i--) {
+      this.covered[this.tree.parent[order[i]]] += this.cover(order[i]);
+    }
+    for (int cell = 0; cell < this.leaves; cell++) {
+      this.best[this.leaves + cell] = this.criticality(cell) >= 0 ? cell : -1;
+    }
+    for (int node = this.leaves - 1; node >= 1; node--) {
+      this.best[node] = this.better(this.best[2 * node], this.best[2 * node + 1]);
+    }
+  }
+
+  // EFFECT: re-ranks the given cell after it turned, and the first wrong
+  // tile above it, which it now does or no longer does stand behind
+  void update(int cell) {
+    boolean now = this.isWrong(cell);
+    if (now != this.wrong[cell]) {
+      int before = this.cover(cell);
+      this.wrong[cell] = now;
+      int change = this.cover(cell) - before;
+      for (int up = this.tree.parent[cell]; up >= 0 && change != 0; up = this.tree.parent[up]) {
+        this.covered[up] += change;
+        if (this.wrong[up]) {
+          // the cells above here were already behind this tile
+          this.rank(up);
+          break;
+        }
+      }
+    }
+    this.rank(cell);
+  }
+
+  // EFFECT: puts the given cell back in its place in the segment tree
+  void rank(int cell) {
+    int node = this.leaves + cell;
+    this.best[node] = this.criticality(cell) >= 0 ? cell : -1;
+    for (node /= 2; node >= 1; node /= 2) {
+      this.best[node] = this.better(this.best[2 * node], this.best[2 * node + 1]);
+    }
+  }
+
+  // EFFECT: re-ranks the cells whose subtree changed when the tree was
+  // rerooted away from the given old root: those between it and the new root,
+  // each of which gained its old parent as a child and lost its new one
+  void rerooted(int oldRoot) {
+    for (int cell = oldRoot; cell >= 0; cell = this.tree.parent[cell]) {
+      this.covered[cell] = this.childCover(cell);
+      this.rank(cell);
+    }
+  }
+
+  // returns the most critical wrong tile, or -1 if every tile is right
+  int top() {
+    return this.best[1];
+  }
+
+  // EFFECT: writes up to the given number of the most critical wrong tiles,
+  // most critical first, into the start of the given array
+  // returns the number written
+  int top(int k, int[] out) {
+    int size = 0;
+    int count = 0;
+    if (this.best[1] >= 0) {
+      this.heap[0] = 1;
+      size = 1;
+    }
+    while (count < k && size > 0) {
+      int node = this.heap[0];
+      size--;
+      this.heap[0] = this.heap[size];
+      this.siftDown(0, size);
+      if (node >= this.leaves) {
+        out[count] = this.best[node];
+        count++;
+      }
+      else {
+        // every cell is the best of at most one node per level, so the heap
+        // stays under k times the height and grows only a few times
+        if (size + 2 > this.heap.length) {
+          this.heap = java.util.Arrays.copyOf(this.heap, this.heap.length * 2);
+        }
+        for (int child = 2 * node; child <= 2 * node + 1; child++) {
+          if (this.best[child] >= 0) {
+            this.heap[size] = child;
+            size++;
+            this.siftUp(size - 1);
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  // returns true if the heap entry at i ranks above the one at j
+  boolean above(int i, int j) {
+    int a = this.best[this.heap[i]];
+    int b = this.best[this.heap[j]];
+    int ca = this.criticality(a);
+    int cb = this.criticality(b);
+    return ca > cb || (ca == cb && a < b);
+  }
+
+  // EFFECT: moves the heap entry at i up to its place
+  void siftUp(int i) {
+    while (i > 0 && this.above(i, (i - 1) / 2)) {
+      this.swap(i, (i - 1) / 2);
+      i = (i - 1) / 2;
+    }
+  }
+
+  // EFFECT: moves the heap entry at i down to its place among the first size
+  void siftDown(int i, int size) {
+    while (true) {
+      int top = i;
+      for (int child = 2 * i + 1; child <= 2 * i + 2; child++) {
+        if (child < size && this.above(child, top)) {
+          top = child;
+        }
+      }
+      if (top == i) {
+        return;
+      }
+      this.swap(i, top);
+      i = top;
+    }
+  }
+
+  // EFFECT: swaps two heap entries
+  void swap(int i, int j) {
+    int t = this.heap[i];
+    this.heap[i] = this.heap[j];
+    this.heap[j] = t;
+  }
+
+  // clicks random cells of a large board, comparing the time of keeping the
+  // index up to date with ranking from scratch, and times the top ten:
+  // java CriticalityIndex <size> <clicks>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+    int clicks = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    LightEmAll game = new LightEmAll(size, size, 0, false, new Random(1));
+    CriticalityIndex index = game.critical;
+    Random rand = new Random(2);
+    long start = System.nanoTime();
+    for (int i = 0; i < clicks; i++) {
+      int cell = rand.nextInt(size * size);
+      GamePiece piece = game.pieceAt(cell);
+      piece.rotate();
+      game.score.turned(cell, piece.wireMask());
+      index.update(cell);
+    }
+    double updateNs = (System.nanoTime() - start) / (double) clicks;
+    int[] top = new int[10];
+    start = System.nanoTime();
+    for (int i = 0; i < clicks; i++) {
+      index.top(10, top);
+    }
+    double topNs = (System.nanoTime() - start) / (double) clicks;
+    int kept = index.top();
+    start = System.nanoTime();
+    index.rebuild();
+    double rebuildUs = (System.nanoTime() - start) / 1e3;
+    System.out.printf("%dx%d board: update %.0f ns, top 10 %.0f ns, rebuild %.0f us; "
+        + "most critical tile gives back %d cells, same after rebuild: %b%n", size, size,
+        updateNs, topNs, rebuildUs, index.criticality(kept), kept == index.top());
+  }
+}
@@ -0,0 +1,467 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+// The engines of the game as they were first written, on ArrayLists and
+// GamePieces: a recursive search that checks the list of connected pieces
+// before every step, a breadth-first search that takes the head off its
+// worklist, and Kruskal's algorithm with a map of representatives and no
+// path compression. They are slow, but easy to trust, so the engines that
+// replaced them are checked against them. Only the row and column order of
+// the board is brought up to date.
+class ReferenceEngine {
+  // returns the pieces joined to the given position by wires, in the order
+  // the original recursive search reached them
+  static ArrayList<GamePiece> powered(LightEmAll game, int row, int col) {
+    ArrayList<GamePiece> connected = new ArrayList<GamePiece>();
+    ReferenceEngine.powerGamePieces(game, row, col, connected);
+    return connected;
+  }
+
+  // EFFECT: adds the given position and every piece joined to it that is not
+  // in the given list yet to the list
+  static void powerGamePieces(LightEmAll game, int pieceRow, int pieceCol,
+      ArrayList<GamePiece> connected) {
+    GamePiece powStsPiece = game.board.get(pieceRow).get(pieceCol);
+    GamePiece adjTop = null;
+    GamePiece adjRight = null;
+    GamePiece adjBot = null;
+    GamePiece adjLeft = null;
+
+    if (pieceRow > 0) {
+      adjTop = game.board.get(pieceRow - 1).get(pieceCol);
+    }
+
+    if (pieceCol < game.width - 1) {
+      adjRight = game.board.get(pieceRow).get(pieceCol + 1);
+    }
+
+    if (pieceRow < game.height - 1) {
+      adjBot = game.board.get(pieceRow + 1).get(pieceCol);
+    }
+
+    if (pieceCol > 0) {
+      adjLeft = game.board.get(pieceRow).get(pieceCol - 1);
+    }
+
+    connected.add(powStsPiece);
+
+    if (adjTop != null && powStsPiece.top && adjTop.bottom && !connected.contains(adjTop)) {
+      powerGamePieces(game, pieceRow - 1, pieceCol, connected);
+    }
+
+    if (adjRight != null && powStsPiece.right && adjRight.left && !connected.contains(adjRight)) {
+      powerGamePieces(game, pieceRow, pieceCol + 1, connected);
+    }
+
+    if (adjBot != null && powStsPiece.bottom && adjBot.top && !connected.contains(adjBot)) {
+      powerGamePieces(game, pieceRow + 1, pieceCol, connected);
+    }
+
+    if (adjLeft != null && powStsPiece.left && adjLeft.right && !connected.contains(adjLeft)) {
+      powerGamePieces(game, pieceRow, pieceCol - 1, connected);
+    }
+  }
+
+  // returns true if the powered pieces reach every cell from the station
+  static boolean bfs(LightEmAll game) {
+    GamePiece powerStationCell = game.board.get(game.powerRow).get(game.powerCol);
+
+    ArrayList<GamePiece> worklist = new ArrayList<>();
+    ArrayList<GamePiece> alreadySeen = new ArrayList<>();
+
+    worklist.add(powerStationCell);
+    alreadySeen.add(powerStationCell);
+
+    int[][] steps = { { 0, 1 }, { 0, -1 }, { 1, 0 }, { -1, 0 } };
+    while (!worklist.isEmpty()) {
+      GamePiece currentCell = worklist.remove(0);
+      for (int[] step : steps) {
+        int row = currentCell.row + step[0];
+        int col = currentCell.col + step[1];
+        if (game.isValidPosition(row, col)) {
+          GamePiece neighbor = game.board.get(row).get(col);
+          if (!alreadySeen.contains(neighbor) && neighbor.powered) {
+            worklist.add(neighbor);
+            alreadySeen.add(neighbor);
+          }
+        }
+      }
+    }
+    return alreadySeen.size() == game.width * game.height;
+  }
+
+  // returns the minimum spanning tree of the given pieces over the given
+  // edges, taking the lightest edge off the front of the sorted worklist
+  // until it is empty
+  static ArrayList<Edge> kruskalMST(ArrayList<GamePiece> nodes, ArrayList<Edge> edges) {
+    HashMap<GamePiece, GamePiece> representatives = new HashMap<GamePiece, GamePiece>();
+    ArrayList<Edge> worklist = new ArrayList<Edge>(edges);
+    worklist.sort(new SortByWeight());
+    ArrayList<Edge> mst = new ArrayList<Edge>();
+
+    for (GamePiece node : nodes) {
+      representatives.put(node, node);
+    }
+
+    while (!worklist.isEmpty()) {
+      Edge cur = worklist.remove(0);
+
+      GamePiece from = find(representatives, cur.fromNode);
+      GamePiece to = find(representatives, cur.toNode);
+      if (!from.samePiece(to)) {
+        mst.add(cur);
+        representatives.replace(to, from);
+      }
+    }
+    return mst;
+  }
+
+  // returns the representative of the given piece in the given map
+  static GamePiece find(HashMap<GamePiece, GamePiece> representative, GamePiece node) {
+    if (representative.containsKey(node)) {
+      if (representative.get(node).equals(node)) {
+        return node;
+      }
+      else {
+        return find(representative, representative.get(node));
+      }
+    }
+    else {
+      return node;
+    }
+  }
+}
+
+// Plays thousands of seeded random boards with random clicks and station
+// moves, and after every move checks the game's engines against the
+// reference ones: the same powered pieces in the same order, the same
+// answer to whether the board is won, and the same spanning tree from the
+// same edges, which must also reach every cell. The generator's packed
+// board must be a spanning tree too.
+//
+// The same moves are played at the same time on three more games of the
+// same board, each taking another path through the engines: one rebuilt from
+// the puzzle cache, one whose clicks and keys go through the input queue and
+// are applied in random batches with one power update each, and one with two
+// more stations powering it in one search. Each one's powered cells and
+// whether it is over must match the reference engines on its own wires, and
+// the first two must keep the same wires as the plain game.
+//
+// It times both sides of every engine, and keeps the first few differences
+// it finds with the seed and move that show them.
+class DifferentialHarness {
+  static final String[] ENGINES = { "power", "win check", "spanning tree", "stations" };
+  // the keys that move the station in each direction
+  static final String[] KEYS = { "up", "right", "down", "left" };
+
+  int boards;
+  int moves;
+  int maxSize;
+  long seed;
+  long checks;
+  long differences;
+  ArrayList<String> failures;
+  // the time each engine took, indexed like ENGINES
+  long[] referenceNanos;
+  long[] optimizedNanos;
+  // makes the cached games; it keeps one puzzle, as each board is played once
+  PuzzleCache puzzles;
+
+  DifferentialHarness(int boards, int moves, int maxSize, long seed) {
+    this.boards = boards;
+    this.moves = moves;
+    this.maxSize = maxSize;
+    this.seed = seed;
+    this.failures = new ArrayList<String>();
+    this.referenceNanos = new long[ENGINES.length];
+    this.optimizedNanos = new long[ENGINES.length];
+    this.puzzles = new PuzzleCache(1, null);
+  }
+
+  // EFFECT: counts a check, and the difference if the given condition fails
+  void check(boolean same, String what) {
+    this.checks++;
+    if (!same) {
+      this.differences++;
+      if (this.failures.size() < 10) {
+        this.failures.add(what);
+      }
+    }
+  }
+
+  // EFFECT: plays and checks every board
+  // returns this harness
+  DifferentialHarness run() {
+    Random seeds = new Random(this.seed);
+    for (int board = 0; board < this.boards; board++) {
+      long boardSeed = seeds.nextLong();
+      Random rand = new Random(boardSeed);
+      int width = 1 + rand.nextInt(this.maxSize);
+      int height = 1 + rand.nextInt(this.maxSize);
+      LightEmAll game = new LightEmAll(width, height, 0, false, new Random(boardSeed));
+      String where = width + "x" + height + " board " + boardSeed;
+      this.checkSpanningTree(game, rand, where);
+      this.checkPower(game, where + " as generated");
+
+      LightEmAll cached = this.puzzles.game(boardSeed, width, height);
+      this.check(DifferentialHarness.sameBoard(cached, game),
+          where + ": cached puzzle is another board");
+      LightEmAll queued = new LightEmAll(width, height, 0, false, new Random(boardSeed));
+      queued.queue = new InputQueue();
+      boolean queuedOver = false;
+      LightEmAll stations = new LightEmAll(width, height, 0, false, new Random(boardSeed));
+      for (int i = 0; i < 2 && i + 1 < width * height; i++) {
+        int cell = rand.nextInt(width * height);
+        while (cell == stations.cellId(stations.powerRow, stations.powerCol)
+            || (stations.stations != null && stations.stations.indexOf(cell) >= 0)) {
+          cell = rand.nextInt(width * height);
+        }
+        stations.addStation(cell / width, cell % width, 0);
+      }
+      this.checkStations(stations, where + " with stations");
+      boolean stationsOver = false;
+
+      for (int move = 0; move < this.moves; move++) {
+        boolean clicked = rand.nextInt(8) != 0;
+        if (!clicked) {
+          int dir = rand.nextInt(4);
+          game.moveStation(dir);
+          cached.moveStation(dir);
+          queued.onKeyEvent(KEYS[dir]);
+          stations.onKeyEvent(KEYS[dir]);
+        }
+        else {
+          int cell = rand.nextInt(width * height);
+          int turns = 1 + rand.nextInt(3);
+          game.rotateCell(cell, turns);
+          cached.rotateCell(cell, turns);
+          for (int i = 0; i < turns; i++) {
+            queued.clickCell(cell, "LeftButton");
+            stations.clickCell(cell, "LeftButton");
+          }
+        }
+        boolean won = this.checkStations(stations, where + " with stations move " + move);
+        // a click checks for a win, a station move does not
+        stationsOver = stationsOver || (won && clicked);
+        this.check(stations.gameOver == stationsOver,
+            where + " with stations move " + move + ": game over says " + stations.gameOver);
+        this.checkPower(game, where + " move " + move);
+        this.checkPower(cached, where + " cached move " + move);
+        this.check(DifferentialHarness.sameBoard(cached, game),
+            where + " cached move " + move + ": wires differ");
+        if (rand.nextInt(4) == 0 || move == this.moves - 1) {
+          queuedOver = this.checkQueued(queued, game, queuedOver, where + " queued move " + move);
+        }
+      }
+      // turn every piece back to the solution, which must be a win
+      for (int cell = 0; cell < width * height; cell++) {
+        int turns = game.score.needed[cell];
+        game.rotateCell(cell, turns);
+        cached.rotateCell(cell, turns);
+        int queuedTurns = queued.score.needed[cell];
+        for (int i = 0; i < queuedTurns; i++) {
+          queued.clickCell(cell, "LeftButton");
+        }
+        int stationTurns = stations.score.needed[cell];
+        for (int i = 0; i < stationTurns; i++) {
+          stations.clickCell(cell, "LeftButton");
+        }
+      }
+      this.checkPower(game, where + " solved");
+      this.check(game.bfs(), where + " solved but not won");
+      this.checkPower(cached, where + " cached solved");
+      this.check(cached.bfs(), where + " cached solved but not won");
+      this.check(this.checkQueued(queued, game, queuedOver, where + " queued solved"),
+          where + " queued solved but not over");
+      this.check(this.checkStations(stations, where + " with stations solved")
+          && stations.gameOver, where + " with stations solved but not over");
+    }
+    return this;
+  }
+
+  // returns true if the two games have the same wires and station
+  static boolean sameBoard(LightEmAll a, LightEmAll b) {
+    if (a.nodes.size() != b.nodes.size() || a.powerRow != b.powerRow
+        || a.powerCol != b.powerCol) {
+      return false;
+    }
+    for (int cell = 0; cell < a.nodes.size(); cell++) {
+      if (a.pieceAt(cell).wireMask() != b.pieceAt(cell).wireMask()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // EFFECT: applies the given queued game's input, then checks its power
+  // against the reference, its wires against the given plain game that was
+  // played the same moves, and whether it is over against the given answer
+  // before this batch and the reference win check
+  // returns whether it should be over now
+  boolean checkQueued(LightEmAll queued, LightEmAll game, boolean over, String where) {
+    queued.queue.drain(queued);
+    this.checkPower(queued, where);
+    // once it is over it takes no more input
+    if (!over) {
+      this.check(DifferentialHarness.sameBoard(queued, game), where + ": wires differ");
+    }
+    boolean expected = over || ReferenceEngine.bfs(queued);
+    this.check(queued.gameOver == expected, where + ": game over says " + queued.gameOver);
+    return expected;
+  }
+
+  // EFFECT: checks the powered pieces of the given game with more than one
+  // station against one reference search from each station, timing both;
+  // every station here reaches the whole board
+  // returns true if the stations power every cell between them
+  boolean checkStations(LightEmAll game, String where) {
+    PowerStations stations = game.stations;
+    if (stations == null) {
+      // a board of one cell has no room for another station
+      this.checkPower(game, where);
+      return ReferenceEngine.bfs(game);
+    }
+    boolean[] reached = new boolean[game.nodes.size()];
+    int count = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < stations.count; i++) {
+      int cell = stations.cells[i];
+      for (GamePiece piece : ReferenceEngine.powered(game, cell / game.width,
+          cell % game.width)) {
+        int id = game.cellId(piece.row, piece.col);
+        if (!reached[id]) {
+          reached[id] = true;
+          count++;
+        }
+      }
+    }
+    long middle = System.nanoTime();
+    int propagated = stations.propagate(game);
+    long end = System.nanoTime();
+    this.referenceNanos[3] += middle - start;
+    this.optimizedNanos[3] += end - middle;
+    this.check(propagated == count, where + ": stations reach " + propagated + " cells, not "
+        + count);
+
+    boolean flags = game.linked.size() == count;
+    for (int cell = 0; cell < reached.length; cell++) {
+      flags = flags && game.pieceAt(cell).powered == reached[cell];
+    }
+    this.check(flags, where + ": powered flags differ");
+    return count == reached.length;
+  }
+
+  // EFFECT: checks the game's power and win check against the reference
+  // ones, timing both
+  void checkPower(LightEmAll game, String where) {
+    long start = System.nanoTime();
+    ArrayList<GamePiece> expected = ReferenceEngine.powered(game, game.powerRow, game.powerCol);
+    long middle = System.nanoTime();
+    ArrayList<GamePiece> actual = new ArrayList<GamePiece>();
+    game.powerGamePieces(game.powerRow, game.powerCol, actual);
+    long end = System.nanoTime();
+    this.referenceNanos[0] += middle - start;
+    this.optimizedNanos[0] += end - middle;
+    this.check(actual.equals(expected), where + ": search reached different pieces");
+
+    // the flags the game keeps, however it got to them, match the search
+    boolean[] reached = new boolean[game.nodes.size()];
+    for (GamePiece piece : expected) {
+      reached[game.cellId(piece.row, piece.col)] = true;
+    }
+    boolean flags = game.linked.size() == expected.size();
+    for (int cell = 0; cell < reached.length; cell++) {
+      flags = flags && game.pieceAt(cell).powered == reached[cell];
+    }
+    this.check(flags, where + ": powered flags differ");
+
+    start = System.nanoTime();
+    boolean won = ReferenceEngine.bfs(game);
+    middle = System.nanoTime();
+    boolean optimized = game.bfs();
+    end = System.nanoTime();
+    this.referenceNanos[1] += middle - start;
+    this.optimizedNanos[1] += end - middle;
+    this.check(won == optimized, where + ": win check says " + optimized);
+  }
+
+  // EFFECT: checks the game's spanning tree of fresh random edges against the
+  // reference one, and that both the tree and the generated solution reach
+  // every cell; leaves the game as it was
+  void checkSpanningTree(LightEmAll game, Random rand, String where) {
+    ArrayList<Edge> edges = new ArrayList<Edge>();
+    for (int cell = 0; cell < game.nodes.size(); cell++) {
+      for (int dir = 1; dir <= 2; dir++) {
+        int other = game.topology.neighbors[dir][cell];
+        if (other >= 0) {
+          // few distinct weights, so the order of ties is checked too
+          edges.add(new Edge(game.pieceAt(cell), game.pieceAt(other), rand.nextInt(8), dir));
+        }
+      }
+    }
+    ArrayList<Edge> mst = game.mst;
+    DifficultyMetrics difficulty = game.difficulty;
+    game.difficulty = null;
+    long start = System.nanoTime();
+    ArrayList<Edge> expected = ReferenceEngine.kruskalMST(game.nodes, edges);
+    long middle = System.nanoTime();
+    ArrayList<Edge> actual = game.kruskalMST(new ArrayList<Edge>(edges));
+    long end = System.nanoTime();
+    game.mst = mst;
+    game.difficulty = difficulty;
+    this.referenceNanos[2] += middle - start;
+    this.optimizedNanos[2] += end - middle;
+    this.check(actual.equals(expected), where + ": spanning trees differ");
+
+    int[] masks = new int[game.nodes.size()];
+    for (Edge edge : actual) {
+      int from = game.cellId(edge.fromNode.row, edge.fromNode.col);
+      int to = game.cellId(edge.toNode.row, edge.toNode.col);
+      masks[from] |= 1 << edge.dir;
+      masks[to] |= 1 << game.topology.opposite(edge.dir);
+    }
+    this.check(BulkCheck.solved(BulkCheck.scalar(game.topology, masks), game.topology, masks),
+        where + ": spanning tree does not reach every cell");
+    this.check(BulkCheck.solved(BulkCheck.scalar(game.topology, difficulty.masks),
+        game.topology, difficulty.masks), where + ": generated solution is not a tree");
+
+    // the packed generator's board, checked its own way and one cell at a time
+    PackedBoard packed = new PackedBoard(game.width, game.height);
+    new KruskalGenerator().generate(packed, rand);
+    int[] packedMasks = packed.masks();
+    this.check(packed.isSpanningTree() && BulkCheck.solved(BulkCheck.scalar(packed.topology,
+        packedMasks), packed.topology, packedMasks), where + ": packed board is not a tree");
+  }
+
+  // returns the number of checks, the differences, and how much faster each
+  // engine was than its reference
+  String report() {
+    StringBuilder report = new StringBuilder(String.format("%d boards up to %dx%d, %d moves each:"
+        + " %d checks, %d differences", this.boards, this.maxSize, this.maxSize, this.moves,
+        this.checks, this.differences));
+    for (int i = 0; i < ENGINES.length; i++) {
+      report.append(String.format("%n  %-13s reference %8.1f ms, optimized %8.1f ms, %6.1fx",
+          ENGINES[i], this.referenceNanos[i] / 1e6, this.optimizedNanos[i] / 1e6,
+          (double) this.referenceNanos[i] / Math.max(1, this.optimizedNanos[i])));
+    }
+    for (String failure : this.failures) {
+      report.append(String.format("%n  %s", failure));
+    }
+    return report.toString();
+  }
+
+  // checks the engines on many random boards:
+  // java DifferentialHarness <boards> <moves> <max size> <seed>
+  public static void main(String[] args) {
+    int boards = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int moves = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    int maxSize = args.length > 2 ? Integer.parseInt(args[2]) : 24;
+    long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+    DifferentialHarness harness = new DifferentialHarness(boards, moves, maxSize, seed).run();
+    System.out.println(harness.report());
+    if (harness.differences > 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,306 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+// chooses the random weight of each edge that createEdges offers to
+// Kruskal's algorithm; lower weights are picked first
+interface EdgeWeights {
+  // returns the weight of the edge leaving the given cell to the right if
+  // horizontal, otherwise downwards
+  int weight(int row, int col, boolean horizontal, Random rand);
+
+  // returns the name of this distribution, used in puzzle keys
+  String name();
+}
+
+// every edge is equally likely, which gives the original boards
+class UniformWeights implements EdgeWeights {
+  public int weight(int row, int col, boolean horizontal, Random rand) {
+    return rand.nextInt();
+  }
+
+  public String name() {
+    return "uniform";
+  }
+}
+
+// prefers horizontal edges, giving long left-to-right runs of wire
+class HorizontalBiasWeights implements EdgeWeights {
+  // how much more a vertical edge weighs, between 0 and 1
+  double bias;
+
+  HorizontalBiasWeights(double bias) {
+    this.bias = bias;
+  }
+
+  public int weight(int row, int col, boolean horizontal, Random rand) {
+    int weight = rand.nextInt(1 << 20);
+    if (!horizontal) {
+      weight += (int) (this.bias * (1 << 20));
+    }
+    return weight;
+  }
+
+  public String name() {
+    return "horizontal-" + this.bias;
+  }
+}
+
+// prefers edges that continue straight corridors of the given length,
+// turning at the corridor ends, which makes long winding paths
+class CorridorWeights implements EdgeWeights {
+  int length;
+
+  CorridorWeights(int length) {
+    this.length = Math.max(2, length);
+  }
+
+  public int weight(int row, int col, boolean horizontal, Random rand) {
+    int weight = rand.nextInt(1 << 20);
+    boolean corridor;
+    if (horizontal) {
+      corridor = col % this.length != this.length - 1;
+    }
+    else {
+      corridor = row % this.length == this.length - 1 && col % this.length == 0;
+    }
+    if (!corridor) {
+      weight += 1 << 20;
+    }
+    return weight;
+  }
+
+  public String name() {
+    return "corridor-" + this.length;
+  }
+}
+
+// prefers edges that touch a grid of hub cells, so hubs collect many wires
+// and the tree branches often
+class BranchingWeights implements EdgeWeights {
+  public int weight(int row, int col, boolean horizontal, Random rand) {
+    int weight = rand.nextInt(1 << 20);
+    boolean fromHub = row % 2 == 0 && col % 2 == 0;
+    boolean toHub;
+    if (horizontal) {
+      toHub = row % 2 == 0 && (col + 1) % 2 == 0;
+    }
+    else {
+      toHub = (row + 1) % 2 == 0 && col % 2 == 0;
+    }
+    if (!fromHub && !toHub) {
+      weight += 1 << 20;
+    }
+    return weight;
+  }
+
+  public String name() {
+    return "branching";
+  }
+}
+
+// difficulty measures of a generated board, kept up to date as Kruskal's
+// algorithm accepts edges
+class DifficultyMetrics {
+  Topology topology;
+  int rows;
+  int cols;
+  // the wires of every cell so far, in row-major order
+  int[] masks;
+  // the number of cells with three or four wires
+  int branchCount;
+  // the number of cells whose wires look the same after some rotation:
+  // straight wires and crosses
+  int ambiguousCount;
+  // the number of wires on the longest path through the tree
+  int longestPath;
+
+  DifficultyMetrics(int rows, int cols) {
+    this(new SquareTopology(rows, cols));
+  }
+
+  DifficultyMetrics(Topology topology) {
+    this.topology = topology;
+    this.rows = topology.rows;
+    this.cols = topology.cols;
+    this.masks = new int[topology.size()];
+  }
+
+  // EFFECT: adds the wire leaving the given cell in the given direction
+  void addEdge(int cell, int dir) {
+    this.addWire(cell, 1 << dir);
+    this.addWire(this.topology.neighbor(cell, dir), 1 << this.topology.opposite(dir));
+  }
+
+  // EFFECT: adds the wire between the two given adjacent cells of a square
+  // board
+  void addEdge(int fromRow, int fromCol, int toRow, int toCol) {
+    int dir;
+    if (toRow < fromRow) {
+      dir = 0;
+    }
+    else if (toCol > fromCol) {
+      dir = 1;
+    }
+    else if (toRow > fromRow) {
+      dir = 2;
+    }
+    else {
+      dir = 3;
+    }
+    this.addWire(fromRow * this.cols + fromCol, 1 << dir);
+    this.addWire(toRow * this.cols + toCol, 1 << ((dir + 2) % 4));
+  }
+
+  // EFFECT: adds the given wire to the given cell, updating the counts
+  void addWire(int cell, int bit) {
+    int before = this.masks[cell];
+    int after = before | bit;
+    this.masks[cell] = after;
+    if (Integer.bitCount(before) < 3 && Integer.bitCount(after) >= 3) {
+      this.branchCount++;
+    }
+    if (DifficultyMetrics.isAmbiguous(before)) {
+      this.ambiguousCount--;
+    }
+    if (DifficultyMetrics.isAmbiguous(after)) {
+      this.ambiguousCount++;
+    }
+  }
+
+  // returns true if some rotation of the given wires looks the same
+  static boolean isAmbiguous(int mask) {
+    return mask == 5 || mask == 10 || mask == 15;
+  }
+
+  // EFFECT: measures the longest path of the finished tree with two
+  // breadth-first searches over the wire masks
+  void finish() {
+    int[] dist = new int[this.masks.length];
+    int far = this.farthest(0, dist);
+    far = this.farthest(far, dist);
+    this.longestPath = dist[far];
+  }
+
+  // returns the cell farthest from the given cell along the wires
+  // EFFECT: fills dist with the distance of every cell
+  int farthest(int start, int[] dist) {
+    java.util.Arrays.fill(dist, -1);
+    int[] order = this.topology.reachable(this.masks, start);
+    dist[start] = 0;
+    int far = start;
+    for (int cell : order) {
+      if (dist[cell] > dist[far]) {
+        far = cell;
+      }
+      for (int dir = 0; dir < this.topology.directions; dir++) {
+        int next = this.topology.neighbor(cell, dir);
+        if (next >= 0 && dist[next] < 0 && this.topology.joined(this.masks, cell, dir)) {
+          dist[next] = dist[cell] + 1;
+        }
+      }
+    }
+    return far;
+  }
+
+  // returns a single difficulty score, higher is harder
+  int score() {
+    return this.longestPath + 2 * this.branchCount + this.ambiguousCount;
+  }
+}
+
+// one generated puzzle in a pool
+class PuzzleEntry {
+  long seed;
+  DifficultyMetrics metrics;
+  // 0 for easy, 1 for medium, 2 for hard
+  int grade;
+
+  PuzzleEntry(long seed, DifficultyMetrics metrics) {
+    this.seed = seed;
+    this.metrics = metrics;
+  }
+}
+
+// generates many puzzles with the same weights and grades them by difficulty
+class PuzzlePool {
+  ArrayList<PuzzleEntry> entries;
+  // the canonical hashes of the solutions in the pool, and the puzzles turned
+  // away because their solution, or a mirror image or turn of it, was in
+  // the pool already
+  HashSet<Long> solutions;
+  int duplicates;
+
+  PuzzlePool() {
+    this.entries = new ArrayList<PuzzleEntry>();
+    this.solutions = new HashSet<Long>();
+  }
+
+  // returns a pool of the given number of puzzles, seeded from the given seed,
+  // graded into thirds by difficulty score
+  static PuzzlePool generate(int count, int width, int height, EdgeWeights weights, long seed) {
+    return PuzzlePool.generate(count, width, height, weights, seed, false);
+  }
+
+  // returns a pool generated from the given number of seeds, seeded from the
+  // given seed, graded into thirds by difficulty score; when distinct, a
+  // puzzle whose solution is a symmetric copy of one in the pool is left out
+  static PuzzlePool generate(int count, int width, int height, EdgeWeights weights, long seed,
+      boolean distinct) {
+    PuzzlePool pool = new PuzzlePool();
+    Random seeds = new Random(seed);
+    for (int i = 0; i < count; i++) {
+      long puzzleSeed = seeds.nextLong();
+      LightEmAll game = new LightEmAll(width, height, 0, new Random(puzzleSeed), weights);
+      long solution = ZobristHash.canonical(game.topology, game.difficulty.masks);
+      if (!pool.solutions.add(solution) && distinct) {
+        pool.duplicates++;
+      }
+      else {
+        pool.entries.add(new PuzzleEntry(puzzleSeed, game.difficulty));
+      }
+    }
+    ArrayList<PuzzleEntry> sorted = new ArrayList<PuzzleEntry>(pool.entries);
+    sorted.sort((a, b) -> Integer.compare(a.metrics.score(), b.metrics.score()));
+    for (int i = 0; i < sorted.size(); i++) {
+      sorted.get(i).grade = i * 3 / sorted.size();
+    }
+    return pool;
+  }
+
+  // returns the puzzles of the given grade
+  ArrayList<PuzzleEntry> graded(int grade) {
+    ArrayList<PuzzleEntry> result = new ArrayList<PuzzleEntry>();
+    for (PuzzleEntry entry : this.entries) {
+      if (entry.grade == grade) {
+        result.add(entry);
+      }
+    }
+    return result;
+  }
+
+  // generates pools with each distribution and prints their average metrics:
+  // java PuzzlePool <count> <size>
+  public static void main(String[] args) {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    EdgeWeights[] all = { new UniformWeights(), new HorizontalBiasWeights(0.5),
+        new CorridorWeights(5), new BranchingWeights() };
+    for (EdgeWeights weights : all) {
+      long start = System.nanoTime();
+      PuzzlePool pool = PuzzlePool.generate(count, size, size, weights, 1);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      double branches = 0;
+      double longest = 0;
+      double ambiguous = 0;
+      for (PuzzleEntry entry : pool.entries) {
+        branches += entry.metrics.branchCount;
+        longest += entry.metrics.longestPath;
+        ambiguous += entry.metrics.ambiguousCount;
+      }
+      System.out.printf("%-16s %6.0f puzzles/s  branches %5.1f  longest %5.1f  ambiguous %5.1f"
+          + "  distinct %d%n", weights.name(), count / seconds, branches / count,
+          longest / count, ambiguous / count, pool.solutions.size());
+    }
+  }
+}
@@ -0,0 +1,534 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javalib.worldimages.Posn;
+
+// a two-way line based connection between a player and the server
+interface Connection {
+  // returns the next line sent by the other side, or null once the connection
+  // is closed
+  String receive();
+
+  // EFFECT: sends the given line to the other side
+  void send(String line);
+
+  // EFFECT: closes this connection
+  void close();
+}
+
+// an in-memory connection, used for tests and for the load generator
+class LoopbackConnection implements Connection {
+  // marks the end of the stream, compared by identity
+  static final String CLOSED = new String("closed");
+
+  LinkedBlockingQueue<String> inbox;
+  LinkedBlockingQueue<String> outbox;
+
+  LoopbackConnection(LinkedBlockingQueue<String> inbox, LinkedBlockingQueue<String> outbox) {
+    this.inbox = inbox;
+    this.outbox = outbox;
+  }
+
+  // returns a client end and a server end that are connected to each other
+  static LoopbackConnection[] pair() {
+    LinkedBlockingQueue<String> toServer = new LinkedBlockingQueue<String>();
+    LinkedBlockingQueue<String> toClient = new LinkedBlockingQueue<String>();
+    return new LoopbackConnection[] { new LoopbackConnection(toClient, toServer),
+        new LoopbackConnection(toServer, toClient) };
+  }
+
+  public String receive() {
+    try {
+      String line = this.inbox.take();
+      if (line == CLOSED) {
+        // leave the marker so later calls also see the closed connection
+        this.inbox.offer(CLOSED);
+        return null;
+      }
+      return line;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  public void send(String line) {
+    this.outbox.offer(line);
+  }
+
+  public void close() {
+    this.outbox.offer(CLOSED);
+    this.inbox.offer(CLOSED);
+  }
+}
+
+// a connection over a TCP socket, one command per line
+class SocketConnection implements Connection {
+  Socket socket;
+  BufferedReader in;
+  PrintWriter out;
+
+  SocketConnection(Socket socket) throws IOException {
+    this.socket = socket;
+    this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+    this.out = new PrintWriter(socket.getOutputStream(), true);
+  }
+
+  public String receive() {
+    try {
+      return this.in.readLine();
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  public synchronized void send(String line) {
+    this.out.println(line);
+  }
+
+  public void close() {
+    try {
+      this.socket.close();
+    }
+    catch (IOException e) {
+      // already closed
+    }
+  }
+}
+
+// one LightEmAll game shared by every player that joined it
+class GameSession implements DeltaListener {
+  String id;
+  LightEmAll game;
+  CopyOnWriteArrayList<Connection> players;
+  // the number of commands applied so far
+  int seq;
+
+  GameSession(String id, LightEmAll game, int tickWindow) {
+    this.id = id;
+    this.game = game;
+    this.players = new CopyOnWriteArrayList<Connection>();
+    this.seq = 0;
+    this.game.updatePower();
+    this.game.deltas = new BoardDeltaRecorder(game, tickWindow);
+    this.game.deltas.listeners.add(this);
+  }
+
+  GameSession(String id, LightEmAll game) {
+    this(id, game, 1);
+  }
+
+  // EFFECT: applies the given command to the game, which broadcasts the
+  // resulting delta frames to every player
+  // returns the reply for the player that sent the command
+  synchronized String apply(String command) {
+    String[] parts = command.trim().split(" ");
+    if (parts[0].equals("click") && parts.length == 3) {
+      Posn pos;
+      try {
+        pos = new Posn(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+      }
+      catch (NumberFormatException e) {
+        return "error bad number: " + command;
+      }
+      this.game.onMouseClicked(pos, "LeftButton");
+    }
+    else if (parts[0].equals("key") && parts.length == 2) {
+      // the camera is shared, so a player panning or zooming it would move
+      // every other player's clicks to other cells
+      if (!GameSession.boardKey(parts[1])) {
+        return "error unknown key: " + parts[1];
+      }
+      this.game.onKeyEvent(parts[1]);
+    }
+    else {
+      return "error unknown command: " + command;
+    }
+    this.seq++;
+    if (this.game.gameOver) {
+      return "ok " + this.seq + " win";
+    }
+    return "ok " + this.seq;
+  }
+
+  // returns true if the given key changes the board rather than the view:
+  // undo, redo or a station move
+  static boolean boardKey(String key) {
+    return key.equals("z") || key.equals("y") || InputQueue.directionOf(key) >= 0;
+  }
+
+  // EFFECT: sends the given delta frame to every player in this session
+  public void onFrame(byte[] frame) {
+    this.broadcast("delta " + Base64.getEncoder().encodeToString(frame));
+  }
+
+  // EFFECT: sends the given line to every player in this session
+  void broadcast(String line) {
+    for (Connection player : this.players) {
+      player.send(line);
+    }
+  }
+
+  // returns the whole board as a key frame, sent to players when they join
+  synchronized String fullState() {
+    return "board " + Base64.getEncoder().encodeToString(this.game.deltas.keyframe());
+  }
+}
+
+// hosts many game sessions, running one thread per player connection
+//
+// Protocol, one command per line:
+// join <session> <width> <height> <seed> creates or joins a session, and
+// replies with "board <key frame>"
+// every command is broadcast to the session as "delta <delta frame>", with
+// frames encoded as in BoardDeltaRecorder and then in base 64
+// click <x> <y> rotates the tile under the given pixel
+// key <name> moves the power station, or undoes or redoes with z and y; keys
+// that move the camera are refused
+// quit leaves the session
+// a command that cannot be served, such as one with a bad number or a board
+// wider or taller than MAX_SIDE, is answered with "error <reason>" and the
+// connection stays open
+class GameServer {
+  // the widest and tallest board a player may ask for
+  static final int MAX_SIDE = 1000;
+
+  ConcurrentHashMap<String, GameSession> sessions;
+  ExecutorService connections;
+  ServerSocket listener;
+  // the puzzles already generated, so sessions of the same seed share them
+  PuzzleCache puzzles;
+
+  GameServer() {
+    this.sessions = new ConcurrentHashMap<String, GameSession>();
+    this.puzzles = new PuzzleCache();
+    this.connections = GameServer.newConnectionExecutor();
+  }
+
+  // returns an executor that starts a virtual thread per task when the JVM
+  // supports them, and a platform thread per task otherwise
+  static ExecutorService newConnectionExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    }
+    catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  // returns the session with the given id, creating it from the given seed if
+  // it does not exist yet
+  GameSession session(String id, int width, int height, long seed) {
+    GameSession session = this.sessions.get(id);
+    if (session != null) {
+      return session;
+    }
+    // the board is built outside computeIfAbsent, which would hold up other
+    // joins while a puzzle is generated
+    LightEmAll game = this.puzzles.game(seed, width, height);
+    return this.sessions.computeIfAbsent(id, key -> new GameSession(key, game));
+  }
+
+  // returns the error to send for the given join command, or null if it can
+  // be served
+  static String joinError(String[] parts) {
+    try {
+      int width = Integer.parseInt(parts[2]);
+      int height = Integer.parseInt(parts[3]);
+      Long.parseLong(parts[4]);
+      if (width < 1 || height < 1 || width > MAX_SIDE || height > MAX_SIDE) {
+        return "error board sides must be 1 to " + MAX_SIDE + ": " + String.join(" ", parts);
+      }
+    }
+    catch (NumberFormatException e) {
+      return "error bad number: " + String.join(" ", parts);
+    }
+    return null;
+  }
+
+  // EFFECT: serves the given connection on its own thread
+  void accept(Connection conn) {
+    this.connections.execute(() -> this.handle(conn));
+  }
+
+  // EFFECT: reads commands from the given connection until it quits or closes
+  void handle(Connection conn) {
+    GameSession joined = null;
+    try {
+      String line = conn.receive();
+      while (line != null && !line.equals("quit")) {
+        String[] parts = line.trim().split(" ");
+        if (joined == null) {
+          if (parts[0].equals("join") && parts.length == 5) {
+            String error = GameServer.joinError(parts);
+            if (error != null) {
+              conn.send(error);
+              line = conn.receive();
+              continue;
+            }
+            joined = this.session(parts[1], Integer.parseInt(parts[2]),
+                Integer.parseInt(parts[3]), Long.parseLong(parts[4]));
+            // under the lock that broadcasts deltas, so the key frame is sent
+            // before any delta that is not in it, and after every one that is
+            synchronized (joined) {
+              joined.players.add(conn);
+              conn.send(joined.fullState());
+            }
+          }
+          else {
+            conn.send("error join first");
+          }
+        }
+        else {
+          conn.send(joined.apply(line));
+        }
+        line = conn.receive();
+      }
+    }
+    catch (RuntimeException e) {
+      conn.send("error " + e);
+    }
+    finally {
+      if (joined != null) {
+        joined.players.remove(conn);
+      }
+      conn.close();
+    }
+  }
+
+  // EFFECT: accepts socket connections on the given port in the background
+  // returns the port that is being listened on
+  int listen(int port) throws IOException {
+    this.listener = new ServerSocket(port);
+    this.connections.execute(() -> {
+      while (!this.listener.isClosed()) {
+        try {
+          this.accept(new SocketConnection(this.listener.accept()));
+        }
+        catch (IOException e) {
+          // the listener was closed
+        }
+      }
+    });
+    return this.listener.getLocalPort();
+  }
+
+  // EFFECT: stops accepting connections and stops every connection thread
+  void shutdown() {
+    if (this.listener != null) {
+      try {
+        this.listener.close();
+      }
+      catch (IOException e) {
+        // already closed
+      }
+    }
+    this.connections.shutdownNow();
+  }
+}
+
+// the results of a load generator run
+class LoadReport {
+  int sessions;
+  int players;
+  long commands;
+  double seconds;
+  int cores;
+  long p50Nanos;
+  long p99Nanos;
+
+  LoadReport(int sessions, int players, long commands, double seconds, int cores,
+      long p50Nanos, long p99Nanos) {
+    this.sessions = sessions;
+    this.players = players;
+    this.commands = commands;
+    this.seconds = seconds;
+    this.cores = cores;
+    this.p50Nanos = p50Nanos;
+    this.p99Nanos = p99Nanos;
+  }
+
+  // returns the number of commands handled per second
+  double commandsPerSecond() {
+    return this.commands / this.seconds;
+  }
+
+  public String toString() {
+    return String.format(
+        "%d sessions, %d players, %d commands in %.3f s on %d cores: %.0f cmd/s, "
+            + "p50 %.3f ms, p99 %.3f ms",
+        this.sessions, this.players, this.commands, this.seconds, this.cores,
+        this.commandsPerSecond(), this.p50Nanos / 1e6, this.p99Nanos / 1e6);
+  }
+}
+
+// the load generator runs of a ramp that doubled the number of sessions until
+// the p99 latency went over a target, and the most sessions held under it
+class CapacityReport {
+  long targetNanos;
+  int cores;
+  // the largest number of sessions whose p99 stayed under the target, or 0
+  int sessions;
+  ArrayList<LoadReport> steps;
+
+  CapacityReport(long targetNanos, int cores) {
+    this.targetNanos = targetNanos;
+    this.cores = cores;
+    this.sessions = 0;
+    this.steps = new ArrayList<LoadReport>();
+  }
+
+  // returns the number of sessions one core holds under the target
+  double sessionsPerCore() {
+    return (double) this.sessions / this.cores;
+  }
+
+  public String toString() {
+    StringBuilder report = new StringBuilder(String.format(
+        "%d sessions held with p99 under %.3f ms on %d cores: %.1f sessions per core",
+        this.sessions, this.targetNanos / 1e6, this.cores, this.sessionsPerCore()));
+    for (LoadReport step : this.steps) {
+      report.append(String.format("%n  %s", step));
+    }
+    return report.toString();
+  }
+}
+
+// drives a GameServer with simulated players over loopback connections and
+// measures command latency
+class ServerLoadGenerator {
+  int sessions;
+  int playersPerSession;
+  int commandsPerPlayer;
+  int boardSize;
+
+  ServerLoadGenerator(int sessions, int playersPerSession, int commandsPerPlayer,
+      int boardSize) {
+    this.sessions = sessions;
+    this.playersPerSession = playersPerSession;
+    this.commandsPerPlayer = commandsPerPlayer;
+    this.boardSize = boardSize;
+  }
+
+  // runs the load against the given server and returns the measurements
+  LoadReport run(GameServer server) throws InterruptedException {
+    int players = this.sessions * this.playersPerSession;
+    long[][] latencies = new long[players][this.commandsPerPlayer];
+    CountDownLatch done = new CountDownLatch(players);
+    ExecutorService clients = GameServer.newConnectionExecutor();
+
+    long start = System.nanoTime();
+    for (int p = 0; p < players; p++) {
+      int player = p;
+      LoopbackConnection[] ends = LoopbackConnection.pair();
+      server.accept(ends[1]);
+      clients.execute(() -> {
+        this.play(ends[0], "s" + (player % this.sessions), new Random(player),
+            latencies[player]);
+        done.countDown();
+      });
+    }
+    done.await();
+    long elapsed = System.nanoTime() - start;
+    clients.shutdown();
+
+    long[] all = new long[players * this.commandsPerPlayer];
+    for (int p = 0; p < players; p++) {
+      System.arraycopy(latencies[p], 0, all, p * this.commandsPerPlayer, this.commandsPerPlayer);
+    }
+    Arrays.sort(all);
+    return new LoadReport(this.sessions, players, all.length, elapsed / 1e9,
+        Runtime.getRuntime().availableProcessors(), ServerLoadGenerator.percentile(all, 0.50),
+        ServerLoadGenerator.percentile(all, 0.99));
+  }
+
+  // runs this load on a fresh server with 1, 2, 4, ... sessions, up to the
+  // given most, stopping at the first run whose p99 latency is over the given
+  // target
+  // returns every run and the most sessions that stayed under the target
+  CapacityReport ramp(long targetNanos, int maxSessions) throws InterruptedException {
+    CapacityReport capacity = new CapacityReport(targetNanos,
+        Runtime.getRuntime().availableProcessors());
+    for (int count = 1; count <= maxSessions; count *= 2) {
+      GameServer server = new GameServer();
+      LoadReport step = new ServerLoadGenerator(count, this.playersPerSession,
+          this.commandsPerPlayer, this.boardSize).run(server);
+      server.shutdown();
+      capacity.steps.add(step);
+      if (step.p99Nanos > targetNanos) {
+        break;
+      }
+      capacity.sessions = count;
+    }
+    return capacity;
+  }
+
+  // EFFECT: joins the given session and sends random clicks, recording the
+  // time until each one is acknowledged
+  void play(Connection conn, String session, Random rand, long[] latencies) {
+    conn.send("join " + session + " " + this.boardSize + " " + this.boardSize + " "
+        + session.hashCode());
+    conn.receive();
+    for (int i = 0; i < latencies.length; i++) {
+      int x = rand.nextInt(this.boardSize) * WorldConstants.PIECE_SIZE;
+      int y = rand.nextInt(this.boardSize) * WorldConstants.PIECE_SIZE;
+      long sent = System.nanoTime();
+      conn.send("click " + x + " " + y);
+      String reply = conn.receive();
+      // skip the deltas broadcast for other players' commands
+      while (reply != null && !reply.startsWith("ok")) {
+        reply = conn.receive();
+      }
+      latencies[i] = System.nanoTime() - sent;
+    }
+    conn.send("quit");
+  }
+
+  // returns the value at the given fraction of the sorted array
+  static long percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  // runs the load generator, e.g. java ServerLoadGenerator 200 4 100 10; with
+  // a p99 target in milliseconds after the board size, ramps the sessions up
+  // to the given number instead and reports the sessions per core held under
+  // it, e.g. java ServerLoadGenerator 4096 4 100 10 5
+  public static void main(String[] args) throws InterruptedException {
+    int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int players = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int commands = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+    int size = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+    ServerLoadGenerator load = new ServerLoadGenerator(sessions, players, commands, size);
+    if (args.length > 4) {
+      long target = (long) (Double.parseDouble(args[4]) * 1e6);
+      System.out.println(load.ramp(target, sessions));
+      return;
+    }
+    GameServer server = new GameServer();
+    LoadReport report = load.run(server);
+    server.shutdown();
+    System.out.println(report);
+  }
+}
@@ -0,0 +1,191 @@
+import java.util.Random;
+
+// Collects the clicks and station moves that arrive between two ticks and
+// applies them in one pass: every rotation and move in arrival order, then
+// one power update, one delta frame and one win check for the whole batch,
+// instead of one of each per event.
+//
+// A batch still stops at the win, as clicking one at a time would: it keeps
+// the number of wires joined to a neighbor up to date as tiles turn, and
+// only once there are enough of them to join every cell does it update the
+// power and check for a win; the events after a winning one are dropped.
+//
+// Each event is one int: a cell id for a click, or one of the negative codes
+// below for a key.
+class InputQueue {
+  // codes of the keys that change the board; a station move in direction d
+  // is -1 - d
+  static final int UNDO = -5;
+  static final int REDO = -6;
+
+  int[] events;
+  int size;
+  // the number of batches applied and the events in them
+  long batches;
+  long applied;
+
+  InputQueue() {
+    this.events = new int[16];
+    this.size = 0;
+  }
+
+  // returns the direction the given key moves the station in, or -1 if it
+  // does not move it
+  static int directionOf(String key) {
+    if (key.equals("up")) {
+      return 0;
+    }
+    else if (key.equals("right")) {
+      return 1;
+    }
+    else if (key.equals("down")) {
+      return 2;
+    }
+    else if (key.equals("left")) {
+      return 3;
+    }
+    return -1;
+  }
+
+  // EFFECT: queues the given event
+  void add(int event) {
+    if (this.size == this.events.length) {
+      this.events = java.util.Arrays.copyOf(this.events, this.size * 2);
+    }
+    this.events[this.size] = event;
+    this.size++;
+  }
+
+  // EFFECT: queues the given key if it changes the board
+  void addKey(String key) {
+    if (key.equals("z")) {
+      this.add(UNDO);
+    }
+    else if (key.equals("y")) {
+      this.add(REDO);
+    }
+    else if (InputQueue.directionOf(key) >= 0) {
+      this.add(-1 - InputQueue.directionOf(key));
+    }
+  }
+
+  // returns the number of pairs of neighbors joined by a wire on both sides
+  // that the given cell is in
+  static int joinedAround(LightEmAll game, int cell) {
+    Topology topology = game.topology;
+    GamePiece piece = game.pieceAt(cell);
+    int joined = 0;
+    for (int dir = 0; dir < topology.directions; dir++) {
+      int other = topology.neighbors[dir][cell];
+      if (other >= 0 && piece.hasWire(dir)
+          && game.pieceAt(other).hasWire(topology.opposite(dir))) {
+        joined++;
+      }
+    }
+    return joined;
+  }
+
+  // returns the number of pairs of neighbors joined by a wire on both sides
+  static int joined(LightEmAll game) {
+    int joined = 0;
+    for (int cell = 0; cell < game.nodes.size(); cell++) {
+      joined += InputQueue.joinedAround(game, cell);
+    }
+    return joined / 2;
+  }
+
+  // EFFECT: applies the queued events to the given game up to the one that
+  // wins it, then updates its power once if any event needed it, ends the
+  // delta frame and checks for a win, and empties the queue
+  // returns the number of events applied
+  int drain(LightEmAll game) {
+    int count = this.size;
+    if (count == 0) {
+      return 0;
+    }
+    if (game.gameOver) {
+      // a won game takes no more input
+      this.size = 0;
+      return 0;
+    }
+    // every cell is powered only if at least one pair fewer than the cells
+    // are joined, so below that the power is not worked out
+    int cells = game.nodes.size();
+    int joined = InputQueue.joined(game);
+    game.deferPower = true;
+    try {
+      for (int i = 0; i < count; i++) {
+        int event = this.events[i];
+        if (event >= 0) {
+          joined -= InputQueue.joinedAround(game, event);
+          game.rotateCell(event, 1);
+          joined += InputQueue.joinedAround(game, event);
+        }
+        else if (event == UNDO) {
+          game.undo();
+          joined = InputQueue.joined(game);
+        }
+        else if (event == REDO) {
+          game.redo();
+          joined = InputQueue.joined(game);
+        }
+        else {
+          game.moveStation(-1 - event);
+        }
+        if (joined >= cells - 1) {
+          if (game.powerDirty) {
+            game.powerDirty = false;
+            game.updatePower();
+          }
+          if (game.bfs()) {
+            game.gameOver = true;
+            count = i + 1;
+          }
+        }
+      }
+    }
+    finally {
+      game.deferPower = false;
+      this.size = 0;
+    }
+    if (game.powerDirty) {
+      game.powerDirty = false;
+      game.updatePower();
+    }
+    if (game.deltas != null) {
+      game.deltas.tick();
+    }
+    if (game.bfs()) {
+      game.gameOver = true;
+    }
+    this.batches++;
+    this.applied += count;
+    return count;
+  }
+
+  // clicks random powered cells in bursts of 1, 4, 16, ... events per tick,
+  // reporting events handled per millisecond for each burst size:
+  // java InputQueue <size> <events>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int events = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+    for (int batch = 1; batch <= 256; batch *= 4) {
+      LightEmAll game = new LightEmAll(size, size, 0, false, new Random(1));
+      game.queue = new InputQueue();
+      Random rand = new Random(2);
+      long start = System.nanoTime();
+      for (int i = 0; i < events; i++) {
+        // clicks inside the powered area force a power update
+        GamePiece piece = game.linked.get(rand.nextInt(game.linked.size()));
+        game.onMouseClicked(game.camera.center(piece.row, piece.col), "LeftButton");
+        if ((i + 1) % batch == 0) {
+          game.onTick();
+        }
+      }
+      game.onTick();
+      double ms = (System.nanoTime() - start) / 1e6;
+      System.out.printf("%dx%d board, %3d events per tick: %8.1f events/ms, "
+          + "%d power updates%n", size, size, batch, events / ms, game.fullPowerUpdates);
+    }
+  }
+}
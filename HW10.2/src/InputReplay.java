@@ -0,0 +1,284 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import javalib.worldimages.Posn;
+
+// Writes the seed of a game and every input event sent to it to an
+// append-only log.
+//
+// The log is a header (magic, seed, width, height, radius) followed by one
+// record per event: 'C' cell button for a click, with the cell the camera
+// found under the mouse or -1, and 'K' key for onKeyEvent. Clicks are logged
+// by cell rather than by pixel because the same pixel lands on another cell
+// once the view has been panned, zoomed or resized. Older logs may also hold
+// 'M' x y button records of the pixel clicked. Strings are written with
+// DataOutput.writeUTF.
+class InputRecorder {
+  static final int MAGIC = 0x4C454D4C;
+
+  DataOutputStream out;
+  // the number of events recorded so far
+  long events;
+
+  InputRecorder(OutputStream out, long seed, int width, int height, int radius)
+      throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out));
+    this.out.writeInt(MAGIC);
+    this.out.writeLong(seed);
+    this.out.writeInt(width);
+    this.out.writeInt(height);
+    this.out.writeInt(radius);
+    this.out.flush();
+    this.events = 0;
+  }
+
+  // returns a new game built from the given seed, recording its input to the
+  // given stream
+  static LightEmAll record(OutputStream out, long seed, int width, int height, int radius)
+      throws IOException {
+    LightEmAll game = ReplayEngine.newGame(seed, width, height, radius);
+    game.updatePower();
+    game.inputs = new InputRecorder(out, seed, width, height, radius);
+    return game;
+  }
+
+  // EFFECT: appends a click on the given cell to the log
+  void recordCell(int cell, String button) {
+    try {
+      this.out.writeByte('C');
+      this.out.writeInt(cell);
+      this.out.writeUTF(button);
+      this.out.flush();
+      this.events++;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // EFFECT: appends a key press to the log
+  void recordKey(String key) {
+    try {
+      this.out.writeByte('K');
+      this.out.writeUTF(key);
+      this.out.flush();
+      this.events++;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // EFFECT: closes the underlying stream
+  void close() throws IOException {
+    this.out.close();
+  }
+}
+
+// one recorded input event
+class InputEvent {
+  // 'C' for a click on a cell, 'M' for a mouse click at a pixel, 'K' for a
+  // key press
+  char kind;
+  Posn pos;
+  int cell;
+  // the mouse button or the key
+  String name;
+
+  InputEvent(char kind, Posn pos, String name) {
+    this.kind = kind;
+    this.pos = pos;
+    this.name = name;
+  }
+
+  InputEvent(int cell, String name) {
+    this('C', null, name);
+    this.cell = cell;
+  }
+
+  // EFFECT: sends this event to the given game
+  void applyTo(LightEmAll game) {
+    if (this.kind == 'C') {
+      game.clickCell(this.cell, this.name);
+    }
+    else if (this.kind == 'M') {
+      game.onMouseClicked(this.pos, this.name);
+    }
+    else {
+      game.onKeyEvent(this.name);
+    }
+  }
+}
+
+// the outcome of replaying a log
+class ReplayResult {
+  long events;
+  // the time spent building the board and replaying the events
+  double generateSeconds;
+  double replaySeconds;
+  long checksum;
+  // the fingerprint of the wires and the station, kept during the replay
+  long fingerprint;
+  boolean gameOver;
+
+  ReplayResult(long events, double generateSeconds, double replaySeconds, long checksum,
+      long fingerprint, boolean gameOver) {
+    this.events = events;
+    this.generateSeconds = generateSeconds;
+    this.replaySeconds = replaySeconds;
+    this.checksum = checksum;
+    this.fingerprint = fingerprint;
+    this.gameOver = gameOver;
+  }
+
+  // returns the number of events replayed per second
+  double eventsPerSecond() {
+    return this.events / this.replaySeconds;
+  }
+
+  public String toString() {
+    return String.format("%d events in %.3f ms (%.0f events/s), generated in %.3f ms, "
+        + "checksum %016x, fingerprint %016x%s", this.events, this.replaySeconds * 1e3,
+        this.eventsPerSecond(), this.generateSeconds * 1e3, this.checksum, this.fingerprint,
+        this.gameOver ? ", won" : "");
+  }
+}
+
+// re-runs a recorded session without a window, as fast as possible
+class ReplayEngine {
+  long seed;
+  int width;
+  int height;
+  int radius;
+  ArrayList<InputEvent> events;
+
+  ReplayEngine(long seed, int width, int height, int radius, ArrayList<InputEvent> events) {
+    this.seed = seed;
+    this.width = width;
+    this.height = height;
+    this.radius = radius;
+    this.events = events;
+  }
+
+  // returns the game that the given seed and size generate
+  static LightEmAll newGame(long seed, int width, int height, int radius) {
+    return new LightEmAll(width, height, radius, false, new Random(seed));
+  }
+
+  // returns the engine for the log in the given stream
+  static ReplayEngine read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if (data.readInt() != InputRecorder.MAGIC) {
+      throw new IOException("Not an input log");
+    }
+    long seed = data.readLong();
+    int width = data.readInt();
+    int height = data.readInt();
+    int radius = data.readInt();
+    ArrayList<InputEvent> events = new ArrayList<InputEvent>();
+    while (true) {
+      int kind;
+      try {
+        kind = data.readByte();
+      }
+      catch (EOFException e) {
+        break;
+      }
+      if (kind == 'C') {
+        int cell = data.readInt();
+        events.add(new InputEvent(cell, data.readUTF()));
+      }
+      else if (kind == 'M') {
+        Posn pos = new Posn(data.readInt(), data.readInt());
+        events.add(new InputEvent('M', pos, data.readUTF()));
+      }
+      else if (kind == 'K') {
+        events.add(new InputEvent('K', null, data.readUTF()));
+      }
+      else {
+        throw new IOException("Unknown event type: " + kind);
+      }
+    }
+    return new ReplayEngine(seed, width, height, radius, events);
+  }
+
+  // returns the result of generating the board and replaying every event
+  ReplayResult run() {
+    long start = System.nanoTime();
+    LightEmAll game = ReplayEngine.newGame(this.seed, this.width, this.height, this.radius);
+    game.updatePower();
+    long generated = System.nanoTime();
+    for (InputEvent event : this.events) {
+      event.applyTo(game);
+    }
+    long end = System.nanoTime();
+    return new ReplayResult(this.events.size(), (generated - start) / 1e9,
+        (end - generated) / 1e9, ReplayEngine.checksum(game), ReplayEngine.fingerprint(game),
+        game.gameOver);
+  }
+
+  // returns the Zobrist hash of the wires mixed with the station, read in
+  // O(1) since the game keeps the hash up to date as it is played
+  static long fingerprint(LightEmAll game) {
+    long station = game.topology.cellId(game.powerRow, game.powerCol);
+    return game.zobrist.hash() ^ ZobristHash.mix(~station);
+  }
+
+  // returns a checksum of the wires and power of every cell, the station and
+  // whether the game is over
+  static long checksum(LightEmAll game) {
+    CRC32 crc = new CRC32();
+    // update(int) only takes the low byte, so the sizes go in whole
+    ByteBuffer header = ByteBuffer.allocate(16);
+    header.putInt(game.width).putInt(game.height).putInt(game.powerRow).putInt(game.powerCol);
+    crc.update(header.array());
+    crc.update(game.gameOver ? 1 : 0);
+    for (GamePiece piece : game.nodes) {
+      crc.update(piece.wireMask() | (piece.powered ? 16 : 0));
+    }
+    return crc.getValue();
+  }
+
+  // records a session of random clicks, or replays a log:
+  // java ReplayEngine record <file> <size> <events> <seed>
+  // java ReplayEngine <file> [repeats]
+  public static void main(String[] args) throws IOException {
+    if (args[0].equals("record")) {
+      int size = Integer.parseInt(args[2]);
+      int events = Integer.parseInt(args[3]);
+      long seed = Long.parseLong(args[4]);
+      FileOutputStream out = new FileOutputStream(args[1]);
+      LightEmAll game = InputRecorder.record(out, seed, size, size, 0);
+      Random rand = new Random(seed);
+      for (int i = 0; i < events; i++) {
+        game.onMouseClicked(new Posn(rand.nextInt(size * WorldConstants.PIECE_SIZE),
+            rand.nextInt(size * WorldConstants.PIECE_SIZE)), "LeftButton");
+      }
+      game.inputs.close();
+      System.out.println("recorded " + events + " events to " + args[1]);
+      return;
+    }
+
+    ReplayEngine engine;
+    try (FileInputStream in = new FileInputStream(args[0])) {
+      engine = ReplayEngine.read(in);
+    }
+    int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    for (int i = 0; i < repeats; i++) {
+      System.out.println(engine.run());
+    }
+  }
+}
@@ -1,13 +1,26 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Comparator;
 import java.util.HashMap;
 
 import tester.*;
 import javalib.impworld.*;
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import javalib.worldimages.*;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 interface WorldConstants {
   int PIECE_SIZE = 100;
@@ -16,10 +29,11 @@ interface WorldConstants {
 }
 
 class LightEmAll extends World implements WorldConstants {
-  // a list of columns of GamePieces,
-  // i.e., represents the board in column-major order
+  // a list of rows of GamePieces, so board.get(row).get(col) is the piece at
+  // that position; a view of the same pieces as nodes
   ArrayList<ArrayList<GamePiece>> board;
-  // a list of all nodes
+  // every piece in row-major order, so the piece of cell id
+  // row * width + col is nodes.get(id); every access goes through here
   ArrayList<GamePiece> nodes;
   // a list of edges of the minimum spanning tree
   ArrayList<Edge> mst;
@@ -40,21 +54,187 @@ class LightEmAll extends World implements WorldConstants {
   // determines whether the game is over
   boolean gameOver;
 
+  // records the changes made to the board as a delta stream, if set
+  BoardDeltaRecorder deltas;
+  // records every input event to an append-only log, if set
+  InputRecorder inputs;
+  // the part of the board shown in the window
+  Camera camera;
+  // the weights given to the edges of the generated board
+  EdgeWeights weights;
+  // how hard the generated board is
+  DifficultyMetrics difficulty;
+  // which cells are next to each other
+  Topology topology;
+  // the rotations made so far, for undo and redo
+  RotationJournal journal;
+  // how many times the power of the whole board was recomputed
+  int fullPowerUpdates;
+  // the player's clicks against the fewest that solve the board, if the
+  // board was generated
+  MoveScore score;
+  // hears how far generation has got, if set
+  GenerationProgress progress;
+  // generates the real board while this one shows its progress, if set
+  BoardLoader loader;
+  // collects clicks and station moves to apply once per tick, if set
+  InputQueue queue;
+  // whether power updates wait for the end of a batch of input, and whether
+  // one is owed
+  boolean deferPower;
+  boolean powerDirty;
+  // runs the simulation at a fixed rate and skips frames that fall behind,
+  // if set
+  FixedStepScheduler scheduler;
+  // the turns still being shown on screen, if set
+  TurnAnimation animation;
+  // the generated spanning tree rooted at the station, if the board was
+  // generated
+  SolutionTree tree;
+  // the wrong tiles ranked by how many cells they cut off, if the board was
+  // generated
+  CriticalityIndex critical;
+  // the fingerprint of the wires, kept up to date on every turn
+  ZobristHash zobrist;
+  // the wires of every cell in shared chunks, kept up to date on every turn
+  // once the first snapshot is taken, so a snapshot only forks it
+  CowBoard wires;
+  // every power station with its radius, if there are more than the one at
+  // powerRow, powerCol; station 0 is that one
+  PowerStations stations;
+
   // constructor for part2 using kruskals algorithm
   LightEmAll(int width, int height, int radius, boolean gameOver, Random rand) {
+    this(width, height, radius, rand, new UniformWeights());
+    this.gameOver = gameOver;
+  }
+
+  // constructor for boards generated with the given edge weights
+  LightEmAll(int width, int height, int radius, Random rand, EdgeWeights weights) {
+    this(new SquareTopology(height, width), radius, rand, weights);
+  }
+
+  // constructor for boards of the given shape, such as a torus
+  LightEmAll(Topology topology, int radius, Random rand, EdgeWeights weights) {
+    this(topology, radius, rand, weights, null);
+  }
+
+  // constructor for boards of the given shape that report how far their
+  // generation has got to the given progress
+  LightEmAll(Topology topology, int radius, Random rand, EdgeWeights weights,
+      GenerationProgress progress) {
+    if (topology.directions != 4) {
+      throw new IllegalArgumentException("a GamePiece only has four wires, not "
+          + topology.directions);
+    }
     this.board = new ArrayList<ArrayList<GamePiece>>();
-    this.width = width;
-    this.height = height;
+    this.topology = topology;
+    this.width = topology.cols;
+    this.height = topology.rows;
     this.powerRow = 0;
     this.powerCol = 0;
     this.radius = radius;
-    this.gameOver = gameOver;
+    this.gameOver = false;
     this.linked = new ArrayList<GamePiece>();
     this.rand = rand;
+    this.weights = weights;
+    this.journal = new RotationJournal();
+    this.progress = progress;
+
+    this.camera = new Camera(width * PIECE_SIZE, height * PIECE_SIZE, height, width);
 
     this.initKruskal();
+    this.reportProgress("scrambling", 0);
     this.randomizeBoard();
+    this.score = new MoveScore(this.difficulty.masks, this.nodes);
+    this.tree = new SolutionTree(this.topology, this.difficulty.masks, 0);
+    this.critical = new CriticalityIndex(this.tree, this.score);
+    this.zobrist = new ZobristHash(this.topology);
+    this.zobrist.reset(this.nodes);
+    this.reportProgress("powering", 0);
+    this.updatePower();
+    this.reportProgress("ready", 1);
+  }
 
+  // constructor for boards with a power station at each of the given
+  // {row, col, radius} triples, where a radius of 0 reaches the whole board;
+  // the first station is the one the player moves
+  LightEmAll(int width, int height, int[][] stations, Random rand) {
+    this(width, height, stations[0][2], false, rand);
+    this.powerRow = stations[0][0];
+    this.powerCol = stations[0][1];
+    int first = this.cellId(this.powerRow, this.powerCol);
+    int oldRoot = this.tree.root;
+    this.tree.reroot(first);
+    this.critical.rerooted(oldRoot);
+    this.stations = new PowerStations(this.nodes.size());
+    this.stations.add(first, stations[0][2]);
+    this.addPowerStation(this.powerRow, this.powerCol);
+    for (int i = 1; i < stations.length; i++) {
+      this.addStation(stations[i][0], stations[i][1], stations[i][2]);
+    }
+    this.updatePower();
+  }
+
+  // constructor for a game of a cached puzzle: rebuilds the generated board
+  // from its packed wires and spanning tree without generating it again
+  LightEmAll(CachedPuzzle puzzle) {
+    this.topology = new SquareTopology(puzzle.key.height, puzzle.key.width);
+    this.width = puzzle.key.width;
+    this.height = puzzle.key.height;
+    this.powerRow = 0;
+    this.powerCol = 0;
+    this.radius = 0;
+    this.gameOver = false;
+    this.linked = new ArrayList<GamePiece>();
+    this.rand = new Random(puzzle.key.seed);
+    this.journal = new RotationJournal();
+    this.camera = new Camera(width * PIECE_SIZE, height * PIECE_SIZE, height, width);
+
+    ArrayList<GamePiece> pieces = new ArrayList<GamePiece>();
+    for (int cell = 0; cell < puzzle.wires.length; cell++) {
+      GamePiece piece = new GamePiece(this.topology.rowOf(cell), this.topology.colOf(cell),
+          false, false, false, false, false, false);
+      piece.setWires(puzzle.wires[cell]);
+      pieces.add(piece);
+    }
+    this.setNodes(pieces);
+    this.pieceAt(0, 0).powerStation = true;
+    this.pieceAt(0, 0).powered = true;
+
+    this.difficulty = new DifficultyMetrics(this.topology);
+    this.mst = new ArrayList<Edge>();
+    this.allEdges = new ArrayList<Edge>();
+    for (int i = 0; i < puzzle.treeCells.length; i++) {
+      int cell = puzzle.treeCells[i];
+      int dir = puzzle.treeDirs[i];
+      this.mst.add(new Edge(this.pieceAt(cell), this.pieceAt(this.topology.neighbor(cell, dir)),
+          puzzle.treeWeights[i], dir));
+      this.difficulty.addEdge(cell, dir);
+    }
+    this.difficulty.finish();
+    this.score = new MoveScore(this.difficulty.masks, this.nodes);
+    this.tree = new SolutionTree(this.topology, this.difficulty.masks, 0);
+    this.critical = new CriticalityIndex(this.tree, this.score);
+    this.zobrist = new ZobristHash(this.topology);
+    this.zobrist.reset(this.nodes);
+    this.updatePower();
+  }
+
+  // constructor for a window that opens before its board is generated: it
+  // shows the loader's progress until the board is ready, then takes it over
+  LightEmAll(BoardLoader loader, int viewWidth, int viewHeight) {
+    this.board = new ArrayList<ArrayList<GamePiece>>();
+    this.nodes = new ArrayList<GamePiece>();
+    this.width = loader.width;
+    this.height = loader.height;
+    this.radius = loader.radius;
+    this.gameOver = false;
+    this.linked = new ArrayList<GamePiece>();
+    this.camera = new Camera(viewWidth, viewHeight, loader.height, loader.width);
+    this.topology = new SquareTopology(loader.height, loader.width);
+    this.journal = new RotationJournal();
+    this.loader = loader;
   }
 
   // constructor for testing
@@ -67,6 +247,9 @@ class LightEmAll extends World implements WorldConstants {
     this.gameOver = false;
     this.rand = new Random();
     this.linked = new ArrayList<GamePiece>();
+    this.camera = new Camera(width * PIECE_SIZE, height * PIECE_SIZE, height, width);
+    this.topology = new SquareTopology(height, width);
+    this.journal = new RotationJournal();
 
     this.initBoard();
   }
@@ -76,10 +259,14 @@ class LightEmAll extends World implements WorldConstants {
     this.board = new ArrayList<ArrayList<GamePiece>>();
     this.width = width;
     this.height = height;
-    this.powerRow = width / 2;
-    this.powerCol = height / 2;
+    this.powerRow = height / 2;
+    this.powerCol = width / 2;
     this.gameOver = false;
+    this.rand = new Random();
     this.linked = new ArrayList<GamePiece>();
+    this.camera = new Camera(width * PIECE_SIZE, height * PIECE_SIZE, height, width);
+    this.topology = new SquareTopology(height, width);
+    this.journal = new RotationJournal();
 
     this.initBoard();
   }
@@ -88,12 +275,11 @@ class LightEmAll extends World implements WorldConstants {
   // Effect: gives each edge a random weight
   // creates the MST
   public void initKruskal() {
-    ArrayList<ArrayList<GamePiece>> buildList = new ArrayList<ArrayList<GamePiece>>();
+    this.reportProgress("placing pieces", 0);
     ArrayList<GamePiece> buildGamePieces = new ArrayList<GamePiece>();
-    for (int colNum = 0; colNum < this.width; colNum++) {
-      ArrayList<GamePiece> row = new ArrayList<GamePiece>();
-      for (int rowNum = 0; rowNum < this.height; rowNum++) {
-        GamePiece curPiece = new GamePiece(colNum, rowNum, false, false, false, false, false,
+    for (int rowNum = 0; rowNum < this.height; rowNum++) {
+      for (int colNum = 0; colNum < this.width; colNum++) {
+        GamePiece curPiece = new GamePiece(rowNum, colNum, false, false, false, false, false,
             false);
         if (rowNum != 0) {
           curPiece.top = true;
@@ -107,27 +293,37 @@ class LightEmAll extends World implements WorldConstants {
         if (colNum != this.width - 1) {
           curPiece.right = true;
         }
-        row.add(curPiece);
         buildGamePieces.add(curPiece);
       }
-      buildList.add(row);
     }
+    this.setNodes(buildGamePieces);
 
-    GamePiece powerStat = buildList.get(0).get(0);
+    GamePiece powerStat = this.pieceAt(0, 0);
     powerStat.powerStation = true;
     powerStat.powered = true;
-    this.board = buildList;
-    this.nodes = buildGamePieces;
+    this.difficulty = new DifficultyMetrics(this.topology);
 
+    this.reportProgress("weighing edges", 0);
     ArrayList<Edge> allEdges = this.createEdges();
     this.mst = this.kruskalMST(allEdges);
+    this.difficulty.finish();
+    this.reportProgress("laying wires", 0);
     this.clearBoard();
     this.drawMst();
   }
 
+  // EFFECT: tells the progress, if any, that generation reached the given
+  // fraction of the given stage
+  void reportProgress(String stage, double fraction) {
+    if (this.progress != null) {
+      this.progress.reached(stage, fraction);
+    }
+  }
+
   // returns a list of edges with the mst using Kruskals Algo
   public ArrayList<Edge> kruskalMST(ArrayList<Edge> worklist) {
     HashMap<GamePiece, GamePiece> representatives = new HashMap<GamePiece, GamePiece>();
+    this.reportProgress("sorting edges", 0);
     worklist.sort(new SortByWeight());
     this.mst = new ArrayList<Edge>();
 
@@ -135,16 +331,27 @@ class LightEmAll extends World implements WorldConstants {
       representatives.put(node, node);
     }
 
-    while (!worklist.isEmpty()) {
-      Edge cur = worklist.remove(0);
-
+    // walks the sorted list instead of removing its head, which shifted the
+    // whole list for every edge
+    this.reportProgress("spanning tree", 0);
+    int step = Math.max(1, worklist.size() / 32);
+    int seen = 0;
+    for (Edge cur : worklist) {
+      seen++;
+      if (seen % step == 0) {
+        this.reportProgress("spanning tree", (double) seen / worklist.size());
+      }
       GamePiece from = find(representatives, cur.fromNode);
       GamePiece to = find(representatives, cur.toNode);
       if (!from.samePiece(to)) {
         mst.add(cur);
         union(representatives, from, to);
+        if (this.difficulty != null && cur.dir >= 0) {
+          this.difficulty.addEdge(this.cellId(cur.fromNode.row, cur.fromNode.col), cur.dir);
+        }
       }
     }
+    worklist.clear();
     return mst;
   }
 
@@ -161,24 +368,32 @@ class LightEmAll extends World implements WorldConstants {
   // Effect: Draws board from mst
   public void drawMst() {
     for (Edge edge : this.mst) {
-      edge.fromNode.connectTo(edge.toNode);
+      if (edge.dir >= 0) {
+        edge.fromNode.addWire(edge.dir);
+        edge.toNode.addWire(this.topology.opposite(edge.dir));
+      }
+      else {
+        edge.fromNode.connectTo(edge.toNode);
+      }
     }
   }
 
   // Finds the representative of the given GamePiece on the given HashMap
+  // Effect: points every piece on the way straight at the representative,
+  // so later finds are short
   public GamePiece find(HashMap<GamePiece, GamePiece> representative, GamePiece node) {
-    if (representative.containsKey(node)) {
-      if (representative.get(node).equals(node)) {
-        return node;
-      }
-      else {
-        return find(representative, representative.get(node));
-      }
+    GamePiece root = node;
+    GamePiece next = representative.get(root);
+    while (next != null && !next.equals(root)) {
+      root = next;
+      next = representative.get(root);
     }
-    else {
-      return node;
+    while (!node.equals(root)) {
+      GamePiece parent = representative.get(node);
+      representative.put(node, root);
+      node = parent;
     }
-
+    return root;
   }
 
   // Effect: Sets value of the to-representative to the from-representative
@@ -187,24 +402,23 @@ class LightEmAll extends World implements WorldConstants {
     representative.replace(toRep, fromRep);
   }
 
-  // assigns all edges with a random weight
+  // assigns all edges with a random weight from this game's weights
   public ArrayList<Edge> createEdges() {
+    if (this.weights == null) {
+      this.weights = new UniformWeights();
+    }
     this.allEdges = new ArrayList<Edge>();
-    ArrayList<GamePiece> visited = new ArrayList<GamePiece>();
-    for (int col = 0; col < width; col++) {
-      for (int row = 0; row < height; row++) {
-        GamePiece node = board.get(col).get(row);
-        visited.add(node);
-
-        if (col < width - 1) {
-          GamePiece rightNeighbor = board.get(col + 1).get(row);
-          this.allEdges.add(new Edge(node, rightNeighbor, rand.nextInt()));
-        }
-
-        if (row < height - 1) {
-          GamePiece bottomNeighbor = board.get(col).get(row + 1);
-          this.allEdges.add(new Edge(node, bottomNeighbor, rand.nextInt()));
-        }
+    int[] down = this.topology.neighbors[2];
+    int[] right = this.topology.neighbors[1];
+    for (int cell = 0; cell < this.topology.size(); cell++) {
+      GamePiece node = this.pieceAt(cell);
+      if (down[cell] >= 0) {
+        this.allEdges.add(new Edge(node, this.pieceAt(down[cell]),
+            this.weights.weight(node.row, node.col, false, rand), 2));
+      }
+      if (right[cell] >= 0) {
+        this.allEdges.add(new Edge(node, this.pieceAt(right[cell]),
+            this.weights.weight(node.row, node.col, true, rand), 1));
       }
     }
     return this.allEdges;
@@ -212,31 +426,61 @@ class LightEmAll extends World implements WorldConstants {
 
   // EFFECT: randomizes an initialized board so the wires are rotated
   public void randomizeBoard() {
-    for (int i = 0; i < width; i++) {
-      ArrayList<GamePiece> column = this.board.get(i);
-      for (GamePiece t : column) {
-        int ranInt = new Random().nextInt(4);
-        for (int j = 0; j < ranInt; j++) {
-          t.rotate();
-        }
+    for (GamePiece t : this.nodes) {
+      int ranInt = this.rand.nextInt(4);
+      for (int j = 0; j < ranInt; j++) {
+        t.rotate();
       }
     }
   }
 
-  // draws the world
+  // draws the part of the world inside the camera's window, or shows the
+  // last frame again if the scheduler says rendering is behind
   public WorldScene makeScene() {
-    WorldScene scene = new WorldScene(width * PIECE_SIZE, height * PIECE_SIZE);
+    if (this.scheduler == null || this.loader != null) {
+      return this.drawScene();
+    }
+    if (!this.scheduler.shouldRender()) {
+      return this.scheduler.lastScene;
+    }
+    long start = System.nanoTime();
+    WorldScene scene = this.drawScene();
+    this.scheduler.rendered(scene, System.nanoTime() - start);
+    return scene;
+  }
+
+  // draws the part of the world inside the camera's window
+  public WorldScene drawScene() {
+    WorldScene scene = new WorldScene(camera.viewWidth, camera.viewHeight);
     Color wire_color = Color.YELLOW;
 
-    if (gameOver) {
+    if (this.loader != null) {
+      return this.loadingScene(scene);
+    }
+    else if (gameOver) {
       TextImage gameOverText = new TextImage("You Win!", 24, Color.RED);
-      scene.placeImageXY(gameOverText, height * PIECE_SIZE / 2, width * PIECE_SIZE / 2);
+      scene.placeImageXY(gameOverText, camera.viewWidth / 2, camera.viewHeight / 2);
+      return scene;
+    }
+    else if (camera.tileSize() < LodRasterizer.LOD_TILE_SIZE) {
+      // tiles this small are drawn as one block of pixels each
+      scene.placeImageXY(LodRasterizer.render(this, camera, true), camera.viewWidth / 2,
+          camera.viewHeight / 2);
+      return scene;
+    }
+    else if ((camera.lastRow() - camera.firstRow())
+        * (camera.lastCol() - camera.firstCol()) >= BandComposer.MIN_TILES) {
+      // many visible tiles are drawn in parallel bands into one image
+      scene.placeImageXY(BandComposer.SHARED.compose(this, camera, true), camera.viewWidth / 2,
+          camera.viewHeight / 2);
       return scene;
     }
     else {
+      int size = camera.tileSize();
 
-      for (ArrayList<GamePiece> column : board) {
-        for (GamePiece piece : column) {
+      for (int row = camera.firstRow(); row < camera.lastRow(); row++) {
+        for (int col = camera.firstCol(); col < camera.lastCol(); col++) {
+          GamePiece piece = this.pieceAt(row, col);
           if (piece != null) {
             if (!piece.powered) {
               wire_color = Color.GRAY;
@@ -245,78 +489,242 @@ class LightEmAll extends World implements WorldConstants {
             else {
               wire_color = Color.YELLOW;
             }
-            scene.placeImageXY(piece.tileImage(PIECE_SIZE, WIRE_WIDTH, wire_color, false),
-                (piece.col * PIECE_SIZE) + (PIECE_SIZE / 2),
-                (piece.row * PIECE_SIZE) + (PIECE_SIZE / 2));
+            Posn center = camera.center(row, col);
+            WorldImage tile = piece.tileImage(size, WIRE_WIDTH, wire_color,
+                this.stations != null && this.stations.indexOf(this.cellId(row, col)) > 0);
+            int turning = this.animation == null ? 0
+                : this.animation.degreesLeft(this.cellId(row, col));
+            if (turning > 0) {
+              // the piece has already turned; it is drawn turned back by the
+              // part of the turn not shown yet
+              tile = new RotateImage(tile, -turning);
+            }
+            scene.placeImageXY(tile, center.x, center.y);
           }
         }
-
-        ArrayList<GamePiece> connected = new ArrayList<>();
-        powerGamePieces(powerRow, powerCol, connected);
-        linked = connected;
-        powerTiles();
       }
 
-      scene.placeImageXY(
-          board.get(powerRow).get(powerCol).tileImage(PIECE_SIZE, WIRE_WIDTH, Color.YELLOW, true),
-          (powerCol * PIECE_SIZE) + (PIECE_SIZE / 2), (powerRow * PIECE_SIZE) + (PIECE_SIZE / 2));
+      if (powerRow >= camera.firstRow() && powerRow < camera.lastRow()
+          && powerCol >= camera.firstCol() && powerCol < camera.lastCol()) {
+        Posn center = camera.center(powerRow, powerCol);
+        scene.placeImageXY(
+            this.pieceAt(powerRow, powerCol).tileImage(size, WIRE_WIDTH, Color.YELLOW, true),
+            center.x, center.y);
+      }
 
       return scene;
     }
   }
 
+  // draws the loader's stage and a bar of how far it has got onto the given
+  // scene
+  // EFFECT: tells the loader a frame was drawn
+  WorldScene loadingScene(WorldScene scene) {
+    this.loader.frameShown();
+    int barWidth = camera.viewWidth * 2 / 3;
+    int filled = (int) (barWidth * this.loader.fraction);
+    int x = camera.viewWidth / 2;
+    int y = camera.viewHeight / 2;
+    scene.placeImageXY(new TextImage("Generating " + this.width + "x" + this.height + ": "
+        + this.loader.stage, 16, Color.BLACK), x, y - 20);
+    scene.placeImageXY(new RectangleImage(barWidth, 12, OutlineMode.OUTLINE, Color.GRAY), x,
+        y + 10);
+    if (filled > 0) {
+      scene.placeImageXY(new RectangleImage(filled, 12, OutlineMode.SOLID, Color.YELLOW),
+          x - (barWidth - filled) / 2, y + 10);
+    }
+    return scene;
+  }
+
+  // EFFECT: takes over the loader's board once it is generated, then runs
+  // the simulation steps that are due, or without a scheduler applies the
+  // input queued since the last tick
+  public void onTick() {
+    if (this.loader != null && this.loader.ready()) {
+      BoardLoader done = this.loader;
+      this.adopt(done.result);
+      done.revealed();
+    }
+    else if (this.loader == null && this.scheduler != null) {
+      int due = this.scheduler.stepsDue(System.nanoTime());
+      for (int i = 0; i < due; i++) {
+        long start = System.nanoTime();
+        this.step();
+        this.scheduler.stepped(System.nanoTime() - start);
+      }
+    }
+    else if (this.loader == null && this.queue != null) {
+      this.queue.drain(this);
+    }
+  }
+
+  // EFFECT: runs one fixed simulation step: applies the queued input, with
+  // its power update and win check, and moves the turn animation on
+  public void step() {
+    if (this.queue != null) {
+      this.queue.drain(this);
+    }
+    if (this.animation != null) {
+      this.animation.step();
+    }
+  }
+
+  // EFFECT: becomes the given game, keeping this window's size
+  void adopt(LightEmAll other) {
+    this.board = other.board;
+    this.nodes = other.nodes;
+    this.mst = other.mst;
+    this.allEdges = other.allEdges;
+    this.width = other.width;
+    this.height = other.height;
+    this.powerRow = other.powerRow;
+    this.powerCol = other.powerCol;
+    this.radius = other.radius;
+    this.rand = other.rand;
+    this.linked = other.linked;
+    this.gameOver = other.gameOver;
+    this.deltas = other.deltas;
+    this.inputs = other.inputs;
+    this.weights = other.weights;
+    this.difficulty = other.difficulty;
+    this.topology = other.topology;
+    this.journal = other.journal;
+    this.fullPowerUpdates = other.fullPowerUpdates;
+    this.score = other.score;
+    this.tree = other.tree;
+    this.critical = other.critical;
+    this.zobrist = other.zobrist;
+    this.wires = other.wires;
+    this.stations = other.stations;
+    this.camera = new Camera(this.camera.viewWidth, this.camera.viewHeight, other.height,
+        other.width);
+    this.loader = null;
+  }
+
   // EFFECT: modifies the powerRow and powerCol after a key is clicked
   public void onKeyEvent(String key) {
-    if (!gameOver) {
-      int newPowerRow = powerRow;
-      int newPowerCol = powerCol;
-
-      if (key.equals("up")) {
-        newPowerRow -= 1;
+    if (this.loader != null) {
+      return;
+    }
+    if (this.inputs != null) {
+      this.inputs.recordKey(key);
+    }
+    if (this.camera.onKey(key)) {
+      return;
+    }
+    if (this.queue != null) {
+      if (!gameOver) {
+        this.queue.addKey(key);
       }
-      else if (key.equals("down")) {
-        newPowerRow++;
+      return;
+    }
+    if (!gameOver && (key.equals("z") || key.equals("y"))) {
+      if (key.equals("z")) {
+        this.undo();
       }
-      else if (key.equals("left")) {
-        newPowerCol -= 1;
+      else {
+        this.redo();
       }
-      else if (key.equals("right")) {
-        newPowerCol += 1;
+      if (this.deltas != null) {
+        this.deltas.tick();
       }
+      if (this.bfs()) {
+        this.gameOver = true;
+      }
+    }
+    else if (!gameOver) {
+      this.moveStation(InputQueue.directionOf(key));
+      if (this.deltas != null) {
+        this.deltas.tick();
+      }
+    }
+  }
 
-      if (isValidPosition(newPowerRow, newPowerCol)) {
-        if (hasWireConnection(newPowerRow, newPowerCol)) {
-          powerRow = newPowerRow;
-          powerCol = newPowerCol;
-
+  // EFFECT: moves the power station one cell in the given direction if a
+  // wire joins it to that cell; does nothing for a direction of -1
+  public void moveStation(int dir) {
+    int next = dir < 0 ? -1 : this.topology.neighbor(this.cellId(powerRow, powerCol), dir);
+    if (next >= 0) {
+      int newPowerRow = this.topology.rowOf(next);
+      int newPowerCol = this.topology.colOf(next);
+      if (hasWireConnection(newPowerRow, newPowerCol)
+          && (this.stations == null || this.stations.indexOf(next) < 0)) {
+        powerRow = newPowerRow;
+        powerCol = newPowerCol;
+        if (this.stations != null) {
+          this.stations.move(0, next);
+        }
+        if (this.tree != null) {
+          int oldRoot = this.tree.root;
+          this.tree.reroot(next);
+          if (this.critical != null) {
+            this.critical.rerooted(oldRoot);
+          }
+        }
+        this.powerChanged();
+        if (this.deltas != null) {
+          this.deltas.stationMoved(this.cellId(powerRow, powerCol));
         }
       }
     }
   }
 
+  // EFFECT: updates the power now, or notes that it is owed if a batch of
+  // input is being applied
+  public void powerChanged() {
+    if (this.deferPower) {
+      this.powerDirty = true;
+    }
+    else {
+      this.updatePower();
+    }
+  }
+
   // Checks if the given position has a wire connection to the old power station
   // position
   public boolean hasWireConnection(int row, int col) {
-    GamePiece piece = board.get(row).get(col);
-    GamePiece powSts = board.get(powerRow).get(powerCol);
-
-    if (powerRow == row - 1 && powerCol == col && piece.top && powSts.bottom) {
-      return true;
+    int cell = this.cellId(row, col);
+    int station = this.cellId(powerRow, powerCol);
+    GamePiece piece = this.pieceAt(cell);
+    GamePiece powSts = this.pieceAt(station);
+    for (int dir = 0; dir < this.topology.directions; dir++) {
+      if (this.topology.neighbors[dir][station] == cell && powSts.hasWire(dir)
+          && piece.hasWire(this.topology.opposite(dir))) {
+        return true;
+      }
     }
+    return false;
+  }
 
-    else if (powerRow == row + 1 && powerCol == col && piece.bottom && powSts.top) {
-      return true;
-    }
+  // returns the row-major index of the cell at the given position
+  public int cellId(int row, int col) {
+    return row * this.width + col;
+  }
 
-    else if (powerRow == row && powerCol == col - 1 && piece.left && powSts.right) {
-      return true;
-    }
+  // returns the piece of the cell with the given id
+  public GamePiece pieceAt(int cell) {
+    return this.nodes.get(cell);
+  }
 
-    else if (powerRow == row && powerCol == col + 1 && piece.right && powSts.left) {
-      return true;
-    }
+  // returns the piece at the given position
+  public GamePiece pieceAt(int row, int col) {
+    return this.nodes.get(this.cellId(row, col));
+  }
 
-    return false;
+  // EFFECT: puts the given piece at the given position
+  public void setPiece(int row, int col, GamePiece piece) {
+    this.nodes.set(this.cellId(row, col), piece);
+    this.board.get(row).set(col, piece);
+  }
+
+  // EFFECT: stores the given row-major pieces and builds the rows view of them
+  public void setNodes(ArrayList<GamePiece> pieces) {
+    this.nodes = pieces;
+    this.board = new ArrayList<ArrayList<GamePiece>>();
+    for (int row = 0; row < this.height; row++) {
+      this.board.add(new ArrayList<GamePiece>(pieces.subList(row * this.width,
+          (row + 1) * this.width)));
+    }
   }
 
   // Checks if the given position is within the bounds of the board
@@ -325,83 +733,257 @@ class LightEmAll extends World implements WorldConstants {
   }
 
   // EFFECT: returns a list of all the GamePieces connected to the cell indicated
-  // by its position
+  // by its position, in depth-first order, following the neighbor table with
+  // an explicit stack so large boards cannot overflow the call stack
   public void powerGamePieces(int pieceRow, int pieceCol, ArrayList<GamePiece> connected) {
-    GamePiece powStsPiece = board.get(pieceRow).get(pieceCol);
-    GamePiece adjTop = null;
-    GamePiece adjRight = null;
-    GamePiece adjBot = null;
-    GamePiece adjLeft = null;
+    int cells = this.topology.size();
+    int directions = this.topology.directions;
+    boolean[] seen = new boolean[cells];
+    // the cells on the current path and the next direction to try from each
+    int[] stack = new int[cells];
+    int[] nextDir = new int[cells];
+    int top = 0;
+    stack[0] = this.cellId(pieceRow, pieceCol);
+    seen[stack[0]] = true;
+    connected.add(this.pieceAt(stack[0]));
+
+    while (top >= 0) {
+      int cell = stack[top];
+      int dir = nextDir[top];
+      if (dir == directions) {
+        top--;
+        continue;
+      }
+      nextDir[top]++;
+      int other = this.topology.neighbors[dir][cell];
+      if (other >= 0 && !seen[other] && this.pieceAt(cell).hasWire(dir)
+          && this.pieceAt(other).hasWire(this.topology.opposite(dir))) {
+        seen[other] = true;
+        connected.add(this.pieceAt(other));
+        top++;
+        stack[top] = other;
+        nextDir[top] = 0;
+      }
+    }
+  }
 
-    if (pieceRow > 0) {
-      adjTop = board.get(pieceRow - 1).get(pieceCol);
+  // EFFECT: de-powers the board and powers every piece connected to the power
+  // station
+  public void updatePower() {
+    this.fullPowerUpdates++;
+    this.dePowerBoard();
+    if (this.stations != null) {
+      // one search from every station at once
+      int reached = this.stations.propagate(this);
+      this.linked = new ArrayList<GamePiece>(reached);
+      for (int i = 0; i < reached; i++) {
+        this.linked.add(this.pieceAt(this.stations.order[i]));
+      }
+      this.powerTiles();
+      return;
     }
+    ArrayList<GamePiece> connected = new ArrayList<>();
+    powerGamePieces(powerRow, powerCol, connected);
+    linked = connected;
+    powerTiles();
+  }
 
-    if (pieceCol < width - 1) {
-      adjRight = board.get(pieceRow).get(pieceCol + 1);
+  // EFFECT: powers up each piece in the linked list
+  public void powerTiles() {
+    for (GamePiece piece : linked) {
+      piece.poweUp();
     }
+  }
 
-    if (pieceRow < height - 1) {
-      adjBot = board.get(pieceRow + 1).get(pieceCol);
+  // EFFECT: rotates the clicked tile
+  // powers up the connected pieces
+  // ends the game if bfs returns true
+  public void onMouseClicked(Posn pos, String button) {
+    if (this.loader != null) {
+      return;
+    }
+    Posn cell = this.camera.cellAt(pos);
+    this.clickCell(cell == null ? -1 : this.cellId(cell.y, cell.x), button);
+  }
+
+  // EFFECT: handles a click with the given button on the given cell, or on
+  // no cell for -1, as onMouseClicked does once the camera has found the cell
+  // under the mouse; the log records the cell, so a replay does not depend on
+  // where the view was
+  public void clickCell(int cell, String button) {
+    if (this.inputs != null) {
+      this.inputs.recordCell(cell, button);
+    }
+    if (!gameOver && button.equals("LeftButton") && cell >= 0) {
+      if (this.queue != null) {
+        this.queue.add(cell);
+        return;
+      }
+      this.rotateCell(cell, 1);
+      if (this.deltas != null) {
+        this.deltas.tick();
+      }
+    }
+    if (this.bfs()) {
+      this.gameOver = true;
+    }
+  }
 
+  // EFFECT: rotates the given cell the given number of quarter turns
+  // clockwise, updating the power and recording the move for undo
+  public void rotateCell(int cell, int turns) {
+    this.turnCell(cell, turns);
+    this.journal.record(cell, turns);
+    if (this.score != null) {
+      this.score.clicked(turns);
     }
+  }
 
-    if (pieceCol > 0) {
-      adjLeft = board.get(pieceRow).get(pieceCol - 1);
+  // EFFECT: undoes the newest move by turning its cell back
+  // returns false if there was nothing to undo
+  public boolean undo() {
+    if (!this.journal.canUndo()) {
+      return false;
     }
+    int entry = this.journal.undo();
+    this.turnCell(RotationJournal.cellOf(entry), 4 - RotationJournal.turnsOf(entry));
+    return true;
+  }
 
-    connected.add(powStsPiece);
+  // EFFECT: makes the newest undone move again
+  // returns false if there was nothing to redo
+  public boolean redo() {
+    if (!this.journal.canRedo()) {
+      return false;
+    }
+    int entry = this.journal.redo();
+    this.turnCell(RotationJournal.cellOf(entry), RotationJournal.turnsOf(entry));
+    return true;
+  }
 
-    if (adjTop != null && powStsPiece.top && adjTop.bottom && !connected.contains(adjTop)) {
-      powerGamePieces(pieceRow - 1, pieceCol, connected);
+  // EFFECT: rotates the given cell the given number of quarter turns
+  // clockwise and updates the power. A cell that was unpowered and is still
+  // not joined to a powered neighbor cannot change what the station reaches,
+  // so the full recompute is skipped for it. While a batch is applied the
+  // powered flags are the ones from before it; they still catch every
+  // change, since the first turned cell on any new path sits next to an
+  // unturned cell that was already powered.
+  public void turnCell(int cell, int turns) {
+    GamePiece piece = this.pieceAt(cell);
+    boolean wasPowered = piece.powered;
+    int before = piece.wireMask();
+    for (int i = 0; i < turns; i++) {
+      piece.rotate();
+      if (this.deltas != null) {
+        this.deltas.rotated(cell);
+      }
+    }
+    if (this.score != null) {
+      this.score.turned(cell, piece.wireMask());
+    }
+    if (this.critical != null) {
+      this.critical.update(cell);
+    }
+    if (this.zobrist != null) {
+      this.zobrist.turned(cell, before, piece.wireMask());
     }
+    if (this.wires != null) {
+      this.wires.set(cell, piece.wireMask());
+    }
+    if (this.animation != null) {
+      this.animation.turned(cell, turns, this.nodes.size());
+    }
+    if (wasPowered || this.isStation(cell) || this.touchesPower(cell)) {
+      this.powerChanged();
+    }
+  }
 
-    if (adjRight != null && powStsPiece.right && adjRight.left && !connected.contains(adjRight)) {
-      powerGamePieces(pieceRow, pieceCol + 1, connected);
+  // returns true if the given cell is joined by a wire to a powered neighbor
+  // or the station
+  public boolean touchesPower(int cell) {
+    GamePiece piece = this.pieceAt(cell);
+    for (int dir = 0; dir < this.topology.directions; dir++) {
+      int other = this.topology.neighbors[dir][cell];
+      if (other >= 0 && (this.pieceAt(other).powered || this.isStation(other))
+          && piece.hasWire(dir)
+          && this.pieceAt(other).hasWire(this.topology.opposite(dir))) {
+        return true;
+      }
     }
+    return false;
+  }
 
-    if (adjBot != null && powStsPiece.bottom && adjBot.top && !connected.contains(adjBot)) {
-      powerGamePieces(pieceRow + 1, pieceCol, connected);
+  // returns true if a power station stands on the given cell
+  public boolean isStation(int cell) {
+    if (this.stations != null) {
+      return this.stations.indexOf(cell) >= 0;
     }
+    return cell == this.cellId(this.powerRow, this.powerCol);
+  }
 
-    if (adjLeft != null && powStsPiece.left && adjLeft.right && !connected.contains(adjLeft)) {
-      powerGamePieces(pieceRow, pieceCol - 1, connected);
+  // EFFECT: adds another power station of the given radius at the given
+  // position, where 0 reaches the whole board, and powers the board from
+  // every station
+  public void addStation(int row, int col, int radius) {
+    if (this.stations == null) {
+      this.stations = new PowerStations(this.nodes.size());
+      this.stations.add(this.cellId(this.powerRow, this.powerCol), this.radius);
     }
+    this.stations.add(this.cellId(row, col), radius);
+    this.addPowerStation(row, col);
+    this.powerChanged();
   }
 
-  // EFFECT: powers up each piece in the linked list
-  public void powerTiles() {
-    for (GamePiece piece : linked) {
-      piece.poweUp();
+  // returns a snapshot of the wires and station that can be forked and
+  // played on without touching this game; it shares the game's chunks of
+  // wires, and the next turn in a chunk copies that chunk
+  // EFFECT: copies the wires into chunks the first time
+  public GameState snapshot() {
+    if (this.wires == null) {
+      this.wires = new CowBoard(this.nodes.size());
+      for (int cell = 0; cell < this.nodes.size(); cell++) {
+        this.wires.set(cell, this.pieceAt(cell).wireMask());
+      }
     }
+    return new GameState(this.topology, this.wires.fork(),
+        this.cellId(this.powerRow, this.powerCol));
   }
 
-  // EFFECT: rotates the clicked tile
-  // powers up the connected pieces
-  // ends the game if bfs returns true
-  public void onMouseClicked(Posn pos, String button) {
-    if (!gameOver && button.equals("LeftButton")) {
-      int col = pos.x / PIECE_SIZE;
-      int row = pos.y / PIECE_SIZE;
-      GamePiece clickedTile = board.get(row).get(col);
-      this.dePowerBoard();
-      clickedTile.rotate();
-      ArrayList<GamePiece> connected = new ArrayList<>();
-      powerGamePieces(powerRow, powerCol, connected);
-      linked = connected;
-      powerTiles();
+  // EFFECT: sets the wires of every piece and the station from the given
+  // snapshot, forgetting the undo history, and ends the game only if the
+  // snapshot is solved
+  public void restore(GameState state) {
+    for (int cell = 0; cell < this.nodes.size(); cell++) {
+      this.pieceAt(cell).setWires(state.wires(cell));
     }
-    if (this.bfs()) {
-      this.gameOver = true;
+    this.powerRow = this.topology.rowOf(state.station);
+    this.powerCol = this.topology.colOf(state.station);
+    if (this.stations != null) {
+      this.stations.move(0, state.station);
+    }
+    if (this.tree != null) {
+      this.tree.reroot(state.station);
+    }
+    this.journal.clear();
+    if (this.score != null) {
+      this.score.reset(this.nodes);
+    }
+    if (this.critical != null) {
+      this.critical.rebuild();
     }
+    if (this.zobrist != null) {
+      this.zobrist.reset(this.nodes);
+    }
+    this.wires = state.wires.fork();
+    this.updatePower();
+    this.gameOver = this.bfs();
   }
 
   // EFFECT: initializes all the cells to the correctly rotated board
   public void initBoard() {
     ArrayList<GamePiece> buildNodes = new ArrayList<>();
-    for (int i = 0; i < width; i++) {
-      ArrayList<GamePiece> column = new ArrayList<>();
-      for (int j = 0; j < height; j++) {
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
         GamePiece tile = new GamePiece(i, j, false, false, true, true, false, false);
 
         if (i == 0) {
@@ -412,24 +994,20 @@ class LightEmAll extends World implements WorldConstants {
           tile.opnChange(false, false, true, false);
         }
 
-        column.add(tile);
         buildNodes.add(tile);
       }
-      board.add(column);
     }
+    this.setNodes(buildNodes);
 
     this.horizontalBar();
-    this.addPowerStation(this.powerCol, this.powerRow);
-    this.nodes = buildNodes;
-
+    this.addPowerStation(this.powerRow, this.powerCol);
   }
 
   // EFFECT: changes the tiles so that there is a horizontal bar at the center
   // of the board
   public void horizontalBar() {
-    ArrayList<GamePiece> midCol = this.board.get(height / 2);
-    for (int i = 0; i < midCol.size(); i++) {
-      GamePiece tile = midCol.get(i);
+    for (int i = 0; i < width; i++) {
+      GamePiece tile = this.pieceAt(height / 2, i);
 
       if (i == 0) {
         tile.opnChange(false, true, true, true);
@@ -446,63 +1024,43 @@ class LightEmAll extends World implements WorldConstants {
   }
 
   // EFFECT: adds the powered according to the indicated position
-  public void addPowerStation(int powCol, int powRow) {
-    this.board.get(powCol).get(powRow).makePowStn();
+  public void addPowerStation(int powRow, int powCol) {
+    this.pieceAt(powRow, powCol).makePowStn();
   }
 
   // EFFECT; un-powers every cell in this board
   public void dePowerBoard() {
-    for (ArrayList<GamePiece> column : board) {
-      for (GamePiece piece : column) {
-        piece.dePower();
-      }
+    for (GamePiece piece : this.nodes) {
+      piece.dePower();
     }
   }
 
   // returns true if all cells are connected, uses breath-first search
   public boolean bfs() {
-    GamePiece powerStationCell = this.board.get(this.powerCol).get(this.powerRow);
-
-    ArrayList<GamePiece> worklist = new ArrayList<>();
-    ArrayList<GamePiece> alreadySeen = new ArrayList<>();
-
-    worklist.add(powerStationCell);
-    alreadySeen.add(powerStationCell);
-
-    while (!worklist.isEmpty()) {
-      GamePiece currentCell = worklist.remove(0);
-
-      if (this.isValidPosition(currentCell.row, currentCell.col + 1)) {
-        GamePiece neighbor = this.board.get(currentCell.col + 1).get(currentCell.row);
-        if (!alreadySeen.contains(neighbor) && neighbor.powered) {
-          worklist.add(neighbor);
-          alreadySeen.add(neighbor);
-        }
-      }
-      if (this.isValidPosition(currentCell.row, currentCell.col - 1)) {
-        GamePiece neighbor = this.board.get(currentCell.col - 1).get(currentCell.row);
-        if (!alreadySeen.contains(neighbor) && neighbor.powered) {
-          worklist.add(neighbor);
-          alreadySeen.add(neighbor);
-        }
-      }
-      if (this.isValidPosition(currentCell.row + 1, currentCell.col)) {
-        GamePiece neighbor = this.board.get(currentCell.col).get(currentCell.row + 1);
-        if (!alreadySeen.contains(neighbor) && neighbor.powered) {
-          worklist.add(neighbor);
-          alreadySeen.add(neighbor);
-        }
-      }
-      if (this.isValidPosition(currentCell.row - 1, currentCell.col)) {
-        GamePiece neighbor = this.board.get(currentCell.col).get(currentCell.row - 1);
-        if (!alreadySeen.contains(neighbor) && neighbor.powered) {
-          worklist.add(neighbor);
-          alreadySeen.add(neighbor);
+    if (this.stations != null) {
+      // the stations may power separate parts of the board
+      return this.linked.size() == this.nodes.size();
+    }
+    int cells = this.topology.size();
+    boolean[] seen = new boolean[cells];
+    int[] worklist = new int[cells];
+    int tail = 1;
+    worklist[0] = this.cellId(this.powerRow, this.powerCol);
+    seen[worklist[0]] = true;
+
+    for (int head = 0; head < tail; head++) {
+      int cell = worklist[head];
+      for (int dir = 0; dir < this.topology.directions; dir++) {
+        int other = this.topology.neighbors[dir][cell];
+        if (other >= 0 && !seen[other] && this.pieceAt(other).powered) {
+          seen[other] = true;
+          worklist[tail] = other;
+          tail++;
         }
       }
     }
 
-    return alreadySeen.size() == this.width * this.height;
+    return tail == this.width * this.height;
   }
 
 }
@@ -623,6 +1181,55 @@ class GamePiece {
     this.powered = false;
   }
 
+  // returns the wires of this GamePiece packed into the low four bits:
+  // top = 1, right = 2, bottom = 4, left = 8
+  public int wireMask() {
+    int mask = 0;
+    if (this.top) {
+      mask |= 1;
+    }
+    if (this.right) {
+      mask |= 2;
+    }
+    if (this.bottom) {
+      mask |= 4;
+    }
+    if (this.left) {
+      mask |= 8;
+    }
+    return mask;
+  }
+
+  // returns true if this GamePiece has a wire in the given direction:
+  // 0 top, 1 right, 2 bottom, 3 left
+  public boolean hasWire(int dir) {
+    return (this.wireMask() & (1 << dir)) != 0;
+  }
+
+  // EFFECT: sets the wires of this GamePiece from the given mask
+  public void setWires(int mask) {
+    this.top = (mask & 1) != 0;
+    this.right = (mask & 2) != 0;
+    this.bottom = (mask & 4) != 0;
+    this.left = (mask & 8) != 0;
+  }
+
+  // EFFECT: adds a wire in the given direction
+  public void addWire(int dir) {
+    if (dir == 0) {
+      this.top = true;
+    }
+    else if (dir == 1) {
+      this.right = true;
+    }
+    else if (dir == 2) {
+      this.bottom = true;
+    }
+    else {
+      this.left = true;
+    }
+  }
+
   // EFFECT: rotates the GamePiece by 90 degrees clockwise
   public void rotate() {
     boolean prevTop = this.top;
@@ -643,18 +1250,26 @@ class Edge {
   GamePiece fromNode;
   GamePiece toNode;
   int weight;
+  // the direction from fromNode to toNode in the board's topology, or -1 to
+  // work it out from their positions
+  int dir;
 
   Edge(GamePiece from, GamePiece to, int weight) {
+    this(from, to, weight, -1);
+  }
+
+  Edge(GamePiece from, GamePiece to, int weight, int dir) {
     this.fromNode = from;
     this.toNode = to;
     this.weight = weight;
+    this.dir = dir;
   }
 }
 
 // comparator object that compares edges by weight
 class SortByWeight implements Comparator<Edge> {
   public int compare(Edge edge1, Edge edge2) {
-    return edge1.weight - edge2.weight;
+    return Integer.compare(edge1.weight, edge2.weight);
   }
 }
 
@@ -1014,9 +1629,9 @@ class ExamplesLightEmAll {
   void testOnMouseClicked(Tester t) {
     this.init();
 
-    this.board1.board.get(0).set(0, new GamePiece(0, 0, true, true, true, true, true, true));
-    this.board1.board.get(0).set(1, new GamePiece(0, 1, false, false, true, true, false, false));
-    this.board1.board.get(1).set(0, new GamePiece(1, 0, true, true, false, false, false, false));
+    this.board1.setPiece(0, 0, new GamePiece(0, 0, true, true, true, true, true, true));
+    this.board1.setPiece(0, 1, new GamePiece(0, 1, false, false, true, true, false, false));
+    this.board1.setPiece(1, 0, new GamePiece(1, 0, true, true, false, false, false, false));
 
     t.checkExpect(this.board1.linked, new ArrayList<GamePiece>());
     t.checkExpect(this.board1.board.get(0).get(1).left, false);
@@ -1128,16 +1743,16 @@ class ExamplesLightEmAll {
   boolean testHasWireConnection(Tester t) {
     this.init();
 
-    this.board1.board.get(0).set(0, new GamePiece(0, 0, true, true, true, true, true, true));
-    this.board1.board.get(0).set(1, new GamePiece(0, 1, true, false, true, false, false, false));
-    this.board1.board.get(1).set(0, new GamePiece(1, 0, false, false, false, false, false, false));
+    this.board1.setPiece(0, 0, new GamePiece(0, 0, true, true, true, true, true, true));
+    this.board1.setPiece(0, 1, new GamePiece(0, 1, true, false, true, false, false, false));
+    this.board1.setPiece(1, 0, new GamePiece(1, 0, false, false, false, false, false, false));
 
     this.board6.powerCol = 1;
     this.board6.powerRow = 1;
-    this.board6.board.get(1).set(1, new GamePiece(1, 1, true, true, true, true, true, true));
-    this.board6.board.get(1).set(0, new GamePiece(1, 0, true, true, false, true, false, true));
-    this.board6.board.get(0).set(1, new GamePiece(0, 1, false, false, false, true, false, true));
-    this.board6.board.get(2).set(1, new GamePiece(2, 1, false, false, true, false, false, true));
+    this.board6.setPiece(1, 1, new GamePiece(1, 1, true, true, true, true, true, true));
+    this.board6.setPiece(1, 0, new GamePiece(1, 0, true, true, false, true, false, true));
+    this.board6.setPiece(0, 1, new GamePiece(0, 1, false, false, false, true, false, true));
+    this.board6.setPiece(2, 1, new GamePiece(2, 1, false, false, true, false, false, true));
 
     return
     // test that wire connection works when cell is to the left of the power station
@@ -1170,6 +1785,7 @@ class ExamplesLightEmAll {
     WorldScene scene = new WorldScene(200, 200);
     Color wire_color = Color.YELLOW;
 
+    // makeScene only draws, so the unpowered board stays gray
     for (ArrayList<GamePiece> column : this.board4.board) {
       for (GamePiece piece : column) {
         if (piece != null) {
@@ -1184,10 +1800,6 @@ class ExamplesLightEmAll {
               (piece.row * 100) + 50);
         }
       }
-      ArrayList<GamePiece> connected = new ArrayList<>();
-      this.board4.powerGamePieces(0, 0, connected);
-      this.board4.linked = connected;
-      this.board4.powerTiles();
     }
     scene.placeImageXY(this.board4.board.get(0).get(0).tileImage(100, 1, Color.YELLOW, true), 50,
         50);
@@ -1200,10 +1812,10 @@ class ExamplesLightEmAll {
     this.init();
 
     // setting cell (0,0) to a powerStation with wire connections in all directions
-    this.board5.board.get(0).set(0, new GamePiece(0, 0, true, true, true, true, true, true));
+    this.board5.setPiece(0, 0, new GamePiece(0, 0, true, true, true, true, true, true));
     // setting cell (0, 1) to a non-powerStation with wire connections in all
     // directions
-    this.board5.board.get(1).set(0, new GamePiece(1, 0, false, false, true, true, false, true));
+    this.board5.setPiece(1, 0, new GamePiece(1, 0, false, false, true, true, false, true));
 
     // checks that the power station is at point (0,0)
     t.checkExpect(this.board5.powerCol, 0);
@@ -1222,7 +1834,7 @@ class ExamplesLightEmAll {
     t.checkExpect(this.board5.powerCol, 0);
     t.checkExpect(this.board5.powerRow, 0);
 
-    this.board5.board.get(0).set(1, new GamePiece(1, 0, true, false, false, false, false, false));
+    this.board5.setPiece(0, 1, new GamePiece(1, 0, true, false, false, false, false, false));
 
     // tests the right key
     this.board5.onKeyEvent("right");
@@ -1236,7 +1848,7 @@ class ExamplesLightEmAll {
     t.checkExpect(this.board5.powerCol, 0);
     t.checkExpect(this.board5.powerRow, 0);
 
-    this.board5.board.get(1).set(0, new GamePiece(0, 1, false, false, false, true, false, false));
+    this.board5.setPiece(1, 0, new GamePiece(0, 1, false, false, false, true, false, false));
 
     // tests that the power station does not move when there is no connection in
     // that direction
@@ -1383,4 +1995,2089 @@ class ExamplesLightEmAll {
       }
     }
   }
-}
\ No newline at end of file
+
+  // tests for GameSession
+  void testGameSession(Tester t) {
+    GameSession session = new GameSession("s", new LightEmAll(3, 3, 0, false, new Random(4)));
+    LoopbackConnection[] ends = LoopbackConnection.pair();
+    session.players.add(ends[1]);
+    BoardMirror mirror = new BoardMirror();
+    mirror.apply(Base64.getDecoder().decode(session.fullState().substring(6)));
+    t.checkExpect(mirror.matches(session.game), true);
+
+    int before = session.game.board.get(0).get(0).wireMask();
+    t.checkExpect(session.apply("click 10 10"), "ok 1");
+    t.checkExpect(session.game.board.get(0).get(0).wireMask(),
+        ((before << 1) | (before >> 3)) & 15);
+
+    // the broadcast delta brings the mirror up to date
+    String delta = ends[0].receive();
+    t.checkExpect(delta.startsWith("delta "), true);
+    mirror.apply(Base64.getDecoder().decode(delta.substring(6)));
+    t.checkExpect(mirror.matches(session.game), true);
+
+    t.checkExpect(session.apply("jump"), "error unknown command: jump");
+    t.checkExpect(session.seq, 1);
+  }
+
+  // tests for GameServer over an in-memory connection
+  void testGameServer(Tester t) {
+    GameServer server = new GameServer();
+    LoopbackConnection[] ends = LoopbackConnection.pair();
+    server.accept(ends[1]);
+
+    ends[0].send("click 0 0");
+    t.checkExpect(ends[0].receive(), "error join first");
+
+    ends[0].send("join a 2 2 7");
+    t.checkExpect(ends[0].receive().startsWith("board "), true);
+
+    ends[0].send("key up");
+    t.checkExpect(ends[0].receive().startsWith("delta "), true);
+    t.checkExpect(ends[0].receive().startsWith("ok 1"), true);
+
+    // a bad command gets an error and the session goes on
+    ends[0].send("click a b");
+    t.checkExpect(ends[0].receive(), "error bad number: click a b");
+    ends[0].send("key down");
+    t.checkExpect(ends[0].receive().startsWith("delta "), true);
+    t.checkExpect(ends[0].receive().startsWith("ok 2"), true);
+
+    ends[0].send("quit");
+    t.checkExpect(ends[0].receive(), null);
+    t.checkExpect(server.sessions.containsKey("a"), true);
+
+    // so does a bad join, and no board is made for it
+    LoopbackConnection[] other = LoopbackConnection.pair();
+    server.accept(other[1]);
+    other[0].send("join b x 3 4");
+    t.checkExpect(other[0].receive(), "error bad number: join b x 3 4");
+    other[0].send("join b 3 100000 4");
+    t.checkExpect(other[0].receive(), "error board sides must be 1 to 1000: join b 3 100000 4");
+    other[0].send("join b 3 0 4");
+    t.checkExpect(other[0].receive().startsWith("error board sides"), true);
+    t.checkExpect(server.sessions.containsKey("b"), false);
+    other[0].send("join b 3 3 4");
+    t.checkExpect(other[0].receive().startsWith("board "), true);
+    other[0].send("quit");
+
+    // one player cannot move the camera every player's clicks go through
+    LoopbackConnection[] first = LoopbackConnection.pair();
+    LoopbackConnection[] second = LoopbackConnection.pair();
+    server.accept(first[1]);
+    server.accept(second[1]);
+    first[0].send("join c 4 4 9");
+    t.checkExpect(first[0].receive().startsWith("board "), true);
+    second[0].send("join c 4 4 9");
+    t.checkExpect(second[0].receive().startsWith("board "), true);
+    LightEmAll shared = server.sessions.get("c").game;
+    Posn pixel = new Posn(3 * WorldConstants.PIECE_SIZE - 1, 2 * WorldConstants.PIECE_SIZE - 1);
+    for (String key : new String[] { "+", "d", "s" }) {
+      first[0].send("key " + key);
+      t.checkExpect(first[0].receive(), "error unknown key: " + key);
+    }
+    t.checkExpect(shared.camera.cellAt(pixel), new Posn(2, 1));
+    int before = shared.pieceAt(6).wireMask();
+    GamePiece expected = new GamePiece(1, 2, false, false, false, false, false, false);
+    expected.setWires(before);
+    expected.rotate();
+    second[0].send("click " + pixel.x + " " + pixel.y);
+    t.checkExpect(second[0].receive().startsWith("delta "), true);
+    t.checkExpect(second[0].receive(), "ok 1");
+    t.checkExpect(shared.pieceAt(6).wireMask(), expected.wireMask());
+    first[0].send("quit");
+    second[0].send("quit");
+    server.shutdown();
+  }
+
+  // tests for BoardDeltaRecorder and BoardMirror
+  void testBoardDelta(Tester t) {
+    LightEmAll game = new LightEmAll(4, 4, 0, false, new Random(11));
+    game.updatePower();
+    game.deltas = new BoardDeltaRecorder(game, 3);
+    ArrayList<byte[]> frames = new ArrayList<byte[]>();
+    game.deltas.listeners.add(frame -> frames.add(frame));
+
+    BoardMirror mirror = new BoardMirror();
+    mirror.apply(game.deltas.keyframe());
+    t.checkExpect(mirror.matches(game), true);
+
+    // three ticks make up one frame
+    game.onMouseClicked(new Posn(150, 50), "LeftButton");
+    game.onMouseClicked(new Posn(250, 350), "LeftButton");
+    t.checkExpect(frames.size(), 0);
+    game.onMouseClicked(new Posn(150, 50), "LeftButton");
+    t.checkExpect(frames.size(), 1);
+    mirror.apply(frames.get(0));
+    t.checkExpect(mirror.matches(game), true);
+    t.checkExpect(mirror.seq, 0);
+
+    // a full turn of a cell cancels out, leaving no rotations in the frame
+    for (int i = 0; i < 4; i++) {
+      game.board.get(3).get(3).rotate();
+      game.deltas.rotated(game.cellId(3, 3));
+    }
+    game.deltas.flush();
+    t.checkExpect(frames.get(1)[3], (byte) 0);
+    mirror.apply(frames.get(1));
+    t.checkExpect(mirror.matches(game), true);
+    t.checkException(new IllegalArgumentException("Unknown frame type: 88"), mirror, "apply",
+        new byte[] { 'X' });
+  }
+
+  // tests for the varint and run encodings in BoardDeltaRecorder
+  void testDeltaEncoding(Tester t) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BoardDeltaRecorder.writeVarint(out, 300);
+    t.checkExpect(out.toByteArray(), new byte[] { (byte) 0xAC, 0x02 });
+
+    out = new ByteArrayOutputStream();
+    // cells 1-3 flipped on, cell 5 flipped off
+    BoardDeltaRecorder.writeRuns(out, new long[] { 0b101110 }, new long[] { 0b001110 }, 8);
+    t.checkExpect(out.toByteArray(), new byte[] { 2, 1, 7, 1, 2 });
+  }
+
+  // tests for ServerLoadGenerator
+  void testServerLoadGenerator(Tester t) throws InterruptedException {
+    GameServer server = new GameServer();
+    LoadReport report = new ServerLoadGenerator(3, 2, 5, 4).run(server);
+    server.shutdown();
+
+    t.checkExpect(report.sessions, 3);
+    t.checkExpect(report.players, 6);
+    t.checkExpect(report.commands, 30L);
+    t.checkExpect(report.p50Nanos <= report.p99Nanos, true);
+    t.checkExpect(server.sessions.size(), 3);
+    t.checkExpect(ServerLoadGenerator.percentile(new long[] { 1, 2, 3, 4 }, 0.5), 2L);
+
+    // the ramp stops at the first run over the target
+    ServerLoadGenerator load = new ServerLoadGenerator(1, 2, 3, 4);
+    CapacityReport none = load.ramp(0, 8);
+    t.checkExpect(none.steps.size(), 1);
+    t.checkExpect(none.sessions, 0);
+    t.checkExpect(none.sessionsPerCore(), 0.0);
+    CapacityReport all = load.ramp(Long.MAX_VALUE, 4);
+    t.checkExpect(all.steps.size(), 3);
+    t.checkExpect(all.steps.get(2).sessions, 4);
+    t.checkExpect(all.sessions, 4);
+    t.checkExpect(all.sessionsPerCore(), 4.0 / all.cores);
+    t.checkExpect(all.toString().startsWith("4 sessions held with p99 under"), true);
+  }
+
+  // tests for InputRecorder and ReplayEngine
+  void testInputReplay(Tester t) throws IOException {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    LightEmAll game = InputRecorder.record(log, 42, 4, 4, 0);
+    game.onMouseClicked(new Posn(150, 50), "LeftButton");
+    game.onKeyEvent("right");
+    game.onMouseClicked(new Posn(350, 250), "RightButton");
+    game.onMouseClicked(new Posn(50, 350), "LeftButton");
+    t.checkExpect(game.inputs.events, 4L);
+
+    ReplayEngine engine = ReplayEngine.read(new ByteArrayInputStream(log.toByteArray()));
+    t.checkExpect(engine.seed, 42L);
+    t.checkExpect(engine.width, 4);
+    t.checkExpect(engine.events.size(), 4);
+    t.checkExpect(engine.events.get(1).name, "right");
+
+    // replaying reaches the same final state every time
+    ReplayResult result = engine.run();
+    t.checkExpect(result.events, 4L);
+    t.checkExpect(result.checksum, ReplayEngine.checksum(game));
+    t.checkExpect(engine.run().checksum, result.checksum);
+    // clicks made after panning and zooming a small view land on the same
+    // cells in the replay, which starts with a view of the whole board
+    ByteArrayOutputStream panned = new ByteArrayOutputStream();
+    LightEmAll live = InputRecorder.record(panned, 8, 30, 30, 0);
+    live.camera.resize(500, 400);
+    for (String key : new String[] { "d", "d", "d", "s", "s", "+", "d" }) {
+      live.onKeyEvent(key);
+    }
+    t.checkExpect(live.camera.x > 0 && live.camera.y > 0, true);
+    Random clicks = new Random(30);
+    for (int i = 0; i < 40; i++) {
+      live.onMouseClicked(new Posn(clicks.nextInt(500), clicks.nextInt(400)), "LeftButton");
+    }
+    ReplayResult replayed = ReplayEngine.read(new ByteArrayInputStream(panned.toByteArray()))
+        .run();
+    t.checkExpect(replayed.checksum, ReplayEngine.checksum(live));
+    t.checkExpect(replayed.fingerprint, ReplayEngine.fingerprint(live));
+    t.checkExpect(live.score.clicks, 40L);
+
+    // positions past 255 still count
+    LightEmAll wide = new LightEmAll(3, 3, 0, false, new Random(1));
+    long before = ReplayEngine.checksum(wide);
+    wide.powerCol += 256;
+    t.checkExpect(ReplayEngine.checksum(wide) == before, false);
+    t.checkExpect(result.fingerprint, ReplayEngine.fingerprint(game));
+
+    String error = "";
+    try {
+      ReplayEngine.read(new ByteArrayInputStream(new byte[] { 0, 0, 0, 0 }));
+    }
+    catch (IOException e) {
+      error = e.getMessage();
+    }
+    t.checkExpect(error, "Not an input log");
+  }
+
+  // tests for ReplayEngine.newGame
+  void testNewGame(Tester t) {
+    LightEmAll game1 = ReplayEngine.newGame(9, 5, 5, 0);
+    LightEmAll game2 = ReplayEngine.newGame(9, 5, 5, 0);
+    t.checkExpect(ReplayEngine.checksum(game1), ReplayEngine.checksum(game2));
+  }
+
+  // tests for ChunkedBoardStore
+  void testChunkedBoardStore(Tester t) throws IOException {
+    ChunkedBoardStore store = new ChunkedBoardStore(10, 7, 4, 2);
+    t.checkExpect(store.tilesAcross, 3);
+    t.checkExpect(store.tilesDown, 2);
+    t.checkExpect(store.tileOf(5, 9), 5);
+    t.checkExpect(store.offsetOf(5, 9), 5);
+
+    store.generate(new Random(3));
+    // a spanning tree of 70 cells has 69 wires, each seen from both ends
+    int ends = 0;
+    for (int row = 0; row < 7; row++) {
+      for (int col = 0; col < 10; col++) {
+        ends += Integer.bitCount(store.get(row, col) & 15);
+      }
+    }
+    t.checkExpect(ends, 2 * 69);
+    t.checkExpect(store.propagate(0, 0), 70L);
+    t.checkExpect(store.pieceAt(6, 9).powered, true);
+
+    // only two tiles are kept mapped at a time
+    t.checkExpect(store.resident.size(), 2);
+    t.checkExpect(store.evictions > 0, true);
+
+    int before = store.get(3, 3) & 15;
+    store.rotate(3, 3);
+    t.checkExpect(store.get(3, 3) & 15, ((before << 1) | (before >> 3)) & 15);
+    store.rotate(3, 3);
+    store.rotate(3, 3);
+    store.rotate(3, 3);
+    t.checkExpect(store.propagate(0, 0), 70L);
+
+    store.scramble(new Random(5));
+    t.checkExpect(store.propagate(0, 0) < 70, true);
+    t.checkExpect(store.pieceAt(0, 0).powered, true);
+
+    WorldScene scene = new WorldScene(200, 100);
+    store.renderRegion(scene, 5, 8, 2, 2, 50);
+    WorldScene expected = new WorldScene(200, 100);
+    expected.placeImageXY(store.pieceAt(5, 8).tileImage(50, 1,
+        store.pieceAt(5, 8).powered ? Color.YELLOW : Color.GRAY, false), 25, 25);
+    expected.placeImageXY(store.pieceAt(5, 9).tileImage(50, 1,
+        store.pieceAt(5, 9).powered ? Color.YELLOW : Color.GRAY, false), 75, 25);
+    expected.placeImageXY(store.pieceAt(6, 8).tileImage(50, 1,
+        store.pieceAt(6, 8).powered ? Color.YELLOW : Color.GRAY, false), 25, 75);
+    expected.placeImageXY(store.pieceAt(6, 9).tileImage(50, 1,
+        store.pieceAt(6, 9).powered ? Color.YELLOW : Color.GRAY, false), 75, 75);
+    t.checkExpect(scene, expected);
+    store.close();
+  }
+
+  // tests for Camera
+  void testCamera(Tester t) {
+    Camera camera = new Camera(300, 200, 10, 20);
+    t.checkExpect(camera.tileSize(), 100);
+    t.checkExpect(camera.firstRow(), 0);
+    t.checkExpect(camera.lastRow(), 2);
+    t.checkExpect(camera.lastCol(), 3);
+    t.checkExpect(camera.cellAt(new Posn(250, 150)), new Posn(2, 1));
+    t.checkExpect(camera.cellAt(new Posn(350, 150)), null);
+
+    // panning moves the visible cells and the mapping of clicks
+    camera.pan(150, 50);
+    t.checkExpect(camera.firstCol(), 1);
+    t.checkExpect(camera.lastCol(), 5);
+    t.checkExpect(camera.lastRow(), 3);
+    t.checkExpect(camera.cellAt(new Posn(0, 0)), new Posn(1, 0));
+    t.checkExpect(camera.center(0, 1), new Posn(0, 0));
+
+    // the window stays on the board
+    camera.pan(-1000, 5000);
+    t.checkExpect(camera.x, 0);
+    t.checkExpect(camera.y, 800);
+
+    // zooming out keeps the center of the window in place
+    camera.zoomBy(0.5);
+    t.checkExpect(camera.tileSize(), 50);
+    t.checkExpect(camera.y, 300);
+    t.checkExpect(camera.lastRow(), 10);
+    t.checkExpect(camera.onKey("-"), true);
+    t.checkExpect(camera.tileSize(), 40);
+    t.checkExpect(camera.onKey("up"), false);
+  }
+
+  // tests makeScene through a camera that shows part of the board
+  void testMakeSceneViewport(Tester t) {
+    LightEmAll game = new LightEmAll(30, 30, 0, false, new Random(2));
+    game.camera.resize(200, 100);
+    game.onKeyEvent("d");
+    game.onKeyEvent("d");
+
+    WorldScene expected = new WorldScene(200, 100);
+    for (int col = 1; col < 4; col++) {
+      GamePiece piece = game.board.get(0).get(col);
+      expected.placeImageXY(
+          piece.tileImage(100, 1, piece.powered ? Color.YELLOW : Color.GRAY, false),
+          col * 100 - 50, 50);
+    }
+    t.checkExpect(game.makeScene(), expected);
+
+    // clicks land on the cell shown under the mouse
+    int before = game.board.get(0).get(1).wireMask();
+    game.onMouseClicked(new Posn(10, 10), "LeftButton");
+    t.checkExpect(game.board.get(0).get(1).wireMask(), ((before << 1) | (before >> 3)) & 15);
+  }
+
+  // tests for LodRasterizer
+  void testLodRasterizer(Tester t) {
+    LightEmAll game = new LightEmAll(3, 3, 1, 1);
+    game.updatePower();
+    Camera camera = new Camera(8, 6, 3, 3);
+    camera.zoom = 0.02;
+
+    int[] pixels = new int[8 * 6];
+    LodRasterizer.rasterize(game, camera, pixels, false);
+    // each tile is a 2x2 block, and the columns past the board are background
+    t.checkExpect(pixels[0], LodRasterizer.colorOf(game, 0, 0));
+    t.checkExpect(pixels[8 * 3 + 3], LodRasterizer.STATION);
+    t.checkExpect(pixels[8 * 5 + 5], LodRasterizer.colorOf(game, 2, 2));
+    t.checkExpect(pixels[6], LodRasterizer.BACKGROUND);
+    t.checkExpect(game.board.get(1).get(0).powered, true);
+    t.checkExpect(LodRasterizer.colorOf(game, 1, 0), LodRasterizer.POWERED);
+
+    // rasterizing in parallel bands gives the same pixels
+    int[] parallel = new int[8 * 6];
+    LodRasterizer.rasterize(game, camera, parallel, true);
+    t.checkExpect(parallel, pixels);
+
+    ComputedPixelImage image = LodRasterizer.render(game, camera, false);
+    t.checkExpect(image.getColorAt(3, 3), Color.CYAN);
+    t.checkExpect(LodRasterizer.pixelsOf(image) != null, true);
+
+    // an overview samples every other tile when the board has more tiles
+    // than pixels
+    ComputedPixelImage overview = LodRasterizer.overview(game, 2, 2);
+    t.checkExpect(overview.width, 2);
+    t.checkExpect(overview.getColorAt(1, 1), new Color(LodRasterizer.colorOf(game, 2, 2), true));
+
+    // every station is marked, not only the one the player moves
+    game.addStation(0, 2, 0);
+    LodRasterizer.rasterize(game, camera, pixels, false);
+    t.checkExpect(pixels[4], LodRasterizer.STATION);
+    t.checkExpect(pixels[8 * 3 + 3], LodRasterizer.STATION);
+    t.checkExpect(LodRasterizer.colorOf(game, 0, 1), LodRasterizer.POWERED);
+  }
+
+  // tests that makeScene draws one image once tiles get small
+  void testMakeSceneLod(Tester t) {
+    LightEmAll game = new LightEmAll(20, 20, 0, false, new Random(8));
+    game.camera.resize(100, 100);
+    game.camera.zoomBy(0.05);
+    t.checkExpect(game.camera.tileSize(), 5);
+
+    WorldScene expected = new WorldScene(100, 100);
+    expected.placeImageXY(LodRasterizer.render(game, game.camera, false), 50, 50);
+    t.checkExpect(game.makeScene(), expected);
+  }
+
+  // tests for BandComposer
+  void testBandComposer(Tester t) {
+    LightEmAll game = new LightEmAll(12, 12, 0, false, new Random(5));
+    // a second station is drawn as one too
+    game.addStation(4, 4, 0);
+    game.camera.resize(230, 170);
+    game.camera.zoomBy(0.2);
+    game.camera.pan(15, 25);
+    BandComposer composer = new BandComposer(new ForkJoinPool(3));
+
+    // drawing the bands on several workers gives the same pixels as one
+    int[] serial = new int[230 * 170];
+    composer.composeInto(game, game.camera, serial, false);
+    int[] parallel = new int[230 * 170];
+    composer.composeInto(game, game.camera, parallel, true);
+    t.checkExpect(parallel, serial);
+
+    // the bands match drawing every tile into one image
+    BufferedImage whole = new BufferedImage(230, 170, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = whole.createGraphics();
+    g.setColor(new Color(LodRasterizer.BACKGROUND, true));
+    g.fillRect(0, 0, 230, 170);
+    for (int row = game.camera.firstRow(); row < game.camera.lastRow(); row++) {
+      for (int col = game.camera.firstCol(); col < game.camera.lastCol(); col++) {
+        GamePiece piece = game.board.get(row).get(col);
+        Posn center = game.camera.center(row, col);
+        g.translate(center.x, center.y);
+        composer.tileImage(20, piece.wireMask(), piece.powered,
+            game.isStation(game.cellId(row, col))).draw(g);
+        g.translate(-center.x, -center.y);
+      }
+    }
+    t.checkExpect(((DataBufferInt) whole.getRaster().getDataBuffer()).getData(), serial);
+
+    // a tile part way through its turn is drawn turned, as drawScene draws it
+    game.animation = new TurnAnimation();
+    game.rotateCell(game.cellId(2, 5), 1);
+    game.animation.step();
+    int[] turned = new int[230 * 170];
+    composer.composeInto(game, game.camera, turned, false);
+    g.fillRect(0, 0, 230, 170);
+    for (int row = game.camera.firstRow(); row < game.camera.lastRow(); row++) {
+      for (int col = game.camera.firstCol(); col < game.camera.lastCol(); col++) {
+        GamePiece piece = game.board.get(row).get(col);
+        Posn center = game.camera.center(row, col);
+        WorldImage tile = composer.tileImage(20, piece.wireMask(), piece.powered,
+            game.isStation(game.cellId(row, col)));
+        int turning = game.animation.degreesLeft(game.cellId(row, col));
+        if (turning > 0) {
+          tile = new RotateImage(tile, -turning);
+        }
+        g.translate(center.x, center.y);
+        tile.draw(g);
+        g.translate(-center.x, -center.y);
+      }
+    }
+    t.checkExpect(((DataBufferInt) whole.getRaster().getDataBuffer()).getData(), turned);
+    // and once the turn is shown it is drawn as it stands
+    for (int i = 0; i < TurnAnimation.STEPS_PER_TURN; i++) {
+      game.animation.step();
+    }
+    composer.composeInto(game, game.camera, turned, false);
+    int[] still = new int[230 * 170];
+    game.animation = null;
+    composer.composeInto(game, game.camera, still, false);
+    t.checkExpect(turned, still);
+
+    // tile images are built once and shared
+    t.checkExpect(composer.tileImage(20, 5, true, false) == composer.tileImage(20, 5, true,
+        false), true);
+    composer.pool.shutdown();
+  }
+
+  // tests that makeScene composes bands once many tiles are visible
+  void testMakeSceneBands(Tester t) {
+    LightEmAll game = new LightEmAll(25, 25, 0, false, new Random(3));
+    game.camera.resize(500, 500);
+    game.camera.zoomBy(0.2);
+    t.checkExpect(game.camera.tileSize(), 20);
+
+    WorldScene expected = new WorldScene(500, 500);
+    expected.placeImageXY(BandComposer.SHARED.compose(game, game.camera, false), 250, 250);
+    t.checkExpect(game.makeScene(), expected);
+  }
+
+  // test the edge weight distributions
+  void testEdgeWeights(Tester t) {
+    // uniform weights keep the boards of the original generator
+    LightEmAll plain = new LightEmAll(6, 6, 0, false, new Random(3));
+    LightEmAll uniform = new LightEmAll(6, 6, 0, new Random(3), new UniformWeights());
+    t.checkExpect(uniform.board, plain.board);
+
+    Random rand = new Random(1);
+    HorizontalBiasWeights horizontal = new HorizontalBiasWeights(1.0);
+    t.checkExpect(horizontal.weight(0, 0, true, rand) < (1 << 20), true);
+    t.checkExpect(horizontal.weight(0, 0, false, rand) >= (1 << 20), true);
+
+    // corridors run along each row and turn down at the first column
+    CorridorWeights corridor = new CorridorWeights(3);
+    t.checkExpect(corridor.weight(0, 0, true, rand) < (1 << 20), true);
+    t.checkExpect(corridor.weight(0, 2, true, rand) >= (1 << 20), true);
+    t.checkExpect(corridor.weight(2, 0, false, rand) < (1 << 20), true);
+    t.checkExpect(corridor.weight(1, 0, false, rand) >= (1 << 20), true);
+
+    BranchingWeights branching = new BranchingWeights();
+    t.checkExpect(branching.weight(0, 0, true, rand) < (1 << 20), true);
+    t.checkExpect(branching.weight(1, 1, false, rand) >= (1 << 20), true);
+
+    // every distribution still makes a spanning tree
+    EdgeWeights[] all = { new UniformWeights(), horizontal, corridor, branching };
+    for (EdgeWeights weights : all) {
+      LightEmAll game = new LightEmAll(7, 7, 0, new Random(5), weights);
+      t.checkExpect(game.mst.size(), 48);
+    }
+  }
+
+  // test the difficulty metrics kept by the generator
+  void testDifficultyMetrics(Tester t) {
+    DifficultyMetrics metrics = new DifficultyMetrics(3, 3);
+    // a T in the middle of the top row, then a wire down from the middle
+    metrics.addEdge(0, 0, 0, 1);
+    t.checkExpect(metrics.masks[0], 2);
+    t.checkExpect(metrics.masks[1], 8);
+    metrics.addEdge(0, 1, 0, 2);
+    t.checkExpect(metrics.masks[1], 10);
+    t.checkExpect(metrics.ambiguousCount, 1);
+    metrics.addEdge(0, 1, 1, 1);
+    t.checkExpect(metrics.masks[1], 14);
+    t.checkExpect(metrics.branchCount, 1);
+    t.checkExpect(metrics.ambiguousCount, 0);
+    metrics.addEdge(1, 1, 2, 1);
+    t.checkExpect(metrics.ambiguousCount, 1);
+    metrics.finish();
+    t.checkExpect(metrics.longestPath, 3);
+    t.checkExpect(metrics.score(), 3 + 2 + 1);
+
+    // the generator's counts match a recount of the finished board
+    LightEmAll game = new LightEmAll(8, 8, 0, false, new Random(2));
+    int branches = 0;
+    int ambiguous = 0;
+    for (GamePiece piece : game.nodes) {
+      int mask = game.difficulty.masks[piece.row * 8 + piece.col];
+      t.checkExpect(Integer.bitCount(mask), Integer.bitCount(piece.wireMask()));
+      if (Integer.bitCount(mask) >= 3) {
+        branches++;
+      }
+      if (DifficultyMetrics.isAmbiguous(mask)) {
+        ambiguous++;
+      }
+    }
+    t.checkExpect(game.difficulty.branchCount, branches);
+    t.checkExpect(game.difficulty.ambiguousCount, ambiguous);
+    t.checkExpect(game.difficulty.longestPath > 0, true);
+  }
+
+  // test generating and grading a pool of puzzles
+  void testPuzzlePool(Tester t) {
+    PuzzlePool pool = PuzzlePool.generate(9, 5, 5, new BranchingWeights(), 4);
+    t.checkExpect(pool.entries.size(), 9);
+    t.checkExpect(pool.graded(0).size(), 3);
+    t.checkExpect(pool.graded(1).size(), 3);
+    t.checkExpect(pool.graded(2).size(), 3);
+    for (PuzzleEntry easy : pool.graded(0)) {
+      for (PuzzleEntry hard : pool.graded(2)) {
+        t.checkExpect(easy.metrics.score() <= hard.metrics.score(), true);
+      }
+    }
+
+    // a pool entry can be rebuilt from its seed
+    PuzzleEntry entry = pool.entries.get(0);
+    LightEmAll game = new LightEmAll(5, 5, 0, new Random(entry.seed), new BranchingWeights());
+    t.checkExpect(game.difficulty.score(), entry.metrics.score());
+  }
+
+  // test the packed board
+  void testPackedBoard(Tester t) {
+    PackedBoard board = new PackedBoard(3, 2);
+    t.checkExpect(board.size(), 6);
+    t.checkExpect(board.neighbor(0, 0), -1);
+    t.checkExpect(board.neighbor(0, 1), 1);
+    t.checkExpect(board.neighbor(0, 2), 3);
+    t.checkExpect(board.neighbor(0, 3), -1);
+    t.checkExpect(board.neighbor(5, 1), -1);
+    t.checkExpect(board.neighbor(5, 2), -1);
+    t.checkExpect(board.neighbor(5, 0), 2);
+    t.checkExpect(board.neighbor(5, 3), 4);
+
+    board.connect(0, 1);
+    t.checkExpect(board.wires(0), 2);
+    t.checkExpect(board.wires(1), 8);
+    t.checkExpect(board.isSpanningTree(), false);
+    board.connect(1, 1);
+    board.connect(0, 2);
+    board.connect(3, 1);
+    t.checkExpect(board.isSpanningTree(), false);
+    board.connect(2, 2);
+    t.checkExpect(board.isSpanningTree(), true);
+    t.checkExpect(board.pieceAt(1), new GamePiece(0, 1, true, true, false, false, false, false));
+
+    // a loop is not a tree
+    board.connect(1, 2);
+    t.checkExpect(board.isSpanningTree(), false);
+
+    board.clear();
+    board.connect(0, 1);
+    board.scramble(new Random(2));
+    t.checkExpect(Integer.bitCount(board.wires(0)), 1);
+    t.checkExpect(Integer.bitCount(board.wires(1)), 1);
+  }
+
+  // test that every generator builds a spanning tree
+  void testSpanningTreeGenerators(Tester t) {
+    SpanningTreeGenerator[] generators = { new KruskalGenerator(), new WilsonGenerator(),
+        new DfsGenerator(), new PrimGenerator() };
+    for (SpanningTreeGenerator generator : generators) {
+      PackedBoard wide = new PackedBoard(9, 4);
+      generator.generate(wide, new Random(7));
+      t.checkExpect(wide.isSpanningTree(), true);
+      // the marks used while generating are cleared
+      for (int cell = 0; cell < wide.size(); cell++) {
+        t.checkExpect(wide.cells[cell] & ~PackedBoard.WIRES, 0);
+      }
+
+      // generating again replaces the old tree
+      generator.generate(wide, new Random(8));
+      t.checkExpect(wide.isSpanningTree(), true);
+
+      PackedBoard single = new PackedBoard(1, 1);
+      generator.generate(single, new Random(7));
+      t.checkExpect(single.wires(0), 0);
+
+      // the same seed gives the same board
+      PackedBoard again = new PackedBoard(9, 4);
+      generator.generate(again, new Random(8));
+      t.checkExpect(again.cells, wide.cells);
+      t.checkExpect(generator.workspaceBytes(wide) > 0, true);
+    }
+  }
+
+  // test the neighbor tables of each topology
+  void testTopology(Tester t) {
+    Topology square = new SquareTopology(2, 3);
+    t.checkExpect(square.size(), 6);
+    t.checkExpect(square.cellId(1, 2), 5);
+    t.checkExpect(square.rowOf(5), 1);
+    t.checkExpect(square.colOf(5), 2);
+    t.checkExpect(square.neighbor(0, 0), -1);
+    t.checkExpect(square.neighbor(0, 1), 1);
+    t.checkExpect(square.neighbor(0, 2), 3);
+    t.checkExpect(square.neighbor(0, 3), -1);
+    t.checkExpect(square.neighbor(4, 0), 1);
+    t.checkExpect(square.opposite(1), 3);
+
+    // the torus wraps around every edge
+    Topology torus = new TorusTopology(2, 3);
+    t.checkExpect(torus.neighbor(0, 0), 3);
+    t.checkExpect(torus.neighbor(0, 3), 2);
+    t.checkExpect(torus.neighbor(5, 1), 3);
+    t.checkExpect(torus.neighbor(5, 2), 2);
+
+    // odd rows of hexagons are shifted right
+    Topology hex = new HexTopology(3, 3);
+    t.checkExpect(hex.directions, 6);
+    t.checkExpect(hex.opposite(1), 4);
+    t.checkExpect(hex.neighbor(4, 0), 2);
+    t.checkExpect(hex.neighbor(4, 5), 1);
+    t.checkExpect(hex.neighbor(4, 2), 8);
+    t.checkExpect(hex.neighbor(4, 3), 7);
+    t.checkExpect(hex.neighbor(3, 0), 1);
+    t.checkExpect(hex.neighbor(3, 5), 0);
+    t.checkExpect(hex.neighbor(3, 4), -1);
+    t.checkExpect(hex.neighbor(0, 0), -1);
+    // every neighbor points back
+    Topology[] all = { square, torus, hex };
+    for (Topology topology : all) {
+      for (int cell = 0; cell < topology.size(); cell++) {
+        for (int dir = 0; dir < topology.directions; dir++) {
+          int other = topology.neighbor(cell, dir);
+          if (other >= 0) {
+            t.checkExpect(topology.neighbor(other, topology.opposite(dir)), cell);
+          }
+        }
+      }
+    }
+
+    t.checkExpect(Topology.named("torus", 2, 2).name(), "torus");
+    t.checkExpect(square.joined(new int[] { 2, 8, 0, 0, 0, 0 }, 0, 1), true);
+    t.checkExpect(square.joined(new int[] { 2, 0, 0, 0, 0, 0 }, 0, 1), false);
+    t.checkExpect(square.reachable(new int[] { 2, 12, 0, 0, 1, 0 }, 0).length, 3);
+  }
+
+  // test playing on a torus
+  void testTorusGame(Tester t) {
+    LightEmAll game = new LightEmAll(new TorusTopology(4, 4), 0, new Random(6),
+        new UniformWeights());
+    t.checkExpect(game.mst.size(), 15);
+    // solve the board by rotating each piece back to the tree's wires
+    for (int cell = 0; cell < 16; cell++) {
+      GamePiece piece = game.pieceAt(cell);
+      while (piece.wireMask() != game.difficulty.masks[cell]) {
+        piece.rotate();
+      }
+    }
+    game.updatePower();
+    t.checkExpect(game.linked.size(), 16);
+    t.checkExpect(game.bfs(), true);
+
+    // some wires cross the edges of the board
+    int wrapping = 0;
+    for (Edge edge : game.mst) {
+      if (Math.abs(edge.fromNode.row - edge.toNode.row)
+          + Math.abs(edge.fromNode.col - edge.toNode.col) > 1) {
+        wrapping++;
+      }
+    }
+    t.checkExpect(wrapping > 0, true);
+
+    t.checkConstructorException(
+        new IllegalArgumentException("a GamePiece only has four wires, not 6"), "LightEmAll",
+        new HexTopology(3, 3), 0, new Random(1), new UniformWeights());
+  }
+
+  // test generating trees on other topologies
+  void testTopologyGenerators(Tester t) {
+    SpanningTreeGenerator[] generators = { new KruskalGenerator(), new WilsonGenerator(),
+        new DfsGenerator(), new PrimGenerator() };
+    Topology[] shapes = { new TorusTopology(5, 6), new HexTopology(5, 6) };
+    for (Topology shape : shapes) {
+      for (SpanningTreeGenerator generator : generators) {
+        PackedBoard board = new PackedBoard(shape);
+        generator.generate(board, new Random(3));
+        t.checkExpect(board.isSpanningTree(), true);
+        board.scramble(new Random(4));
+        t.checkExpect(board.cells[0] & ~PackedBoard.WIRES, 0);
+      }
+    }
+  }
+
+  // test addressing cells on boards that are not square
+  void testNonSquareBoard(Tester t) {
+    LightEmAll wide = new LightEmAll(7, 3, 0, false, new Random(9));
+    t.checkExpect(wide.board.size(), 3);
+    t.checkExpect(wide.board.get(0).size(), 7);
+    t.checkExpect(wide.nodes.size(), 21);
+    t.checkExpect(wide.mst.size(), 20);
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 7; col++) {
+        GamePiece piece = wide.pieceAt(row, col);
+        t.checkExpect(piece.row, row);
+        t.checkExpect(piece.col, col);
+        t.checkExpect(wide.board.get(row).get(col), piece);
+        t.checkExpect(wide.pieceAt(wide.cellId(row, col)), piece);
+      }
+    }
+
+    // clicking the last column rotates the piece shown there
+    GamePiece corner = wide.pieceAt(2, 6);
+    int before = corner.wireMask();
+    wide.onMouseClicked(new Posn(650, 250), "LeftButton");
+    t.checkExpect(corner.wireMask(), ((before << 1) | (before >> 3)) & 15);
+
+    // rotating every piece back to the tree's wires solves the board
+    for (int cell = 0; cell < 21; cell++) {
+      while (wide.pieceAt(cell).wireMask() != wide.difficulty.masks[cell]) {
+        wide.pieceAt(cell).rotate();
+      }
+    }
+    wide.updatePower();
+    t.checkExpect(wide.linked.size(), 21);
+    t.checkExpect(wide.bfs(), true);
+
+    // the hand-built board puts its bar across the middle row
+    LightEmAll tall = new LightEmAll(3, 5, 0, 0);
+    t.checkExpect(tall.board.size(), 5);
+    t.checkExpect(tall.powerRow, 2);
+    t.checkExpect(tall.powerCol, 1);
+    t.checkExpect(tall.pieceAt(2, 1).powerStation, true);
+    t.checkExpect(tall.pieceAt(2, 0).wireMask(), 7);
+    t.checkExpect(tall.pieceAt(0, 0).wireMask(), 4);
+    t.checkExpect(tall.pieceAt(4, 2).wireMask(), 1);
+    tall.updatePower();
+    t.checkExpect(tall.linked.size(), 15);
+    t.checkExpect(tall.bfs(), true);
+
+    // setPiece keeps the rows view and the flat list together
+    GamePiece replacement = new GamePiece(1, 2, true, false, false, false, false, false);
+    tall.setPiece(1, 2, replacement);
+    t.checkExpect(tall.pieceAt(1, 2), replacement);
+    t.checkExpect(tall.board.get(1).get(2), replacement);
+  }
+
+  // test the rotation journal's ring buffer
+  void testRotationJournal(Tester t) {
+    t.checkExpect(RotationJournal.encode(5, 3), 23);
+    t.checkExpect(RotationJournal.cellOf(23), 5);
+    t.checkExpect(RotationJournal.turnsOf(23), 3);
+
+    RotationJournal journal = new RotationJournal();
+    t.checkExpect(journal.canUndo(), false);
+    for (int i = 0; i < 40; i++) {
+      journal.record(i, 1);
+    }
+    // the buffer grew past its first 16 entries
+    t.checkExpect(journal.entries.length, 64);
+    t.checkExpect(journal.undo(), RotationJournal.encode(39, 1));
+    t.checkExpect(journal.undo(), RotationJournal.encode(38, 1));
+    t.checkExpect(journal.canRedo(), true);
+    t.checkExpect(journal.redo(), RotationJournal.encode(38, 1));
+    // a new move forgets what could have been redone
+    journal.record(7, 2);
+    t.checkExpect(journal.canRedo(), false);
+    t.checkExpect(journal.undo(), RotationJournal.encode(7, 2));
+    // full turns are not moves
+    journal.record(3, 4);
+    t.checkExpect(journal.canRedo(), true);
+
+    // once the limit is reached the oldest entries fall off
+    RotationJournal small = new RotationJournal(4);
+    for (int i = 0; i < 6; i++) {
+      small.record(i, 1);
+    }
+    t.checkExpect(small.size, 4);
+    int oldest = 0;
+    while (small.canUndo()) {
+      oldest = small.undo();
+    }
+    t.checkExpect(RotationJournal.cellOf(oldest), 2);
+    t.checkException(new IllegalStateException("nothing to undo"), small, "undo");
+    small.clear();
+    t.checkExpect(small.canRedo(), false);
+  }
+
+  // test undoing and redoing moves on a game
+  void testUndoRedo(Tester t) {
+    LightEmAll game = new LightEmAll(6, 6, 0, false, new Random(12));
+    long start = ReplayEngine.checksum(game);
+    Random rand = new Random(13);
+    for (int i = 0; i < 50; i++) {
+      game.rotateCell(rand.nextInt(36), 1 + rand.nextInt(3));
+    }
+    long end = ReplayEngine.checksum(game);
+
+    // the power kept incrementally matches a full recompute
+    ArrayList<GamePiece> before = new ArrayList<GamePiece>(game.linked);
+    game.updatePower();
+    t.checkExpect(game.linked, before);
+
+    while (game.undo()) {
+      // undo everything
+    }
+    t.checkExpect(ReplayEngine.checksum(game), start);
+    while (game.redo()) {
+      // redo everything
+    }
+    t.checkExpect(ReplayEngine.checksum(game), end);
+
+    // clicks can be undone with z and redone with y
+    GamePiece corner = game.pieceAt(0, 0);
+    int mask = corner.wireMask();
+    game.onMouseClicked(new Posn(50, 50), "LeftButton");
+    game.onKeyEvent("z");
+    t.checkExpect(corner.wireMask(), mask);
+    game.onKeyEvent("y");
+    t.checkExpect(corner.wireMask(), ((mask << 1) | (mask >> 3)) & 15);
+
+    // turning an unpowered cell away from power skips the full recompute
+    LightEmAll bar = new LightEmAll(3, 3, 1, 1);
+    bar.updatePower();
+    int updates = bar.fullPowerUpdates;
+    bar.setPiece(0, 0, new GamePiece(0, 0, false, false, false, false, false, false));
+    bar.rotateCell(0, 1);
+    t.checkExpect(bar.fullPowerUpdates, updates);
+    bar.rotateCell(bar.cellId(1, 1), 1);
+    t.checkExpect(bar.fullPowerUpdates, updates + 1);
+  }
+
+  // test the copy-on-write board
+  void testCowBoard(Tester t) {
+    CowBoard board = new CowBoard(CowBoard.CHUNK_SIZE * 2 + 5);
+    t.checkExpect(board.chunks.length, 3);
+    board.set(1, 7);
+    board.set(CowBoard.CHUNK_SIZE * 2 + 4, 9);
+    t.checkExpect(board.copiedChunks, 0);
+
+    CowBoard fork = board.fork();
+    t.checkExpect(fork.get(1), 7);
+    t.checkExpect(fork.chunks[0] == board.chunks[0], true);
+    // writing to the fork copies only the chunk it writes to
+    fork.set(2, 5);
+    t.checkExpect(fork.copiedChunks, 1);
+    t.checkExpect(fork.chunks[0] == board.chunks[0], false);
+    t.checkExpect(fork.chunks[1] == board.chunks[1], true);
+    t.checkExpect(board.get(2), 0);
+    fork.set(3, 5);
+    t.checkExpect(fork.copiedChunks, 1);
+
+    // the parent also copies before writing to a shared chunk
+    board.set(CowBoard.CHUNK_SIZE * 2 + 4, 1);
+    t.checkExpect(board.copiedChunks, 1);
+    t.checkExpect(fork.get(CowBoard.CHUNK_SIZE * 2 + 4), 9);
+  }
+
+  // test forking game states
+  void testGameState(Tester t) {
+    PackedBoard packed = new PackedBoard(5, 4);
+    new KruskalGenerator().generate(packed, new Random(4));
+    GameState solved = GameState.of(packed, 0);
+    t.checkExpect(solved.solved(), true);
+    t.checkExpect(solved.poweredCount(), 20);
+
+    GameState fork = solved.fork();
+    int mask = fork.wires(6);
+    fork.rotate(6, 1);
+    t.checkExpect(fork.wires(6), ((mask << 1) | (mask >> 3)) & 15);
+    t.checkExpect(solved.wires(6), mask);
+    t.checkExpect(solved.solved(), true);
+    fork.rotate(6, 3);
+    t.checkExpect(fork.wires(6), mask);
+
+    // hex cells turn through six steps
+    PackedBoard hex = new PackedBoard(new HexTopology(3, 3));
+    new DfsGenerator().generate(hex, new Random(4));
+    GameState hexState = GameState.of(hex, 4);
+    t.checkExpect(hexState.solved(), true);
+    int hexMask = hexState.wires(4);
+    hexState.rotate(4, 6);
+    t.checkExpect(hexState.wires(4), hexMask);
+  }
+
+  // test taking and restoring snapshots of a game
+  void testSnapshotRestore(Tester t) {
+    LightEmAll game = new LightEmAll(5, 5, 0, false, new Random(14));
+    GameState state = game.snapshot();
+    t.checkExpect(state.poweredCount(), game.linked.size());
+    long before = ReplayEngine.checksum(game);
+
+    // playing on a fork leaves the game alone
+    GameState fork = state.fork();
+    fork.rotate(3, 1);
+    t.checkExpect(ReplayEngine.checksum(game), before);
+
+    // restoring the fork gives the game the fork's wires
+    game.rotateCell(0, 1);
+    game.restore(fork);
+    t.checkExpect(game.pieceAt(3).wireMask(), fork.wires(3));
+    t.checkExpect(game.linked.size(), fork.poweredCount());
+    t.checkExpect(game.journal.canUndo(), false);
+    game.restore(state);
+    t.checkExpect(ReplayEngine.checksum(game), before);
+
+    // restoring an unsolved snapshot after a win plays on
+    SolverPolicy solver = new SolverPolicy();
+    while (!game.gameOver) {
+      game.clickCell(solver.choose(game, new Random(1)), "LeftButton");
+    }
+    GameState won = game.snapshot();
+    game.restore(state);
+    t.checkExpect(game.gameOver, false);
+    t.checkExpect(ReplayEngine.checksum(game), before);
+    game.restore(won);
+    t.checkExpect(game.gameOver, true);
+
+    // snapshots share the chunks of wires no turn has written to since
+    LightEmAll large = new LightEmAll(70, 70, 0, false, new Random(14));
+    GameState first = large.snapshot();
+    t.checkExpect(first.wires.chunks.length, 2);
+    GameState second = large.snapshot();
+    t.checkExpect(second.wires.chunks[0] == first.wires.chunks[0], true);
+    int mask = large.pieceAt(5).wireMask();
+    large.rotateCell(5, 1);
+    GameState third = large.snapshot();
+    t.checkExpect(third.wires.chunks[1] == first.wires.chunks[1], true);
+    t.checkExpect(third.wires.chunks[0] == first.wires.chunks[0], false);
+    t.checkExpect(third.wires(5), large.pieceAt(5).wireMask());
+    t.checkExpect(first.wires(5), mask);
+    t.checkExpect(large.wires.copiedChunks, 1);
+
+    GamePiece piece = new GamePiece(0, 0, false, false, false, false, false, false);
+    piece.setWires(9);
+    t.checkExpect(piece.top && piece.left && !piece.right && !piece.bottom, true);
+  }
+
+  // test the self-play policies
+  void testPolicies(Tester t) {
+    LightEmAll game = new LightEmAll(4, 4, 0, false, new Random(15));
+    Random rand = new Random(1);
+    int cell = new RandomPolicy().choose(game, rand);
+    t.checkExpect(cell >= 0 && cell < 16, true);
+
+    // the frontier is the unpowered cells next to powered ones
+    for (int frontier : GreedyPolicy.frontier(game)) {
+      t.checkExpect(game.pieceAt(frontier).powered, false);
+    }
+    // greedy choices leave the board as they found it
+    long before = ReplayEngine.checksum(game);
+    int greedy = new GreedyPolicy().choose(game, rand);
+    t.checkExpect(ReplayEngine.checksum(game), before);
+    t.checkExpect(greedy >= 0 && greedy < 16, true);
+    // and neither the score nor the undo history sees the moves it tried
+    LightEmAll fresh = new LightEmAll(6, 6, 0, false, new Random(40));
+    fresh.rotateCell(7, 1);
+    fresh.undo();
+    long remaining = fresh.score.remaining;
+    new GreedyPolicy().choose(fresh, rand);
+    t.checkExpect(fresh.score.clicks, 1L);
+    t.checkExpect(fresh.score.remaining, remaining);
+    t.checkExpect(fresh.journal.canUndo(), false);
+    t.checkExpect(fresh.journal.canRedo(), true);
+    // nor does a rendered or served game animate or send them
+    fresh.animation = new TurnAnimation();
+    fresh.deltas = new BoardDeltaRecorder(fresh, 1);
+    int updates = fresh.fullPowerUpdates;
+    new GreedyPolicy().choose(fresh, rand);
+    t.checkExpect(fresh.animation.activeCount, 0);
+    t.checkExpect(fresh.deltas.touchedCount, 0);
+    t.checkExpect(fresh.fullPowerUpdates, updates);
+    // the powered cells it counts are the ones the game powers
+    t.checkExpect(GreedyPolicy.powered(fresh.topology, fresh.difficulty.masks,
+        GreedyPolicy.sources(fresh)), 36);
+    int[] masks = new int[36];
+    for (int i = 0; i < 36; i++) {
+      masks[i] = fresh.pieceAt(i).wireMask();
+    }
+    t.checkExpect(GreedyPolicy.powered(fresh.topology, masks, GreedyPolicy.sources(fresh)),
+        fresh.linked.size());
+
+    // the solver clicks a cell that is not yet in its solved position
+    int solver = new SolverPolicy().choose(game, rand);
+    t.checkExpect(game.pieceAt(solver).wireMask() != game.difficulty.masks[solver], true);
+  }
+
+  // test playing many games on several threads
+  void testSelfPlay(Tester t) {
+    SelfPlay selfPlay = new SelfPlay(6, 4, 200, 3);
+    SelfPlayReport one = selfPlay.run(new SolverPolicy(), 1);
+    SelfPlayReport two = selfPlay.run(new SolverPolicy(), 2);
+    // the solver wins every game, and threads do not change the results
+    t.checkExpect(one.wins(), 6);
+    t.checkExpect(two.moves, one.moves);
+    t.checkExpect(one.medianMovesToWin() > 0, true);
+    t.checkExpect(one.medianMovesToWin() <= 48, true);
+
+    // a game that is given up on counts every allowed move
+    SelfPlayReport random = new SelfPlay(2, 6, 3, 3).run(new RandomPolicy(), 2);
+    t.checkExpect(random.moves, new int[] { 3, 3 });
+    t.checkExpect(random.wins(), 0);
+    t.checkExpect(random.medianMovesToWin(), -1);
+  }
+
+  // test counting the fewest clicks that solve a board
+  void testMoveScore(Tester t) {
+    t.checkExpect(MoveScore.turnsToMatch(1, 1), 0);
+    t.checkExpect(MoveScore.turnsToMatch(1, 2), 1);
+    t.checkExpect(MoveScore.turnsToMatch(1, 8), 3);
+    // a straight wire is solved after at most one click
+    t.checkExpect(MoveScore.turnsToMatch(5, 5), 0);
+    t.checkExpect(MoveScore.turnsToMatch(10, 5), 1);
+    t.checkExpect(MoveScore.turnsToMatch(5, 10), 1);
+    // a cross is always solved
+    t.checkExpect(MoveScore.turnsToMatch(15, 15), 0);
+    t.checkExpect(MoveScore.turnsToMatch(3, 5), -1);
+
+    LightEmAll game = new LightEmAll(5, 5, 0, false, new Random(16));
+    MoveScore score = game.score;
+    long par = score.par;
+    t.checkExpect(score.remaining, par);
+    t.checkExpect(score.efficiency(), 1.0);
+
+    // clicking a cell that needs one turn brings the total down by one
+    int cell = 0;
+    while (score.needed[cell] != 1) {
+      cell++;
+    }
+    game.rotateCell(cell, 1);
+    t.checkExpect(score.remaining, par - 1);
+    t.checkExpect(score.clicks, 1L);
+    // a wasted click costs three more, or one for a straight wire
+    game.rotateCell(cell, 1);
+    t.checkExpect(score.remaining == par + 2 || score.remaining == par, true);
+    t.checkExpect(score.efficiency() < 1.0, true);
+    game.undo();
+    game.undo();
+    t.checkExpect(score.remaining, par);
+
+    // the solver policy solves the board in exactly par clicks
+    int clicks = 0;
+    SolverPolicy solver = new SolverPolicy();
+    while (score.remaining > 0) {
+      game.rotateCell(solver.choose(game, new Random(1)), 1);
+      clicks++;
+    }
+    t.checkExpect((long) clicks, par);
+    t.checkExpect(game.bfs(), true);
+
+    // the incremental total matches a recount
+    game.rotateCell(3, 1);
+    long kept = score.remaining;
+    score.reset(game.nodes);
+    t.checkExpect(score.remaining, kept);
+  }
+
+  // tests for loading a board in the background with BoardLoader
+  void testBoardLoader(Tester t) {
+    // the loader generates the same board as a replay of the same seed
+    BoardLoader loader = new BoardLoader(6, 4, 0, 42, System.nanoTime());
+    LightEmAll shell = new LightEmAll(loader, 300, 200);
+    t.checkExpect(shell.nodes.size(), 0);
+    t.checkExpect(loader.ready(), false);
+    // the first frame shows the progress before anything is generated
+    shell.makeScene();
+    t.checkExpect(loader.firstFrameNanos > 0, true);
+    t.checkExpect(loader.stage, "starting");
+    // clicks and keys are ignored while loading
+    shell.onMouseClicked(new Posn(10, 10), "LeftButton");
+    shell.onKeyEvent("right");
+    shell.onTick();
+    t.checkExpect(shell.loader, loader);
+
+    loader.start();
+    LightEmAll result = loader.await();
+    t.checkExpect(loader.stage, "ready");
+    t.checkExpect(loader.fraction, 1.0);
+    t.checkExpect(ReplayEngine.checksum(result),
+        ReplayEngine.checksum(ReplayEngine.newGame(42, 6, 4, 0)));
+
+    // the next tick shows the generated board in the same window
+    shell.onTick();
+    t.checkExpect(shell.loader, null);
+    t.checkExpect(shell.nodes, result.nodes);
+    t.checkExpect(shell.width, 6);
+    t.checkExpect(shell.height, 4);
+    t.checkExpect(shell.camera.viewWidth, 300);
+    t.checkExpect(shell.camera.rows, 4);
+    t.checkExpect(loader.revealedNanos >= loader.readyNanos, true);
+    t.checkExpect(loader.readyNanos > loader.startNanos, true);
+    t.checkExpect(loader.millisTo(0), -1.0);
+    t.checkExpect(loader.report().startsWith("6x4 board: first frame after"), true);
+    // and playing it works as usual
+    shell.onMouseClicked(shell.camera.center(0, 0), "LeftButton");
+    t.checkExpect(shell.score.clicks, 1L);
+  }
+
+  // tests for the stages reported through GenerationProgress
+  void testGenerationProgress(Tester t) {
+    ArrayList<String> stages = new ArrayList<String>();
+    GenerationProgress progress = (stage, fraction) -> {
+      if (stages.isEmpty() || !stages.get(stages.size() - 1).equals(stage)) {
+        stages.add(stage);
+      }
+    };
+    LightEmAll game = new LightEmAll(new SquareTopology(8, 8), 0, new Random(3),
+        new UniformWeights(), progress);
+    t.checkExpect(stages, new ArrayList<String>(Arrays.asList("placing pieces", "weighing edges",
+        "sorting edges", "spanning tree", "laying wires", "scrambling", "powering", "ready")));
+    // reporting progress does not change the board
+    t.checkExpect(ReplayEngine.checksum(game),
+        ReplayEngine.checksum(new LightEmAll(8, 8, 0, false, new Random(3))));
+  }
+
+  // tests for PuzzleKey equality and hashing
+  void testPuzzleKey(Tester t) {
+    PuzzleKey key = new PuzzleKey(7, 5, 4, "uniform");
+    t.checkExpect(key.equals(new PuzzleKey(7, 5, 4, "uniform")), true);
+    t.checkExpect(key.hashCode(), new PuzzleKey(7, 5, 4, "uniform").hashCode());
+    t.checkExpect(key.equals(new PuzzleKey(7, 4, 5, "uniform")), false);
+    t.checkExpect(key.equals(new PuzzleKey(8, 5, 4, "uniform")), false);
+    t.checkExpect(key.equals(new PuzzleKey(7, 5, 4, "branching")), false);
+    t.checkExpect(key.fileName(), "7-5x4-uniform.puzzle");
+    t.checkExpect(new PuzzleKey(-1, 3, 3, "horizontal-0.5").fileName(),
+        "-1-3x3-horizontal_0.5.puzzle");
+  }
+
+  // tests for PuzzleCache in memory
+  void testPuzzleCache(Tester t) {
+    PuzzleCache cache = new PuzzleCache();
+    LightEmAll generated = ReplayEngine.newGame(11, 6, 5, 0);
+    LightEmAll first = cache.game(11, 6, 5);
+    LightEmAll second = cache.game(11, 6, 5);
+    t.checkExpect(cache.misses, 1L);
+    t.checkExpect(cache.hits, 1L);
+    // a cached game is the generated one, with its own pieces
+    t.checkExpect(ReplayEngine.checksum(first), ReplayEngine.checksum(generated));
+    t.checkExpect(ReplayEngine.checksum(second), ReplayEngine.checksum(generated));
+    t.checkExpect(first.nodes.get(0) == second.nodes.get(0), false);
+    t.checkExpect(second.mst.size(), generated.mst.size());
+    t.checkExpect(second.mst.get(3).weight, generated.mst.get(3).weight);
+    t.checkExpect(second.difficulty.masks, generated.difficulty.masks);
+    t.checkExpect(second.difficulty.score(), generated.difficulty.score());
+    t.checkExpect(second.score.par, generated.score.par);
+    t.checkExpect(second.linked.size(), generated.linked.size());
+    // playing one game does not change the cached puzzle
+    first.rotateCell(0, 1);
+    t.checkExpect(ReplayEngine.checksum(cache.game(11, 6, 5)),
+        ReplayEngine.checksum(generated));
+    // other weights are another puzzle
+    cache.game(11, 6, 5, new BranchingWeights());
+    t.checkExpect(cache.misses, 2L);
+    t.checkExpect(cache.puzzles.size(), 2);
+
+    // a budget of one puzzle evicts the least recently used one
+    PuzzleCache small = new PuzzleCache(1, null);
+    small.game(1, 4, 4);
+    small.game(2, 4, 4);
+    small.game(2, 4, 4);
+    small.game(1, 4, 4);
+    t.checkExpect(small.puzzles.size(), 1);
+    t.checkExpect(small.hits, 1L);
+    t.checkExpect(small.misses, 3L);
+    t.checkExpect(small.evictions, 2L);
+    t.checkExpect(small.toString(), "1 puzzles, " + small.bytes
+        + " bytes: 1 hits, 0 disk hits, 3 misses, 2 evictions");
+  }
+
+  // tests for PuzzleCache on disk
+  void testPuzzleCacheDisk(Tester t) {
+    try {
+      File dir = Files.createTempDirectory("puzzles").toFile();
+      PuzzleCache cache = new PuzzleCache(1, dir);
+      long expected = ReplayEngine.checksum(cache.game(5, 7, 3));
+      t.checkExpect(new File(dir, "5-7x3-uniform.puzzle").exists(), true);
+      cache.game(6, 7, 3);
+      // evicted from memory, but read back from disk instead of generated
+      t.checkExpect(ReplayEngine.checksum(cache.game(5, 7, 3)), expected);
+      t.checkExpect(cache.diskHits, 1L);
+      t.checkExpect(cache.misses, 2L);
+      // a new cache over the same directory never generates it
+      PuzzleCache restarted = new PuzzleCache(PuzzleCache.DEFAULT_BUDGET, dir);
+      t.checkExpect(ReplayEngine.checksum(restarted.game(5, 7, 3)), expected);
+      t.checkExpect(restarted.misses, 0L);
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      CachedPuzzle puzzle = restarted.puzzle(5, 7, 3, new UniformWeights());
+      puzzle.write(out);
+      CachedPuzzle read = CachedPuzzle.read(new ByteArrayInputStream(out.toByteArray()));
+      t.checkExpect(read.key, puzzle.key);
+      t.checkExpect(read.wires, puzzle.wires);
+      t.checkExpect(read.treeDirs, puzzle.treeDirs);
+      t.checkException(new IOException("Not a cached puzzle"), puzzle, "read",
+          new ByteArrayInputStream(new byte[8]));
+      byte[] bytes = out.toByteArray();
+      // the width follows the magic number and the seed
+      byte[] noWidth = Arrays.copyOf(bytes, bytes.length);
+      Arrays.fill(noWidth, 12, 16, (byte) 0);
+      t.checkException(new IOException("Corrupt cached puzzle: 0x3"), puzzle, "read",
+          new ByteArrayInputStream(noWidth));
+
+      // a truncated file is generated again and written over
+      File file = new File(dir, "5-7x3-uniform.puzzle");
+      Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+      PuzzleCache truncated = new PuzzleCache(PuzzleCache.DEFAULT_BUDGET, dir);
+      t.checkExpect(ReplayEngine.checksum(truncated.game(5, 7, 3)), expected);
+      t.checkExpect(truncated.misses, 1L);
+      t.checkExpect(truncated.badFiles, 1L);
+      t.checkExpect(Files.size(file.toPath()), (long) bytes.length);
+
+      // a file holding another puzzle is not taken for the one asked for
+      File other = new File(dir, "5-7x3-horizontal_0.5.puzzle");
+      Files.write(other.toPath(), bytes);
+      PuzzleCache collided = new PuzzleCache(PuzzleCache.DEFAULT_BUDGET, dir);
+      CachedPuzzle biased = collided.puzzle(5, 7, 3, new HorizontalBiasWeights(0.5));
+      t.checkExpect(biased.key, new PuzzleKey(5, 7, 3, new HorizontalBiasWeights(0.5).name()));
+      t.checkExpect(collided.diskHits, 0L);
+      t.checkExpect(collided.misses, 1L);
+      t.checkExpect(collided.toString().endsWith("1 misses, 0 evictions, 1 bad files"), true);
+    }
+    catch (IOException e) {
+      t.checkExpect(e, null);
+    }
+  }
+
+  // tests for GameServer sharing puzzles through its PuzzleCache
+  void testServerPuzzleCache(Tester t) {
+    GameServer server = new GameServer();
+    GameSession a = server.session("a", 5, 5, 3);
+    GameSession b = server.session("b", 5, 5, 3);
+    t.checkExpect(server.puzzles.misses, 1L);
+    t.checkExpect(server.puzzles.hits, 1L);
+    t.checkExpect(a.game == b.game, false);
+    t.checkExpect(ReplayEngine.checksum(a.game), ReplayEngine.checksum(b.game));
+    server.shutdown();
+  }
+
+  // tests for InputQueue
+  void testInputQueue(Tester t) {
+    t.checkExpect(InputQueue.directionOf("up"), 0);
+    t.checkExpect(InputQueue.directionOf("right"), 1);
+    t.checkExpect(InputQueue.directionOf("down"), 2);
+    t.checkExpect(InputQueue.directionOf("left"), 3);
+    t.checkExpect(InputQueue.directionOf("q"), -1);
+    InputQueue queue = new InputQueue();
+    queue.addKey("z");
+    queue.addKey("y");
+    queue.addKey("left");
+    queue.addKey("q");
+    t.checkExpect(queue.size, 3);
+    t.checkExpect(queue.events[0], InputQueue.UNDO);
+    t.checkExpect(queue.events[1], InputQueue.REDO);
+    t.checkExpect(queue.events[2], -4);
+    for (int i = 0; i < 40; i++) {
+      queue.add(i);
+    }
+    t.checkExpect(queue.size, 43);
+    t.checkExpect(queue.events[42], 39);
+  }
+
+  // tests for applying a tick's input in one batch
+  void testBatchedInput(Tester t) {
+    LightEmAll direct = new LightEmAll(7, 7, 0, false, new Random(21));
+    LightEmAll batched = new LightEmAll(7, 7, 0, false, new Random(21));
+    batched.queue = new InputQueue();
+    batched.deltas = new BoardDeltaRecorder(batched, 1);
+    Random rand = new Random(5);
+    String[] keys = { "up", "down", "left", "right", "z", "y" };
+    for (int tick = 0; tick < 20; tick++) {
+      int updates = batched.fullPowerUpdates;
+      for (int i = 0; i < 10; i++) {
+        if (rand.nextInt(4) == 0) {
+          String key = keys[rand.nextInt(keys.length)];
+          direct.onKeyEvent(key);
+          batched.onKeyEvent(key);
+        }
+        else {
+          Posn pos = direct.camera.center(rand.nextInt(7), rand.nextInt(7));
+          direct.onMouseClicked(pos, "LeftButton");
+          batched.onMouseClicked(pos, "LeftButton");
+        }
+      }
+      // nothing changes until the tick
+      t.checkExpect(batched.queue.size, 10);
+      batched.onTick();
+      t.checkExpect(batched.queue.size, 0);
+      // one batch costs at most one full power update
+      t.checkExpect(batched.fullPowerUpdates - updates <= 1, true);
+      // and ends in the same board as applying every event on its own
+      t.checkExpect(ReplayEngine.checksum(batched), ReplayEngine.checksum(direct));
+      t.checkExpect(batched.linked.size(), direct.linked.size());
+      t.checkExpect(batched.score.remaining, direct.score.remaining);
+    }
+    t.checkExpect(batched.queue.batches, 20L);
+    t.checkExpect(batched.queue.applied, 200L);
+    t.checkExpect(batched.fullPowerUpdates < direct.fullPowerUpdates, true);
+    t.checkExpect(batched.deltas.seq, 20);
+    // an empty tick does nothing
+    t.checkExpect(batched.queue.drain(batched), 0);
+  }
+
+  // tests for a batch that wins the game
+  void testBatchedWin(Tester t) {
+    LightEmAll game = new LightEmAll(4, 4, 0, false, new Random(8));
+    game.queue = new InputQueue();
+    SolverPolicy solver = new SolverPolicy();
+    while (game.score.remaining > 0) {
+      int cell = solver.choose(game, new Random(1));
+      game.rotateCell(cell, 1);
+    }
+    game.undo();
+    int cell = RotationJournal.cellOf(game.journal.entries[game.journal.applied]);
+    LightEmAll direct = new LightEmAll(4, 4, 0, false, new Random(8));
+    while (direct.score.remaining > 0) {
+      direct.rotateCell(solver.choose(direct, new Random(1)), 1);
+    }
+    direct.undo();
+    game.onMouseClicked(game.camera.center(cell / 4, cell % 4), "LeftButton");
+    // a click after the winning one in the same tick is dropped, as it is
+    // when every click is applied on its own
+    int other = (cell + 1) % 16;
+    game.onMouseClicked(game.camera.center(other / 4, other % 4), "LeftButton");
+    game.onKeyEvent("z");
+    t.checkExpect(game.gameOver, false);
+    t.checkExpect(game.queue.size, 3);
+    long applied = game.queue.applied;
+    game.onTick();
+    t.checkExpect(game.gameOver, true);
+    t.checkExpect(game.queue.applied - applied, 1L);
+    t.checkExpect(game.score.remaining, 0L);
+    t.checkExpect(game.bfs(), true);
+    direct.onMouseClicked(direct.camera.center(cell / 4, cell % 4), "LeftButton");
+    direct.onMouseClicked(direct.camera.center(other / 4, other % 4), "LeftButton");
+    direct.onKeyEvent("z");
+    t.checkExpect(ReplayEngine.checksum(game), ReplayEngine.checksum(direct));
+    // and a won game ignores what is queued after it
+    game.queue.add(other);
+    t.checkExpect(game.queue.drain(game), 0);
+    t.checkExpect(game.score.remaining, 0L);
+  }
+
+  // tests for FixedStepScheduler
+  void testFixedStepScheduler(Tester t) {
+    FixedStepScheduler scheduler = new FixedStepScheduler(100, 4, 50);
+    t.checkExpect(scheduler.stepNanos, 10000000L);
+    t.checkExpect(scheduler.frameBudgetNanos, 20000000L);
+    // the first tick runs one step, then one step per 10 ms of real time
+    t.checkExpect(scheduler.stepsDue(1000000000L), 1);
+    t.checkExpect(scheduler.stepsDue(1005000000L), 0);
+    t.checkExpect(scheduler.stepsDue(1025000000L), 2);
+    t.checkExpect(scheduler.accumulator, 5000000L);
+    // a long stall runs at most four steps and drops the rest
+    t.checkExpect(scheduler.stepsDue(1100000000L), 4);
+    t.checkExpect(scheduler.droppedSteps, 4L);
+    t.checkExpect(scheduler.ticks, 4L);
+
+    // a frame 50 ms over its 20 ms budget skips the next three frames
+    WorldScene scene = new WorldScene(10, 10);
+    t.checkExpect(scheduler.shouldRender(), true);
+    scheduler.rendered(scene, 70000000L);
+    t.checkExpect(scheduler.renderDebt, 50000000L);
+    t.checkExpect(scheduler.shouldRender(), false);
+    t.checkExpect(scheduler.shouldRender(), false);
+    t.checkExpect(scheduler.shouldRender(), false);
+    t.checkExpect(scheduler.shouldRender(), true);
+    scheduler.rendered(scene, 5000000L);
+    t.checkExpect(scheduler.frames, 2L);
+    t.checkExpect(scheduler.skippedFrames, 3L);
+    t.checkExpect(scheduler.maxRenderNanos, 70000000L);
+    scheduler.stepped(2000000L);
+    t.checkExpect(scheduler.report(), "simulation: 1 steps in 4 ticks, 4 dropped, "
+        + "2.000 ms mean, 2.000 ms max; rendering: 2 frames, 3 skipped, 37.500 ms mean, "
+        + "70.000 ms max");
+  }
+
+  // tests for TurnAnimation
+  void testTurnAnimation(Tester t) {
+    TurnAnimation animation = new TurnAnimation();
+    t.checkExpect(animation.degreesLeft(3), 0);
+    animation.turned(3, 1, 9);
+    animation.turned(5, 2, 9);
+    animation.turned(3, 1, 9);
+    animation.turned(7, 4, 9);
+    t.checkExpect(animation.degreesLeft(3), 180);
+    t.checkExpect(animation.degreesLeft(5), 180);
+    t.checkExpect(animation.degreesLeft(7), 0);
+    t.checkExpect(animation.activeCount, 2);
+    animation.turned(3, 3, 9);
+    t.checkExpect(animation.degreesLeft(3), 270);
+    animation.step();
+    t.checkExpect(animation.degreesLeft(3), 261);
+    for (int i = 0; i < 20; i++) {
+      animation.step();
+    }
+    t.checkExpect(animation.degreesLeft(5), 0);
+    t.checkExpect(animation.activeCount, 1);
+    for (int i = 0; i < 10; i++) {
+      animation.step();
+    }
+    t.checkExpect(animation.activeCount, 0);
+  }
+
+  // tests for a game run by the scheduler
+  void testScheduledGame(Tester t) {
+    LightEmAll game = new LightEmAll(5, 5, 0, false, new Random(4));
+    game.queue = new InputQueue();
+    game.animation = new TurnAnimation();
+    game.scheduler = new FixedStepScheduler(1000, 1000, 60);
+    int before = game.pieceAt(2, 2).wireMask();
+    game.onMouseClicked(game.camera.center(2, 2), "LeftButton");
+    t.checkExpect(game.pieceAt(2, 2).wireMask(), before);
+    // the first tick always steps, applying the click and starting its turn
+    game.onTick();
+    t.checkExpect(game.pieceAt(2, 2).wireMask(), ((before << 1) | (before >> 3)) & 15);
+    t.checkExpect(game.animation.degreesLeft(game.cellId(2, 2)), 81);
+    t.checkExpect(game.scheduler.steps, 1L);
+    WorldScene first = game.makeScene();
+    t.checkExpect(game.scheduler.frames, 1L);
+    t.checkExpect(game.scheduler.lastScene, first);
+    // rendering in debt shows the last frame again
+    game.scheduler.renderDebt = 1;
+    t.checkExpect(game.makeScene() == first, true);
+    t.checkExpect(game.scheduler.skippedFrames, 1L);
+    t.checkExpect(game.makeScene() == first, false);
+  }
+
+  // tests for SolutionTree
+  void testSolutionTree(Tester t) {
+    // 0 - 1 - 2
+    //     |
+    // 3 - 4 - 5
+    Topology grid = new SquareTopology(2, 3);
+    SolutionTree tree = new SolutionTree(grid, new int[] { 2, 14, 8, 2, 11, 8 }, 0);
+    t.checkExpect(tree.parent, new int[] { -1, 0, 1, 4, 1, 4 });
+    t.checkExpect(tree.size, new int[] { 6, 5, 1, 1, 3, 1 });
+    t.checkExpect(tree.cells(), 6);
+    t.checkExpect(tree.depthOf(3), 3);
+    t.checkExpect(tree.depthOf(0), 0);
+    t.checkExpect(tree.cutOff(4), 3);
+    t.checkExpect(tree.cutOff(2), 1);
+    t.checkExpect(tree.cutOff(0), 5);
+    t.checkExpect(tree.losesPower(5, 4), true);
+    t.checkExpect(tree.losesPower(2, 4), false);
+    t.checkExpect(tree.losesPower(2, 0), true);
+    t.checkExpect(tree.losesPower(0, 0), false);
+    int[] path = new int[6];
+    t.checkExpect(tree.pathFromStation(5, path), 4);
+    t.checkExpect(path, new int[] { 0, 1, 4, 5, 0, 0 });
+
+    // moving the root flips the parents on the way and fixes those sizes
+    tree.reroot(4);
+    t.checkExpect(tree.root, 4);
+    t.checkExpect(tree.parent, new int[] { 1, 4, 1, 4, -1, 4 });
+    t.checkExpect(tree.size, new int[] { 1, 3, 1, 1, 6, 1 });
+    t.checkExpect(tree.depthOf(0), 2);
+    t.checkExpect(tree.depthOf(3), 1);
+    t.checkExpect(tree.cutOff(1), 3);
+    t.checkExpect(tree.losesPower(0, 1), true);
+    t.checkExpect(tree.losesPower(5, 1), false);
+    t.checkExpect(tree.pathFromStation(2, path), 3);
+    t.checkExpect(path[0], 4);
+    t.checkExpect(path[2], 2);
+    tree.reroot(2);
+    t.checkExpect(tree.parent, new int[] { 1, 2, -1, 4, 1, 4 });
+    t.checkExpect(tree.size, new int[] { 1, 5, 6, 1, 3, 1 });
+    t.checkExpect(tree.depthOf(5), 3);
+
+    // wires that do not reach a cell leave it out of the tree
+    SolutionTree part = new SolutionTree(grid, new int[] { 2, 8, 0, 0, 0, 0 }, 0);
+    t.checkExpect(part.cells(), 2);
+    t.checkExpect(part.size[4], 0);
+    part.reroot(4);
+    t.checkExpect(part.root, 0);
+  }
+
+  // tests for SolutionTree against a search of the board
+  void testSolutionTreeMatchesSearch(Tester t) {
+    LightEmAll game = new LightEmAll(6, 6, 0, false, new Random(12));
+    SolutionTree tree = game.tree;
+    int[] masks = game.difficulty.masks;
+    // a wrong tile cuts off as many cells as a search without it misses
+    for (int wrong = 1; wrong < 36; wrong += 5) {
+      int saved = masks[wrong];
+      masks[wrong] = 0;
+      boolean[] reached = new boolean[36];
+      for (int cell : game.topology.reachable(masks, tree.root)) {
+        reached[cell] = true;
+      }
+      masks[wrong] = saved;
+      int lost = 0;
+      for (int cell = 0; cell < 36; cell++) {
+        if (!reached[cell]) {
+          lost++;
+        }
+        t.checkExpect(tree.losesPower(cell, wrong), !reached[cell]);
+      }
+      t.checkExpect(tree.cutOff(wrong), lost);
+    }
+    // the tree follows the station
+    for (int cell = 0; cell < 36; cell++) {
+      game.pieceAt(cell).setWires(masks[cell]);
+    }
+    game.updatePower();
+    game.onKeyEvent("right");
+    game.onKeyEvent("down");
+    t.checkExpect(tree.root, game.cellId(game.powerRow, game.powerCol));
+    t.checkExpect(tree.cells(), 36);
+    int[] path = new int[36];
+    int length = tree.pathFromStation(35, path);
+    t.checkExpect(path[0], tree.root);
+    t.checkExpect(path[length - 1], 35);
+    for (int i = 1; i < length; i++) {
+      t.checkExpect(tree.parent[path[i]], path[i - 1]);
+    }
+  }
+
+  // tests for CriticalityIndex
+  void testCriticalityIndex(Tester t) {
+    // 0 - 1 - 2
+    //     |
+    // 3 - 4 - 5
+    int[] solution = { 2, 14, 8, 2, 11, 8 };
+    Topology grid = new SquareTopology(2, 3);
+    ArrayList<GamePiece> pieces = new ArrayList<GamePiece>();
+    for (int cell = 0; cell < 6; cell++) {
+      GamePiece piece = new GamePiece(cell / 3, cell % 3, false, false, false, false, false,
+          false);
+      piece.setWires(solution[cell]);
+      pieces.add(piece);
+    }
+    MoveScore score = new MoveScore(solution, pieces);
+    SolutionTree tree = new SolutionTree(grid, solution, 0);
+    CriticalityIndex index = new CriticalityIndex(tree, score);
+    t.checkExpect(index.leaves, 8);
+    t.checkExpect(index.top(), -1);
+    int[] out = new int[6];
+    t.checkExpect(index.top(3, out), 0);
+
+    // turning tiles wrong ranks them by the cells under them that are not
+    // behind another wrong tile: 3 stays dark until it is fixed too
+    score.turned(2, 1);
+    index.update(2);
+    score.turned(4, 13);
+    index.update(4);
+    t.checkExpect(index.criticality(4), 3);
+    score.turned(3, 8);
+    index.update(3);
+    t.checkExpect(index.criticality(4), 2);
+    t.checkExpect(index.criticality(3), 1);
+    t.checkExpect(index.criticality(2), 1);
+    t.checkExpect(index.criticality(1), -1);
+    t.checkExpect(index.top(), 4);
+    t.checkExpect(index.top(2, out), 2);
+    t.checkExpect(out[0], 4);
+    t.checkExpect(out[1], 2);
+    t.checkExpect(index.top(5, out), 3);
+    t.checkExpect(out[2], 3);
+    // turning one right drops it
+    score.turned(4, 11);
+    index.update(4);
+    t.checkExpect(index.top(), 2);
+    t.checkExpect(index.criticality(3), 1);
+
+    // tile 1 takes 2 and 3 behind it, which keep their own counts
+    score.turned(1, 13);
+    index.update(1);
+    t.checkExpect(index.top(), 1);
+    t.checkExpect(index.criticality(1), 3);
+    // with the station at 4, tile 1 cuts off 0, 1 and 2, but 2 is wrong too
+    int oldRoot = tree.root;
+    tree.reroot(4);
+    index.rerooted(oldRoot);
+    t.checkExpect(index.criticality(1), 2);
+    t.checkExpect(index.criticality(3), 1);
+    tree.reroot(2);
+    index.rerooted(4);
+    // with the station at 2 everything else is behind tile 1, so the wrong
+    // station tile gives back nothing on its own
+    t.checkExpect(index.top(), 1);
+    t.checkExpect(index.criticality(1), 4);
+    t.checkExpect(index.criticality(2), 0);
+    t.checkExpect(index.top(3, out), 3);
+    t.checkExpect(out[2], 2);
+  }
+
+  // tests for CriticalityIndex kept up to date by a game
+  void testCriticalityInGame(Tester t) {
+    LightEmAll game = new LightEmAll(7, 7, 0, false, new Random(30));
+    Random rand = new Random(3);
+    int[] out = new int[49];
+    for (int i = 0; i < 60; i++) {
+      if (i % 10 == 9) {
+        game.onKeyEvent("right");
+        game.onKeyEvent("down");
+      }
+      else {
+        game.rotateCell(rand.nextInt(49), 1 + rand.nextInt(3));
+      }
+      // the kept ranking is the one built from scratch
+      int kept = game.critical.top(49, out);
+      int[] keptCells = Arrays.copyOf(out, kept);
+      CriticalityIndex fresh = new CriticalityIndex(game.tree, game.score);
+      t.checkExpect(fresh.top(49, out), kept);
+      t.checkExpect(Arrays.copyOf(out, kept), keptCells);
+      // every wrong tile is listed, most critical first
+      int wrong = 0;
+      for (int cell = 0; cell < 49; cell++) {
+        if (game.score.needed[cell] > 0) {
+          wrong++;
+        }
+      }
+      t.checkExpect(kept, wrong);
+      // each tile counts the cells whose first wrong tile from the station it is
+      int[] firstWrong = new int[49];
+      for (int cell = 0; cell < 49; cell++) {
+        int cur = cell;
+        while (cur >= 0 && game.score.needed[cur] == 0) {
+          cur = game.tree.parent[cur];
+        }
+        if (cur >= 0 && !(cur == game.tree.root && cell == cur)) {
+          firstWrong[cur]++;
+        }
+      }
+      for (int j = 0; j < kept; j++) {
+        t.checkExpect(game.critical.criticality(keptCells[j]), firstWrong[keptCells[j]]);
+      }
+      for (int j = 1; j < kept; j++) {
+        t.checkExpect(game.critical.criticality(keptCells[j - 1])
+            >= game.critical.criticality(keptCells[j]), true);
+      }
+    }
+    // clicking the most critical tile solves the board in par clicks
+    LightEmAll fresh = new LightEmAll(5, 5, 0, false, new Random(31));
+    long par = fresh.score.par;
+    SelfPlay selfPlay = new SelfPlay(1, 5, 200, 0);
+    t.checkExpect((long) selfPlay.play(fresh, new CriticalPolicy(), new Random(1)) <= par, true);
+    t.checkExpect(fresh.gameOver, true);
+    t.checkExpect(new CriticalPolicy().name(), "critical");
+  }
+
+  // tests for PowerStations
+  void testPowerStations(Tester t) {
+    PowerStations stations = new PowerStations(9);
+    t.checkExpect(stations.add(4, 1), 0);
+    t.checkExpect(stations.add(0, 0), 1);
+    t.checkExpect(stations.indexOf(4), 0);
+    t.checkExpect(stations.indexOf(5), -1);
+    t.checkExpect(stations.budget(0, 9), 1);
+    t.checkExpect(stations.budget(1, 9), 9);
+    stations.move(0, 5);
+    t.checkExpect(stations.indexOf(4), -1);
+    t.checkExpect(stations.indexOf(5), 0);
+    t.checkException(new IllegalArgumentException("cell 0 already has station 1"), stations,
+        "add", 0, 2);
+    t.checkException(new IllegalArgumentException("cell 0 already has station 1"), stations,
+        "move", 0, 0);
+    for (int i = 0; i < 6; i++) {
+      stations.add(i + 1 == 5 ? 8 : i + 1, i);
+    }
+    t.checkExpect(stations.count, 8);
+  }
+
+  // tests that one search from every station powers each cell from the station
+  // with the most power left there
+  void testMultiSourcePower(Tester t) {
+    LightEmAll game = new LightEmAll(9, 9, 0, false, new Random(40));
+    int[] solution = game.difficulty.masks;
+    for (int cell = 0; cell < 81; cell++) {
+      game.pieceAt(cell).setWires(solution[cell]);
+    }
+    game.addStation(8, 8, 5);
+    game.addStation(4, 4, 3);
+    game.addStation(0, 8, 0);
+    PowerStations stations = game.stations;
+    t.checkExpect(stations.count, 4);
+    t.checkExpect(stations.cells[0], 0);
+    game.radius = 0;
+    stations.radii[0] = 2;
+    game.updatePower();
+    t.checkExpect(game.linked.size(), 81);
+    t.checkExpect(game.bfs(), true);
+
+    // each cell is powered by a station that reaches it with the most power
+    // left, as found by one search per station
+    Random rand = new Random(6);
+    for (int round = 0; round < 8; round++) {
+      for (int i = 0; i < 10; i++) {
+        game.rotateCell(rand.nextInt(81), 1);
+      }
+      int[] masks = new int[81];
+      for (int cell = 0; cell < 81; cell++) {
+        masks[cell] = game.pieceAt(cell).wireMask();
+      }
+      int[] bestLeft = new int[81];
+      Arrays.fill(bestLeft, -1);
+      int[][] left = new int[4][81];
+      DifficultyMetrics distances = new DifficultyMetrics(game.topology);
+      distances.masks = masks;
+      int[] dist = new int[81];
+      for (int s = 0; s < 4; s++) {
+        distances.farthest(stations.cells[s], dist);
+        for (int cell = 0; cell < 81; cell++) {
+          left[s][cell] = dist[cell] < 0 ? -1 : stations.budget(s, 81) - dist[cell];
+          bestLeft[cell] = Math.max(bestLeft[cell], left[s][cell]);
+        }
+      }
+      int powered = 0;
+      for (int cell = 0; cell < 81; cell++) {
+        int by = stations.poweredBy[cell];
+        t.checkExpect(game.pieceAt(cell).powered, bestLeft[cell] >= 0);
+        if (by >= 0) {
+          powered++;
+          t.checkExpect(left[by][cell], bestLeft[cell]);
+        }
+      }
+      t.checkExpect(game.linked.size(), powered);
+      // the incremental skip agrees with a full update
+      ArrayList<GamePiece> kept = game.linked;
+      game.updatePower();
+      t.checkExpect(game.linked.size(), kept.size());
+    }
+  }
+
+  // tests for a game with more than one station
+  void testStationsGame(Tester t) {
+    int[][] stations = { { 2, 2, 0 }, { 0, 0, 2 }, { 4, 4, 1 } };
+    LightEmAll game = new LightEmAll(5, 5, stations, new Random(9));
+    t.checkExpect(game.powerRow, 2);
+    t.checkExpect(game.tree.root, 12);
+    t.checkExpect(game.stations.count, 3);
+    t.checkExpect(game.isStation(0), true);
+    t.checkExpect(game.isStation(24), true);
+    t.checkExpect(game.isStation(1), false);
+    t.checkExpect(game.pieceAt(4, 4).powerStation, true);
+    t.checkExpect(game.pieceAt(0, 0).powered, true);
+    t.checkExpect(game.pieceAt(4, 4).powered, true);
+    // solving the board wins however many stations power it
+    SolverPolicy solver = new SolverPolicy();
+    int clicks = 0;
+    while (!game.gameOver && clicks < 200) {
+      int cell = solver.choose(game, new Random(1));
+      game.onMouseClicked(game.camera.center(cell / 5, cell % 5), "LeftButton");
+      clicks++;
+    }
+    t.checkExpect(game.gameOver, true);
+    // the station the player moves stays in step with the set
+    LightEmAll moving = new LightEmAll(5, 5, stations, new Random(9));
+    for (int cell = 0; cell < 25; cell++) {
+      moving.pieceAt(cell).setWires(moving.difficulty.masks[cell]);
+    }
+    moving.updatePower();
+    for (String key : new String[] { "up", "up", "left", "left", "down" }) {
+      moving.onKeyEvent(key);
+      t.checkExpect(moving.stations.cells[0], moving.cellId(moving.powerRow, moving.powerCol));
+      t.checkExpect(moving.stations.indexOf(0), 1);
+    }
+    t.checkExpect(moving.linked.size(), 25);
+  }
+
+  // tests for NibbleBoard and WireCounts
+  void testBulkCheckCounts(Tester t) {
+    // 0-1 and 0-2 joined, 2 wired towards 3 but not back, 0 wired off the top
+    int[] masks = { 7, 8, 3, 0 };
+    Topology square = new SquareTopology(2, 2);
+    t.checkExpect(BulkCheck.scalar(square, masks), new WireCounts(2, 1, 1));
+    t.checkExpect(NibbleBoard.of(2, 2, masks).counts(), new WireCounts(2, 1, 1));
+    t.checkExpect(BulkCheck.counts(square, masks).consistent(), false);
+    t.checkExpect(BulkCheck.solved(new WireCounts(2, 1, 1), square, masks), false);
+    masks[0] = 6;
+    masks[2] = 1;
+    masks[3] = 0;
+    // consistent, but cell 3 hangs on nothing
+    t.checkExpect(BulkCheck.counts(square, masks), new WireCounts(2, 0, 0));
+    t.checkExpect(BulkCheck.solved(BulkCheck.counts(square, masks), square, masks), false);
+    masks[1] = 12;
+    masks[3] = 1;
+    t.checkExpect(BulkCheck.solved(BulkCheck.counts(square, masks), square, masks), true);
+
+    NibbleBoard packed = NibbleBoard.of(2, 2, masks);
+    packed.set(3, 9);
+    t.checkExpect(packed.get(3), 9);
+    t.checkExpect(packed.get(1), 12);
+    t.checkExpect(packed.counts(), new WireCounts(3, 1, 0));
+  }
+
+  // tests that the packed and one-cell-at-a-time checks agree
+  void testBulkCheckAgrees(Tester t) {
+    // rows that do not fill their last long, and rows of several longs
+    int[][] sizes = { { 7, 21 }, { 3, 16 }, { 5, 33 }, { 1, 1 }, { 4, 50 } };
+    Random rand = new Random(48);
+    for (int[] size : sizes) {
+      PackedBoard board = new PackedBoard(size[1], size[0]);
+      new KruskalGenerator().generate(board, new Random(size[1]));
+      int[] masks = board.masks();
+      WireCounts solved = NibbleBoard.of(size[0], size[1], masks).counts();
+      t.checkExpect(solved, new WireCounts(masks.length - 1, 0, 0));
+      t.checkExpect(BulkCheck.solved(solved, board.topology, masks), true);
+      for (int round = 0; round < 5; round++) {
+        for (int cell = 0; cell < masks.length; cell++) {
+          masks[cell] = rand.nextInt(16);
+        }
+        t.checkExpect(NibbleBoard.of(size[0], size[1], masks).counts(),
+            BulkCheck.scalar(board.topology, masks));
+      }
+    }
+  }
+
+  // tests for BulkCheck on torus and hex boards
+  void testBulkCheckOtherTopologies(Tester t) {
+    for (Topology topology : new Topology[] { new TorusTopology(4, 4),
+        new HexTopology(3, 3) }) {
+      PackedBoard board = new PackedBoard(topology);
+      new KruskalGenerator().generate(board, new Random(7));
+      int[] masks = board.masks();
+      WireCounts counts = BulkCheck.counts(topology, masks);
+      t.checkExpect(counts, new WireCounts(masks.length - 1, 0, 0));
+      t.checkExpect(BulkCheck.solved(counts, topology, masks), true);
+      masks[4] = 0;
+      t.checkExpect(BulkCheck.counts(topology, masks).consistent(), false);
+    }
+  }
+
+  // tests for ZobristHash kept up to date by a game
+  void testZobristIncremental(Tester t) {
+    LightEmAll game = new LightEmAll(6, 6, 0, false, new Random(49));
+    long start = game.zobrist.hash();
+    Random rand = new Random(7);
+    for (int i = 0; i < 50; i++) {
+      game.rotateCell(rand.nextInt(36), 1 + rand.nextInt(3));
+      ZobristHash fresh = new ZobristHash(game.topology);
+      fresh.reset(game.nodes);
+      t.checkExpect(game.zobrist.hash(), fresh.hash());
+      t.checkExpect(game.zobrist.canonical(), fresh.canonical());
+    }
+    while (game.undo()) {
+      t.checkExpect(game.zobrist.hash() == start, !game.journal.canUndo());
+    }
+    // a full turn leaves the hash as it was
+    long before = game.zobrist.hash();
+    game.turnCell(5, 4);
+    t.checkExpect(game.zobrist.hash(), before);
+    t.checkExpect(game.zobrist.symmetries, 8);
+    t.checkExpect(new ZobristHash(new SquareTopology(3, 5)).symmetries, 4);
+    t.checkExpect(new ZobristHash(new HexTopology(3, 3)).symmetries, 1);
+  }
+
+  // tests for ZobristHash on turned and symmetric boards
+  void testZobristSymmetry(Tester t) {
+    PackedBoard board = new PackedBoard(4, 4);
+    new KruskalGenerator().generate(board, new Random(3));
+    int[] masks = board.masks();
+    int[] turned = new int[16];
+    int[] mirrored = new int[16];
+    for (int row = 0; row < 4; row++) {
+      for (int col = 0; col < 4; col++) {
+        int mask = masks[row * 4 + col];
+        // a quarter turn clockwise takes (row, col) to (col, 3 - row)
+        turned[col * 4 + 3 - row] = ((mask << 1) | (mask >> 3)) & 15;
+        // a mirror image swaps left and right
+        mirrored[row * 4 + 3 - col] = (mask & 5) | (mask & 2) << 2 | (mask & 8) >> 2;
+      }
+    }
+    Topology square = board.topology;
+    long canonical = ZobristHash.canonical(square, masks);
+    t.checkExpect(ZobristHash.canonical(square, turned), canonical);
+    t.checkExpect(ZobristHash.canonical(square, mirrored), canonical);
+    ZobristHash hash = new ZobristHash(square);
+    hash.reset(masks);
+    long plain = hash.hash();
+    hash.reset(turned);
+    t.checkExpect(hash.hash() == plain, false);
+    masks[0] = 0;
+    t.checkExpect(ZobristHash.canonical(square, masks) == canonical, false);
+
+    // boards that are not square have half turns but no quarter turns
+    PackedBoard wide = new PackedBoard(5, 3);
+    new KruskalGenerator().generate(wide, new Random(4));
+    int[] wires = wide.masks();
+    int[] halfTurned = new int[15];
+    for (int cell = 0; cell < 15; cell++) {
+      int mask = wires[cell];
+      halfTurned[14 - cell] = ((mask << 2) | (mask >> 2)) & 15;
+    }
+    t.checkExpect(ZobristHash.canonical(wide.topology, halfTurned),
+        ZobristHash.canonical(wide.topology, wires));
+    t.checkExpect(ZobristHash.mapMask(5, 1), 2);
+  }
+
+  // tests for TranspositionTable
+  void testTranspositionTable(Tester t) {
+    TranspositionTable table = new TranspositionTable(4);
+    t.checkExpect(table.get(42), -1);
+    table.put(42, 3);
+    t.checkExpect(table.get(42), 3);
+    table.put(42, 1);
+    t.checkExpect(table.get(42), 1);
+    // a hash landing on the same slot replaces the older entry
+    table.put(42 + 16, 5);
+    t.checkExpect(table.get(42), -1);
+    t.checkExpect(table.get(42 + 16), 5);
+    table.put(0, 7);
+    t.checkExpect(table.get(0), 7);
+    t.checkExpect(table.hits, 4L);
+    table.clear();
+    t.checkExpect(table.get(0), -1);
+  }
+
+  // tests for ClickSolver
+  void testClickSolver(Tester t) {
+    Topology square = new SquareTopology(3, 3);
+    PackedBoard board = new PackedBoard(3, 3);
+    new KruskalGenerator().generate(board, new Random(5));
+    int[] solution = board.masks();
+    long[] nodes = new long[2];
+    int[] clicks = new int[2];
+    for (int run = 0; run < 2; run++) {
+      int[] masks = solution.clone();
+      // three quarter turns, so one more click puts each back
+      for (int cell : new int[] { 0, 4, 8 }) {
+        masks[cell] = ((masks[cell] << 3) | (masks[cell] >> 1)) & 15;
+      }
+      ClickSolver solver = new ClickSolver(square, masks, run == 0 ? 0 : 10);
+      clicks[run] = solver.solve(6);
+      nodes[run] = solver.nodes;
+      t.checkExpect(BulkCheck.solved(BulkCheck.scalar(square, masks), square, masks), true);
+      t.checkExpect(solver.loose, 0);
+    }
+    t.checkExpect(clicks[0], clicks[1]);
+    t.checkExpect(clicks[0] >= 1 && clicks[0] <= 3, true);
+    t.checkExpect(nodes[1] <= nodes[0], true);
+    t.checkExpect(new ClickSolver(square, solution.clone(), 4).solve(3), 0);
+    // no clicks solve a board with a missing wire
+    int[] broken = solution.clone();
+    broken[4] = 0;
+    t.checkExpect(new ClickSolver(square, broken, 4).solve(2), -1);
+  }
+
+  // tests for PuzzlePool keeping only distinct puzzles
+  void testPuzzlePoolDistinct(Tester t) {
+    // every tree of a 2x2 board is a turn of every other
+    PuzzlePool all = PuzzlePool.generate(12, 2, 2, new UniformWeights(), 1);
+    t.checkExpect(all.entries.size(), 12);
+    t.checkExpect(all.solutions.size(), 1);
+    PuzzlePool distinct = PuzzlePool.generate(12, 2, 2, new UniformWeights(), 1, true);
+    t.checkExpect(distinct.entries.size(), 1);
+    t.checkExpect(distinct.duplicates, 11);
+    PuzzlePool larger = PuzzlePool.generate(12, 5, 5, new UniformWeights(), 1, true);
+    t.checkExpect(larger.entries.size(), 12);
+  }
+
+  // tests for DifferentialHarness across every engine
+  void testDifferentialHarness(Tester t) {
+    DifferentialHarness harness = new DifferentialHarness(40, 15, 7, 50).run();
+    t.checkExpect(harness.failures, new ArrayList<String>());
+    t.checkExpect(harness.differences, 0L);
+    // trees, then power and win checks per move on the plain, cached, queued
+    // and many-station games, plus the solved boards
+    t.checkExpect(harness.checks >= 40 * 15 * 10, true);
+    t.checkExpect(harness.report().startsWith("40 boards up to 7x7, 15 moves each: "), true);
+    t.checkExpect(harness.report().contains("\n  stations      reference"), true);
+
+    // the reference engines agree with the first boards of the tests
+    t.checkExpect(ReferenceEngine.powered(this.board6, 0, 0), this.board6.linked);
+    t.checkExpect(ReferenceEngine.bfs(this.board6), this.board6.bfs());
+
+    // a powered flag the search does not back up is caught
+    LightEmAll game = new LightEmAll(4, 4, 0, false, new Random(2));
+    GamePiece stray = null;
+    for (GamePiece piece : game.nodes) {
+      if (!piece.powered) {
+        stray = piece;
+      }
+    }
+    stray.poweUp();
+    DifferentialHarness caught = new DifferentialHarness(0, 0, 4, 0);
+    caught.checkPower(game, "stray");
+    t.checkExpect(caught.differences, 1L);
+    t.checkExpect(caught.failures.get(0), "stray: powered flags differ");
+
+    // so is one in a game with more stations
+    LightEmAll many = new LightEmAll(4, 4, 0, false, new Random(2));
+    many.addStation(3, 3, 0);
+    t.checkExpect(caught.checkStations(many, "many"), false);
+    t.checkExpect(caught.differences, 1L);
+    for (GamePiece piece : many.nodes) {
+      if (!piece.powered) {
+        stray = piece;
+      }
+    }
+    stray.poweUp();
+    t.checkExpect(caught.checkStations(many, "many"), false);
+    t.checkExpect(caught.failures.get(1), "many: powered flags differ");
+
+    // and a queued game that did not apply what it was sent
+    LightEmAll queued = new LightEmAll(4, 4, 0, false, new Random(2));
+    queued.queue = new InputQueue();
+    LightEmAll plain = new LightEmAll(4, 4, 0, false, new Random(2));
+    plain.rotateCell(0, 1);
+    t.checkExpect(caught.checkQueued(queued, plain, false, "queued"), false);
+    t.checkExpect(caught.failures.get(2), "queued: wires differ");
+    queued.clickCell(0, "LeftButton");
+    t.checkExpect(caught.checkQueued(queued, plain, false, "queued"), false);
+    t.checkExpect(caught.differences, 3L);
+  }
+
+  // tests for PuzzleCache generating outside its lock
+  void testPuzzleCacheConcurrent(Tester t) {
+    PuzzleCache cache = new PuzzleCache(PuzzleCache.DEFAULT_BUDGET, null);
+    CachedPuzzle small = cache.puzzle(1, 4, 4, new UniformWeights());
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    // weights that hold generation up until the test lets it go
+    EdgeWeights slow = new EdgeWeights() {
+      public int weight(int row, int col, boolean horizontal, Random rand) {
+        started.countDown();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return rand.nextInt();
+      }
+
+      public String name() {
+        return "slow";
+      }
+    };
+    try {
+      CompletableFuture<CachedPuzzle> first =
+          CompletableFuture.supplyAsync(() -> cache.puzzle(2, 6, 6, slow));
+      t.checkExpect(started.await(10, TimeUnit.SECONDS), true);
+      CompletableFuture<CachedPuzzle> second =
+          CompletableFuture.supplyAsync(() -> cache.puzzle(2, 6, 6, slow));
+      // a cached board is served while another one is being generated
+      CachedPuzzle again = CompletableFuture.supplyAsync(
+          () -> cache.puzzle(1, 4, 4, new UniformWeights())).get(5, TimeUnit.SECONDS);
+      t.checkExpect(again == small, true);
+      release.countDown();
+      // the second request for the same board waits for the first one
+      t.checkExpect(first.get(10, TimeUnit.SECONDS) == second.get(10, TimeUnit.SECONDS), true);
+      t.checkExpect(cache.misses, 2L);
+      t.checkExpect(cache.hits, 2L);
+      t.checkExpect(cache.pending.isEmpty(), true);
+    }
+    catch (Exception e) {
+      t.checkExpect(e, null);
+    }
+  }
+}
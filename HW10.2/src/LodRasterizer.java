@@ -0,0 +1,144 @@
+import java.awt.Color;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import javalib.worldimages.ComputedPixelImage;
+
+// Draws a zoomed-out board straight into the pixels of one image, with each
+// tile shown as a solid block colored by its power, instead of composing
+// thousands of tile images. The blocks show no wires, so tiles that are
+// turning are not drawn turned.
+class LodRasterizer {
+  // below this many pixels per tile makeScene switches to this rasterizer
+  static final int LOD_TILE_SIZE = 8;
+
+  // colors as ARGB ints
+  static final int BACKGROUND = 0xFF404040;
+  static final int POWERED = 0xFFFFFF00;
+  static final int UNPOWERED = 0xFF808080;
+  static final int STATION = 0xFF00FFFF;
+
+  // the rows of pixels handed to each worker when rasterizing in parallel
+  static final int BAND_HEIGHT = 64;
+
+  // returns an image of the part of the board inside the given camera's window
+  static ComputedPixelImage render(LightEmAll game, Camera camera, boolean parallel) {
+    ComputedPixelImage image = new ComputedPixelImage(camera.viewWidth, camera.viewHeight);
+    int[] pixels = LodRasterizer.pixelsOf(image);
+    boolean direct = pixels != null;
+    if (!direct) {
+      pixels = new int[camera.viewWidth * camera.viewHeight];
+    }
+    LodRasterizer.rasterize(game, camera, pixels, parallel);
+    if (!direct) {
+      LodRasterizer.copyInto(image, pixels);
+    }
+    return image;
+  }
+
+  // EFFECT: fills the given row-major ARGB pixels, sized to the camera's
+  // window, with one block per visible tile
+  static void rasterize(LightEmAll game, Camera camera, int[] pixels, boolean parallel) {
+    int bands = (camera.viewHeight + BAND_HEIGHT - 1) / BAND_HEIGHT;
+    IntStream range = IntStream.range(0, bands);
+    if (parallel) {
+      range = range.parallel();
+    }
+    range.forEach(band -> LodRasterizer.rasterizeRows(game, camera, pixels, band * BAND_HEIGHT,
+        Math.min(camera.viewHeight, (band + 1) * BAND_HEIGHT)));
+  }
+
+  // EFFECT: fills the given rows of pixels
+  static void rasterizeRows(LightEmAll game, Camera camera, int[] pixels, int firstY, int endY) {
+    int size = camera.tileSize();
+    int width = camera.viewWidth;
+    for (int y = firstY; y < endY; y++) {
+      int rowStart = y * width;
+      int row = (y + camera.y) / size;
+      if (row >= camera.rows) {
+        Arrays.fill(pixels, rowStart, rowStart + width, BACKGROUND);
+        continue;
+      }
+      int x = 0;
+      while (x < width) {
+        int col = (x + camera.x) / size;
+        if (col >= camera.cols) {
+          Arrays.fill(pixels, rowStart + x, rowStart + width, BACKGROUND);
+          break;
+        }
+        // the block of this tile ends at the next tile border
+        int blockEnd = Math.min(width, (col + 1) * size - camera.x);
+        Arrays.fill(pixels, rowStart + x, rowStart + blockEnd,
+            LodRasterizer.colorOf(game, row, col));
+        x = blockEnd;
+      }
+    }
+  }
+
+  // returns the color of the given tile
+  static int colorOf(LightEmAll game, int row, int col) {
+    if (game.isStation(game.cellId(row, col))) {
+      return STATION;
+    }
+    return game.pieceAt(row, col).powered ? POWERED : UNPOWERED;
+  }
+
+  // returns an image of the whole board that fits in the given size, sampling
+  // one tile per pixel when the board has more tiles than pixels
+  static ComputedPixelImage overview(LightEmAll game, int maxWidth, int maxHeight) {
+    int rows = game.height;
+    int cols = game.width;
+    int size = Math.max(1, Math.min(maxWidth / cols, maxHeight / rows));
+    int stride = Math.max(1, Math.max((cols + maxWidth - 1) / maxWidth,
+        (rows + maxHeight - 1) / maxHeight));
+    int width = size * ((cols + stride - 1) / stride);
+    int height = size * ((rows + stride - 1) / stride);
+
+    ComputedPixelImage image = new ComputedPixelImage(width, height);
+    int[] pixels = LodRasterizer.pixelsOf(image);
+    boolean direct = pixels != null;
+    if (!direct) {
+      pixels = new int[width * height];
+    }
+    int[] out = pixels;
+    IntStream.range(0, height).parallel().forEach(y -> {
+      int row = (y / size) * stride;
+      for (int x = 0; x < width; x++) {
+        out[y * width + x] = LodRasterizer.colorOf(game, row, (x / size) * stride);
+      }
+    });
+    if (!direct) {
+      LodRasterizer.copyInto(image, pixels);
+    }
+    return image;
+  }
+
+  // returns the int array behind the given image, or null if javalib does not
+  // expose it
+  static int[] pixelsOf(ComputedPixelImage image) {
+    try {
+      Field field = ComputedPixelImage.class.getDeclaredField("raster");
+      field.setAccessible(true);
+      WritableRaster raster = (WritableRaster) field.get(image);
+      if (raster.getDataBuffer() instanceof DataBufferInt) {
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
+      }
+      return null;
+    }
+    catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  // EFFECT: copies the given pixels into the image one pixel at a time
+  static void copyInto(ComputedPixelImage image, int[] pixels) {
+    for (int y = 0; y < image.height; y++) {
+      for (int x = 0; x < image.width; x++) {
+        image.setColorAt(x, y, new Color(pixels[y * image.width + x], true));
+      }
+    }
+  }
+}
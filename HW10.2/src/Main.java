@@ -1,9 +1,38 @@
-import java.util.Random;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 public class Main {
-  public static void main(String[] args) {
-    LightEmAll game = new LightEmAll(5, 5, 0, false, new Random());
-    game.bigBang(game.width * WorldConstants.PIECE_SIZE, game.height * WorldConstants.PIECE_SIZE);
+  // java Main [size] [log file]
+  public static void main(String[] args) throws IOException {
+    long start = System.nanoTime();
+    int size = 5;
+    String log = null;
+    for (String arg : args) {
+      if (arg.matches("\\d+")) {
+        size = Integer.parseInt(arg);
+      }
+      else {
+        log = arg;
+      }
+    }
+    // the board is generated on another thread so the window opens at once
+    // and shows how far generation has got
+    BoardLoader loader = new BoardLoader(size, size, 0, System.nanoTime(), start);
+    if (log != null) {
+      // records the session to the given file so ReplayEngine can re-run it
+      loader.record = new FileOutputStream(log);
+    }
+    loader.verbose = true;
+    loader.start();
+    // large boards are shown through a window that pans with w/a/s/d and
+    // zooms with + and -
+    LightEmAll game = new LightEmAll(loader, Math.min(size * WorldConstants.PIECE_SIZE, 1000),
+        Math.min(size * WorldConstants.PIECE_SIZE, 800));
+    // clicks and moves are applied in batches by a 120 Hz simulation, so
+    // bursts cost one power update, and frames that fall behind are skipped
+    game.queue = new InputQueue();
+    game.animation = new TurnAnimation();
+    game.scheduler = new FixedStepScheduler(120, 8, 60);
+    game.bigBang(game.camera.viewWidth, game.camera.viewHeight, 1.0 / 60);
   }
 }
-
@@ -0,0 +1,192 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// Every power station of a board with its radius, and one breadth-first
+// search that powers the board from all of them at once.
+//
+// A station of radius r powers the cells at most r wires away from it; a
+// radius of 0 or less reaches the whole board. The search is level-
+// synchronous by the power left rather than by distance: a station joins the
+// frontier when the level falls to its radius, every level spreads the
+// frontier one wire with one unit less, and each cell is taken by the first
+// station to reach it, which is the one with the most power left there. So
+// every cell is visited once, however many stations there are.
+class PowerStations {
+  // the cell and radius of each station; station 0 is the one the player
+  // moves
+  int[] cells;
+  int[] radii;
+  int count;
+  // the station on each cell, or -1
+  int[] stationAt;
+  // the station powering each cell after propagate, or -1
+  int[] poweredBy;
+  // the powered cells in the order they were reached
+  int[] order;
+  int reached;
+  // the stations by radius, largest first, reused by propagate
+  int[] byRadius;
+
+  PowerStations(int size) {
+    this.cells = new int[4];
+    this.radii = new int[4];
+    this.count = 0;
+    this.stationAt = new int[size];
+    this.poweredBy = new int[size];
+    this.order = new int[size];
+    this.byRadius = new int[4];
+    Arrays.fill(this.stationAt, -1);
+    Arrays.fill(this.poweredBy, -1);
+  }
+
+  // EFFECT: adds a station of the given radius on the given cell
+  // returns its index
+  int add(int cell, int radius) {
+    if (this.stationAt[cell] >= 0) {
+      throw new IllegalArgumentException("cell " + cell + " already has station "
+          + this.stationAt[cell]);
+    }
+    if (this.count == this.cells.length) {
+      this.cells = Arrays.copyOf(this.cells, this.count * 2);
+      this.radii = Arrays.copyOf(this.radii, this.count * 2);
+      this.byRadius = Arrays.copyOf(this.byRadius, this.count * 2);
+    }
+    this.cells[this.count] = cell;
+    this.radii[this.count] = radius;
+    this.stationAt[cell] = this.count;
+    this.count++;
+    return this.count - 1;
+  }
+
+  // EFFECT: moves the given station to the given cell
+  void move(int station, int cell) {
+    if (this.stationAt[cell] >= 0 && this.stationAt[cell] != station) {
+      throw new IllegalArgumentException("cell " + cell + " already has station "
+          + this.stationAt[cell]);
+    }
+    this.stationAt[this.cells[station]] = -1;
+    this.cells[station] = cell;
+    this.stationAt[cell] = station;
+  }
+
+  // returns the station on the given cell, or -1
+  int indexOf(int cell) {
+    return this.stationAt[cell];
+  }
+
+  // returns the power the given station starts with on a board of the given
+  // number of cells
+  int budget(int station, int size) {
+    int radius = this.radii[station];
+    return radius <= 0 || radius > size ? size : radius;
+  }
+
+  // EFFECT: works out which station powers each cell of the given game along
+  // its wires, filling poweredBy and the first reached entries of order
+  // returns the number of powered cells
+  int propagate(LightEmAll game) {
+    Topology topology = game.topology;
+    int size = topology.size();
+    Arrays.fill(this.poweredBy, -1);
+    // insertion sort: there are few stations
+    for (int i = 0; i < this.count; i++) {
+      int station = i;
+      int j = i;
+      while (j > 0 && this.budget(this.byRadius[j - 1], size) < this.budget(station, size)) {
+        this.byRadius[j] = this.byRadius[j - 1];
+        j--;
+      }
+      this.byRadius[j] = station;
+    }
+
+    int next = 0;
+    int head = 0;
+    int tail = 0;
+    int level = this.count == 0 ? 0 : this.budget(this.byRadius[0], size);
+    while (next < this.count || head < tail) {
+      // stations join the frontier when the level falls to their power
+      while (next < this.count && this.budget(this.byRadius[next], size) == level) {
+        int station = this.byRadius[next];
+        int cell = this.cells[station];
+        if (this.poweredBy[cell] < 0) {
+          this.poweredBy[cell] = station;
+          this.order[tail] = cell;
+          tail++;
+        }
+        next++;
+      }
+      if (head == tail) {
+        if (next == this.count) {
+          break;
+        }
+        // nothing is spreading, so skip to the next station's level
+        level = this.budget(this.byRadius[next], size);
+        continue;
+      }
+      if (level == 0) {
+        break;
+      }
+      int end = tail;
+      for (; head < end; head++) {
+        int cell = this.order[head];
+        GamePiece piece = game.pieceAt(cell);
+        for (int dir = 0; dir < topology.directions; dir++) {
+          int other = topology.neighbors[dir][cell];
+          if (other >= 0 && this.poweredBy[other] < 0 && piece.hasWire(dir)
+              && game.pieceAt(other).hasWire(topology.opposite(dir))) {
+            this.poweredBy[other] = this.poweredBy[cell];
+            this.order[tail] = other;
+            tail++;
+          }
+        }
+      }
+      level--;
+    }
+    this.reached = tail;
+    return tail;
+  }
+
+  // powers a solved board from more and more stations, comparing one
+  // multi-source pass with one pass per station: java PowerStations <size>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+    LightEmAll game = new LightEmAll(size, size, 0, false, new Random(1));
+    for (int cell = 0; cell < size * size; cell++) {
+      game.pieceAt(cell).setWires(game.difficulty.masks[cell]);
+    }
+    Random rand = new Random(2);
+    int repeats = 50;
+    PowerStations warmup = new PowerStations(size * size);
+    warmup.add(0, 0);
+    for (int i = 0; i < 20; i++) {
+      warmup.propagate(game);
+    }
+    for (int stations = 1; stations <= 256; stations *= 4) {
+      PowerStations all = new PowerStations(size * size);
+      while (all.count < stations) {
+        int cell = rand.nextInt(size * size);
+        if (all.indexOf(cell) < 0) {
+          all.add(cell, size / 4);
+        }
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < repeats; i++) {
+        all.propagate(game);
+      }
+      double multiMs = (System.nanoTime() - start) / 1e6 / repeats;
+      int reached = all.reached;
+      PowerStations one = new PowerStations(size * size);
+      one.add(all.cells[0], size / 4);
+      start = System.nanoTime();
+      for (int i = 0; i < repeats; i++) {
+        for (int station = 0; station < stations; station++) {
+          one.move(0, all.cells[station]);
+          one.propagate(game);
+        }
+      }
+      double singleMs = (System.nanoTime() - start) / 1e6 / repeats;
+      System.out.printf("%dx%d board, %3d stations: one pass %.2f ms, one pass per station "
+          + "%.2f ms, %d cells powered%n", size, size, stations, multiMs, singleMs, reached);
+    }
+  }
+}
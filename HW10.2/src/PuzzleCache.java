@@ -0,0 +1,363 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// what a generated puzzle depends on: its seed, its size and the weights
+// that chose its spanning tree
+class PuzzleKey {
+  long seed;
+  int width;
+  int height;
+  String generator;
+
+  PuzzleKey(long seed, int width, int height, String generator) {
+    this.seed = seed;
+    this.width = width;
+    this.height = height;
+    this.generator = generator;
+  }
+
+  public boolean equals(Object other) {
+    if (!(other instanceof PuzzleKey)) {
+      return false;
+    }
+    PuzzleKey that = (PuzzleKey) other;
+    return this.seed == that.seed && this.width == that.width && this.height == that.height
+        && this.generator.equals(that.generator);
+  }
+
+  public int hashCode() {
+    return Long.hashCode(this.seed) * 31 * 31 * 31 + this.width * 31 * 31 + this.height * 31
+        + this.generator.hashCode();
+  }
+
+  // returns the name of the file this puzzle is kept in on disk
+  String fileName() {
+    return this.seed + "-" + this.width + "x" + this.height + "-"
+        + this.generator.replaceAll("[^A-Za-z0-9.]", "_") + ".puzzle";
+  }
+}
+
+// A generated puzzle packed into arrays: the scrambled wires of every cell
+// and the spanning tree as (cell, direction, weight) triples in the order
+// Kruskal's algorithm accepted them. It is never changed, so many games can
+// be made from one copy.
+//
+// On disk it is a header (magic, seed, width, height, generator) followed by
+// the wires, one byte per cell, and the number of tree edges with each edge
+// as an int cell, a byte direction and an int weight.
+class CachedPuzzle {
+  static final int MAGIC = 0x4C454D50;
+
+  PuzzleKey key;
+  byte[] wires;
+  int[] treeCells;
+  byte[] treeDirs;
+  int[] treeWeights;
+
+  CachedPuzzle(PuzzleKey key, byte[] wires, int[] treeCells, byte[] treeDirs,
+      int[] treeWeights) {
+    this.key = key;
+    this.wires = wires;
+    this.treeCells = treeCells;
+    this.treeDirs = treeDirs;
+    this.treeWeights = treeWeights;
+  }
+
+  // returns the packed form of the given freshly generated game
+  static CachedPuzzle of(PuzzleKey key, LightEmAll game) {
+    byte[] wires = new byte[game.nodes.size()];
+    for (int cell = 0; cell < wires.length; cell++) {
+      wires[cell] = (byte) game.pieceAt(cell).wireMask();
+    }
+    int edges = game.mst.size();
+    int[] treeCells = new int[edges];
+    byte[] treeDirs = new byte[edges];
+    int[] treeWeights = new int[edges];
+    for (int i = 0; i < edges; i++) {
+      Edge edge = game.mst.get(i);
+      treeCells[i] = game.cellId(edge.fromNode.row, edge.fromNode.col);
+      treeDirs[i] = (byte) edge.dir;
+      treeWeights[i] = edge.weight;
+    }
+    return new CachedPuzzle(key, wires, treeCells, treeDirs, treeWeights);
+  }
+
+  // returns a new game of this puzzle, as generated
+  LightEmAll game() {
+    return new LightEmAll(this);
+  }
+
+  // returns roughly how many bytes this puzzle holds
+  long bytes() {
+    return this.wires.length + this.treeCells.length * 9L + 64;
+  }
+
+  // EFFECT: writes this puzzle to the given stream
+  void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeLong(this.key.seed);
+    data.writeInt(this.key.width);
+    data.writeInt(this.key.height);
+    data.writeUTF(this.key.generator);
+    data.write(this.wires);
+    data.writeInt(this.treeCells.length);
+    for (int i = 0; i < this.treeCells.length; i++) {
+      data.writeInt(this.treeCells[i]);
+      data.writeByte(this.treeDirs[i]);
+      data.writeInt(this.treeWeights[i]);
+    }
+    data.flush();
+  }
+
+  // returns the puzzle in the given stream
+  // throws an IOException if the stream is not a whole cached puzzle
+  static CachedPuzzle read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not a cached puzzle");
+    }
+    long seed = data.readLong();
+    int width = data.readInt();
+    int height = data.readInt();
+    if (width < 1 || height < 1 || (long) width * height > Integer.MAX_VALUE) {
+      throw new IOException("Corrupt cached puzzle: " + width + "x" + height);
+    }
+    PuzzleKey key = new PuzzleKey(seed, width, height, data.readUTF());
+    byte[] wires = new byte[width * height];
+    data.readFully(wires);
+    int edges = data.readInt();
+    if (edges < 0 || edges >= wires.length * 2) {
+      throw new IOException("Corrupt cached puzzle: " + edges + " edges");
+    }
+    int[] treeCells = new int[edges];
+    byte[] treeDirs = new byte[edges];
+    int[] treeWeights = new int[edges];
+    for (int i = 0; i < edges; i++) {
+      treeCells[i] = data.readInt();
+      treeDirs[i] = data.readByte();
+      treeWeights[i] = data.readInt();
+      if (treeCells[i] < 0 || treeCells[i] >= wires.length || treeDirs[i] < 0
+          || treeDirs[i] > 3) {
+        throw new IOException("Corrupt cached puzzle: edge " + i);
+      }
+    }
+    return new CachedPuzzle(key, wires, treeCells, treeDirs, treeWeights);
+  }
+}
+
+// Keeps generated puzzles so asking for the same seed, size and weights again
+// skips generation. Puzzles live in memory in least-recently-used order up to
+// a byte budget; with a directory set, every generated puzzle is also written
+// there and read back when it is no longer in memory.
+//
+// Only the memory tier and the counters are guarded by the cache's lock.
+// Reading from disk and generating happen outside it, one future per key, so
+// a large board being generated holds up only the requests for that board,
+// which wait for it instead of generating it again.
+class PuzzleCache {
+  // the default most bytes of puzzles kept in memory
+  static final long DEFAULT_BUDGET = 64L << 20;
+
+  LinkedHashMap<PuzzleKey, CachedPuzzle> puzzles;
+  // the puzzles being read or generated right now
+  ConcurrentHashMap<PuzzleKey, CompletableFuture<CachedPuzzle>> pending;
+  long budget;
+  long bytes;
+  // the directory of the disk tier, if any
+  File directory;
+
+  long hits;
+  long diskHits;
+  long misses;
+  long evictions;
+  // disk files that could not be read, or held another puzzle
+  long badFiles;
+
+  PuzzleCache() {
+    this(DEFAULT_BUDGET, null);
+  }
+
+  PuzzleCache(long budget, File directory) {
+    this.puzzles = new LinkedHashMap<PuzzleKey, CachedPuzzle>(16, 0.75f, true);
+    this.pending = new ConcurrentHashMap<PuzzleKey, CompletableFuture<CachedPuzzle>>();
+    this.budget = budget;
+    this.directory = directory;
+  }
+
+  // returns a new game of the puzzle with the given seed and size, generated
+  // with uniform weights like ReplayEngine.newGame
+  LightEmAll game(long seed, int width, int height) {
+    return this.game(seed, width, height, new UniformWeights());
+  }
+
+  // returns a new game of the puzzle with the given seed, size and weights,
+  // generating it only if it is not cached
+  LightEmAll game(long seed, int width, int height, EdgeWeights weights) {
+    return this.puzzle(seed, width, height, weights).game();
+  }
+
+  // returns the puzzle with the given seed, size and weights, from memory,
+  // from disk, or generated, in that order
+  CachedPuzzle puzzle(long seed, int width, int height, EdgeWeights weights) {
+    PuzzleKey key = new PuzzleKey(seed, width, height, weights.name());
+    CachedPuzzle puzzle = this.remembered(key);
+    if (puzzle != null) {
+      return puzzle;
+    }
+    CompletableFuture<CachedPuzzle> mine = new CompletableFuture<CachedPuzzle>();
+    CompletableFuture<CachedPuzzle> future = this.pending.putIfAbsent(key, mine);
+    if (future != null) {
+      // another request is already getting it
+      puzzle = future.join();
+      synchronized (this) {
+        this.hits++;
+      }
+      return puzzle;
+    }
+    try {
+      // it may have been kept between the look in memory and putIfAbsent
+      puzzle = this.remembered(key);
+      if (puzzle == null) {
+        puzzle = this.load(key);
+        if (puzzle == null) {
+          puzzle = CachedPuzzle.of(key, new LightEmAll(width, height, 0, new Random(seed),
+              weights));
+          this.store(puzzle);
+        }
+        synchronized (this) {
+          if (this.puzzles.containsKey(key)) {
+            this.hits++;
+          }
+          else {
+            this.keep(puzzle);
+          }
+        }
+      }
+      mine.complete(puzzle);
+      return puzzle;
+    }
+    catch (RuntimeException e) {
+      mine.completeExceptionally(e);
+      throw e;
+    }
+    finally {
+      this.pending.remove(key, mine);
+    }
+  }
+
+  // returns the puzzle with the given key if it is in memory, or null
+  // EFFECT: counts a hit if it is
+  synchronized CachedPuzzle remembered(PuzzleKey key) {
+    CachedPuzzle puzzle = this.puzzles.get(key);
+    if (puzzle != null) {
+      this.hits++;
+    }
+    return puzzle;
+  }
+
+  // EFFECT: puts the given puzzle in memory, dropping the least recently used
+  // ones until the rest fit the budget
+  void keep(CachedPuzzle puzzle) {
+    this.puzzles.put(puzzle.key, puzzle);
+    this.bytes += puzzle.bytes();
+    while (this.bytes > this.budget && this.puzzles.size() > 1) {
+      Map.Entry<PuzzleKey, CachedPuzzle> eldest = this.puzzles.entrySet().iterator().next();
+      this.puzzles.remove(eldest.getKey());
+      this.bytes -= eldest.getValue().bytes();
+      this.evictions++;
+    }
+  }
+
+  // returns the puzzle with the given key from the disk tier, or null if it
+  // is not there, cannot be read, or the file holds another puzzle
+  // EFFECT: counts the lookup as a disk hit or a miss
+  CachedPuzzle load(PuzzleKey key) {
+    CachedPuzzle puzzle = null;
+    boolean bad = false;
+    File file = this.directory == null ? null : new File(this.directory, key.fileName());
+    if (file != null && file.exists()) {
+      try (FileInputStream in = new FileInputStream(file)) {
+        puzzle = CachedPuzzle.read(in);
+      }
+      catch (IOException e) {
+        bad = true;
+      }
+      // two keys can share a file name once the generator name is cleaned up
+      if (puzzle != null && !puzzle.key.equals(key)) {
+        puzzle = null;
+        bad = true;
+      }
+    }
+    synchronized (this) {
+      if (puzzle != null) {
+        this.diskHits++;
+      }
+      else {
+        this.misses++;
+      }
+      if (bad) {
+        this.badFiles++;
+      }
+    }
+    return puzzle;
+  }
+
+  // EFFECT: writes the given puzzle to the disk tier, if there is one
+  void store(CachedPuzzle puzzle) {
+    if (this.directory == null) {
+      return;
+    }
+    this.directory.mkdirs();
+    try (FileOutputStream out = new FileOutputStream(new File(this.directory,
+        puzzle.key.fileName()))) {
+      puzzle.write(out);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public synchronized String toString() {
+    return String.format("%d puzzles, %d bytes: %d hits, %d disk hits, %d misses, "
+        + "%d evictions%s", this.puzzles.size(), this.bytes, this.hits, this.diskHits,
+        this.misses, this.evictions, this.badFiles > 0 ? ", " + this.badFiles + " bad files"
+            : "");
+  }
+
+  // asks for a few featured puzzles over and over, comparing the time of a
+  // cached game with generating it: java PuzzleCache <size> <puzzles> <requests>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int featured = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    int requests = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+    PuzzleCache cache = new PuzzleCache();
+    Random rand = new Random(1);
+    long start = System.nanoTime();
+    for (int i = 0; i < requests; i++) {
+      cache.game(rand.nextInt(featured), size, size);
+    }
+    double cachedMs = (System.nanoTime() - start) / 1e6 / requests;
+    start = System.nanoTime();
+    for (int i = 0; i < featured; i++) {
+      ReplayEngine.newGame(i, size, size, 0);
+    }
+    double generatedMs = (System.nanoTime() - start) / 1e6 / featured;
+    System.out.printf("%dx%d boards: %.2f ms per request through the cache, %.2f ms to "
+        + "generate%n%s%n", size, size, cachedMs, generatedMs, cache);
+  }
+}
@@ -0,0 +1,146 @@
+import java.util.Random;
+
+// A history of rotations for undo and redo. Each entry is one int, the cell
+// id shifted left by two with the number of clockwise quarter turns (1 to 3)
+// in the low bits, kept in a ring buffer that doubles until it reaches its
+// limit and then drops the oldest entries.
+class RotationJournal {
+  // the default most entries kept
+  static final int DEFAULT_LIMIT = 1 << 20;
+
+  int[] entries;
+  // the index of the oldest entry
+  int start;
+  // the number of entries stored, including undone ones that can be redone
+  int size;
+  // the number of entries that are applied; entries after it can be redone
+  int applied;
+  int limit;
+
+  RotationJournal() {
+    this(DEFAULT_LIMIT);
+  }
+
+  RotationJournal(int limit) {
+    this.limit = Math.max(1, limit);
+    this.entries = new int[Math.min(16, this.limit)];
+    this.start = 0;
+    this.size = 0;
+    this.applied = 0;
+  }
+
+  // returns the entry for the given cell and turns
+  static int encode(int cell, int turns) {
+    return (cell << 2) | (turns & 3);
+  }
+
+  // returns the cell of the given entry
+  static int cellOf(int entry) {
+    return entry >>> 2;
+  }
+
+  // returns the quarter turns of the given entry
+  static int turnsOf(int entry) {
+    return entry & 3;
+  }
+
+  // EFFECT: records the given turns of the given cell as the newest entry,
+  // forgetting anything that could have been redone
+  void record(int cell, int turns) {
+    if ((turns & 3) == 0) {
+      return;
+    }
+    this.size = this.applied;
+    if (this.size == this.entries.length) {
+      if (this.entries.length < this.limit) {
+        this.grow();
+      }
+      else {
+        // full: the oldest entry falls off the end
+        this.start = (this.start + 1) % this.entries.length;
+        this.size--;
+      }
+    }
+    this.entries[(this.start + this.size) % this.entries.length] = encode(cell, turns);
+    this.size++;
+    this.applied = this.size;
+  }
+
+  // EFFECT: doubles the buffer, up to the limit, keeping the entries in order
+  void grow() {
+    int[] bigger = new int[Math.min(this.limit, this.entries.length * 2)];
+    for (int i = 0; i < this.size; i++) {
+      bigger[i] = this.entries[(this.start + i) % this.entries.length];
+    }
+    this.entries = bigger;
+    this.start = 0;
+  }
+
+  // returns true if there is an entry to undo
+  boolean canUndo() {
+    return this.applied > 0;
+  }
+
+  // returns true if there is an entry to redo
+  boolean canRedo() {
+    return this.applied < this.size;
+  }
+
+  // EFFECT: steps back over the newest applied entry
+  // returns that entry
+  int undo() {
+    if (!this.canUndo()) {
+      throw new IllegalStateException("nothing to undo");
+    }
+    this.applied--;
+    return this.entries[(this.start + this.applied) % this.entries.length];
+  }
+
+  // EFFECT: steps forward over the next undone entry
+  // returns that entry
+  int redo() {
+    if (!this.canRedo()) {
+      throw new IllegalStateException("nothing to redo");
+    }
+    int entry = this.entries[(this.start + this.applied) % this.entries.length];
+    this.applied++;
+    return entry;
+  }
+
+  // EFFECT: forgets every entry
+  void clear() {
+    this.start = 0;
+    this.size = 0;
+    this.applied = 0;
+  }
+
+  // plays random clicks on a board, then undoes and redoes all of them,
+  // reporting moves per millisecond: java RotationJournal <size> <moves>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int moves = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    LightEmAll game = new LightEmAll(size, size, 0, false, new Random(1));
+    Random rand = new Random(2);
+    for (int i = 0; i < moves; i++) {
+      game.rotateCell(rand.nextInt(size * size), 1);
+    }
+    long before = ReplayEngine.checksum(game);
+
+    long start = System.nanoTime();
+    int undone = 0;
+    while (game.undo()) {
+      undone++;
+    }
+    double undoMs = (System.nanoTime() - start) / 1e6;
+    start = System.nanoTime();
+    int redone = 0;
+    while (game.redo()) {
+      redone++;
+    }
+    double redoMs = (System.nanoTime() - start) / 1e6;
+    System.out.printf("%dx%d board, %d moves: undo %.0f moves/ms, redo %.0f moves/ms, "
+        + "%d full power updates, same board after redo: %b%n", size, size, undone,
+        undone / undoMs, redone / redoMs, game.fullPowerUpdates,
+        ReplayEngine.checksum(game) == before);
+  }
+}
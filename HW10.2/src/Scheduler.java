@@ -0,0 +1,191 @@
+import java.util.Random;
+
+import javalib.impworld.WorldScene;
+import javalib.worldimages.Posn;
+
+// Runs the simulation at a fixed rate and rendering at whatever rate it can
+// keep up with. Each tick adds the real time since the last one to an
+// accumulator and runs one simulation step per full step of it, up to a cap
+// so a long stall cannot snowball. A frame that takes longer than its budget
+// puts rendering in debt, and the frames after it are skipped, reusing the
+// last scene, until the debt is paid; input keeps being applied meanwhile.
+class FixedStepScheduler {
+  long stepNanos;
+  int maxStepsPerTick;
+  long frameBudgetNanos;
+
+  // the time of the last tick, or -1 before the first
+  long lastNanos;
+  // the real time not yet simulated
+  long accumulator;
+  // how far rendering is behind its budget
+  long renderDebt;
+  // the scene to show again when a frame is skipped
+  WorldScene lastScene;
+
+  // simulation counters
+  long ticks;
+  long steps;
+  long droppedSteps;
+  long simulationNanos;
+  long maxStepNanos;
+  // rendering counters
+  long frames;
+  long skippedFrames;
+  long renderNanos;
+  long maxRenderNanos;
+
+  FixedStepScheduler(double stepsPerSecond, int maxStepsPerTick, double framesPerSecond) {
+    this.stepNanos = (long) (1e9 / stepsPerSecond);
+    this.maxStepsPerTick = Math.max(1, maxStepsPerTick);
+    this.frameBudgetNanos = (long) (1e9 / framesPerSecond);
+    this.lastNanos = -1;
+  }
+
+  // returns the number of simulation steps due at the given time
+  // EFFECT: takes them out of the accumulator, dropping any past the cap
+  int stepsDue(long now) {
+    this.ticks++;
+    if (this.lastNanos < 0) {
+      this.lastNanos = now;
+      return 1;
+    }
+    this.accumulator += now - this.lastNanos;
+    this.lastNanos = now;
+    long due = this.accumulator / this.stepNanos;
+    this.accumulator -= due * this.stepNanos;
+    if (due > this.maxStepsPerTick) {
+      this.droppedSteps += due - this.maxStepsPerTick;
+      due = this.maxStepsPerTick;
+    }
+    return (int) due;
+  }
+
+  // EFFECT: counts a simulation step that took the given time
+  void stepped(long nanos) {
+    this.steps++;
+    this.simulationNanos += nanos;
+    this.maxStepNanos = Math.max(this.maxStepNanos, nanos);
+  }
+
+  // returns true if the next frame should be drawn, false if it should be
+  // skipped to pay off rendering debt
+  // EFFECT: pays one frame budget off the debt when skipping
+  boolean shouldRender() {
+    if (this.renderDebt > 0 && this.lastScene != null) {
+      this.renderDebt = Math.max(0, this.renderDebt - this.frameBudgetNanos);
+      this.skippedFrames++;
+      return false;
+    }
+    return true;
+  }
+
+  // EFFECT: counts a frame that took the given time to draw the given scene,
+  // adding any time past the budget to the debt
+  void rendered(WorldScene scene, long nanos) {
+    this.lastScene = scene;
+    this.frames++;
+    this.renderNanos += nanos;
+    this.maxRenderNanos = Math.max(this.maxRenderNanos, nanos);
+    this.renderDebt += Math.max(0, nanos - this.frameBudgetNanos);
+  }
+
+  // returns a line with the timings of both loops
+  String report() {
+    return String.format("simulation: %d steps in %d ticks, %d dropped, %.3f ms mean, "
+        + "%.3f ms max; rendering: %d frames, %d skipped, %.3f ms mean, %.3f ms max",
+        this.steps, this.ticks, this.droppedSteps,
+        this.steps == 0 ? 0 : this.simulationNanos / 1e6 / this.steps, this.maxStepNanos / 1e6,
+        this.frames, this.skippedFrames,
+        this.frames == 0 ? 0 : this.renderNanos / 1e6 / this.frames, this.maxRenderNanos / 1e6);
+  }
+
+  // plays a large board with bursts of clicks every tick, with and without
+  // frame skipping, and reports both loops: java FixedStepScheduler <size> <ticks>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+    for (boolean skipping : new boolean[] { false, true }) {
+      LightEmAll game = new LightEmAll(size, size, 0, false, new Random(1));
+      // the whole board fits the window, so every frame draws every cell
+      game.camera.resize(1000, 800);
+      game.camera.zoom = 800.0 / (size * WorldConstants.PIECE_SIZE);
+      game.queue = new InputQueue();
+      game.animation = new TurnAnimation();
+      game.scheduler = new FixedStepScheduler(120, 8, 60);
+      if (!skipping) {
+        // a budget no frame exceeds never skips
+        game.scheduler.frameBudgetNanos = Long.MAX_VALUE / 2;
+      }
+      Random rand = new Random(2);
+      long start = System.nanoTime();
+      for (int i = 0; i < ticks; i++) {
+        for (int j = 0; j < 8; j++) {
+          game.onMouseClicked(new Posn(rand.nextInt(1000), rand.nextInt(800)), "LeftButton");
+        }
+        game.onTick();
+        game.makeScene();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%dx%d board, frame skipping %b: %.1f ticks/s%n  %s%n", size, size,
+          skipping, ticks / seconds, game.scheduler.report());
+    }
+  }
+}
+
+// The quarter turns each cell still has to show on screen. A click turns the
+// piece at once and adds 90 degrees here; every simulation step takes a few
+// degrees off, and the tile is drawn turned back by what is left. Only the
+// cells still moving are visited.
+class TurnAnimation {
+  // how many simulation steps a quarter turn takes to show
+  static final int STEPS_PER_TURN = 10;
+
+  // the degrees left for each cell
+  int[] degrees;
+  // the cells with degrees left
+  int[] active;
+  int activeCount;
+
+  TurnAnimation() {
+    this.degrees = new int[0];
+    this.active = new int[0];
+    this.activeCount = 0;
+  }
+
+  // EFFECT: adds the given quarter turns of the given cell of a board of the
+  // given number of cells, showing at most three turns at once
+  void turned(int cell, int turns, int cells) {
+    if (this.degrees.length < cells) {
+      this.degrees = java.util.Arrays.copyOf(this.degrees, cells);
+      this.active = java.util.Arrays.copyOf(this.active, cells);
+    }
+    if (this.degrees[cell] == 0) {
+      this.active[this.activeCount] = cell;
+      this.activeCount++;
+    }
+    this.degrees[cell] = Math.min(270, this.degrees[cell] + 90 * (turns % 4));
+    if (this.degrees[cell] == 0) {
+      this.activeCount--;
+    }
+  }
+
+  // returns the degrees the given cell still has to turn
+  int degreesLeft(int cell) {
+    return cell < this.degrees.length ? this.degrees[cell] : 0;
+  }
+
+  // EFFECT: moves every turning cell one step on, forgetting the ones done
+  void step() {
+    int kept = 0;
+    for (int i = 0; i < this.activeCount; i++) {
+      int cell = this.active[i];
+      this.degrees[cell] = Math.max(0, this.degrees[cell] - 90 / STEPS_PER_TURN);
+      if (this.degrees[cell] > 0) {
+        this.active[kept] = cell;
+        kept++;
+      }
+    }
+    this.activeCount = kept;
+  }
+}
@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+// Scores a player against the fewest clicks that solve the board. Each cell
+// needs the smallest number of clockwise quarter turns that brings its wires
+// to the generated solution; comparing masks handles symmetric pieces, so a
+// straight wire never needs more than one click and a cross needs none. The
+// per-cell counts and their total are updated on every turn, so reading the
+// score costs nothing however big the board is.
+class MoveScore {
+  // the solved wires of every cell
+  int[] solution;
+  // the turns each cell still needs
+  byte[] needed;
+  // the sum of needed
+  long remaining;
+  // the fewest clicks that solved the board when scoring started
+  long par;
+  // the clicks the player has made
+  long clicks;
+
+  MoveScore(int[] solution, ArrayList<GamePiece> pieces) {
+    this.solution = solution;
+    this.needed = new byte[solution.length];
+    this.reset(pieces);
+    this.par = this.remaining;
+  }
+
+  // returns the fewest clockwise quarter turns that take the wires of the
+  // given mask to the given solution, or -1 if no turn does
+  static int turnsToMatch(int mask, int solution) {
+    for (int turns = 0; turns < 4; turns++) {
+      if (mask == solution) {
+        return turns;
+      }
+      mask = ((mask << 1) | (mask >> 3)) & 15;
+    }
+    return -1;
+  }
+
+  // EFFECT: counts the turns every cell needs from scratch
+  void reset(ArrayList<GamePiece> pieces) {
+    this.remaining = 0;
+    for (int cell = 0; cell < this.solution.length; cell++) {
+      int turns = MoveScore.turnsToMatch(pieces.get(cell).wireMask(), this.solution[cell]);
+      if (turns < 0) {
+        throw new IllegalArgumentException("cell " + cell + " cannot be turned to its solution");
+      }
+      this.needed[cell] = (byte) turns;
+      this.remaining += turns;
+    }
+  }
+
+  // EFFECT: updates the count of the given cell after its wires became the
+  // given mask
+  void turned(int cell, int mask) {
+    int turns = MoveScore.turnsToMatch(mask, this.solution[cell]);
+    this.remaining += turns - this.needed[cell];
+    this.needed[cell] = (byte) turns;
+  }
+
+  // EFFECT: counts the given number of clicks by the player
+  void clicked(int turns) {
+    this.clicks += turns;
+  }
+
+  // returns how close the player is to the optimum, from 0 to 1: par divided
+  // by the clicks made plus the clicks still needed
+  double efficiency() {
+    long total = this.clicks + this.remaining;
+    return total == 0 ? 1.0 : (double) this.par / total;
+  }
+
+  // scores random clicks on a large board, comparing the time of keeping the
+  // score up to date with counting it from scratch:
+  // java MoveScore <size> <clicks>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+    int clicks = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    LightEmAll game = new LightEmAll(size, size, 0, false, new Random(1));
+    MoveScore score = game.score;
+    Random rand = new Random(2);
+    long start = System.nanoTime();
+    for (int i = 0; i < clicks; i++) {
+      int cell = rand.nextInt(size * size);
+      GamePiece piece = game.pieceAt(cell);
+      piece.rotate();
+      score.turned(cell, piece.wireMask());
+    }
+    double incremental = (System.nanoTime() - start) / 1e3 / clicks;
+    long kept = score.remaining;
+    start = System.nanoTime();
+    score.reset(game.nodes);
+    double full = (System.nanoTime() - start) / 1e3;
+    System.out.printf("%dx%d board, par %d: %.3f us per click incrementally, %.0f us to recount, "
+        + "same total: %b%n", size, size, score.par, incremental, full, kept == score.remaining);
+  }
+}
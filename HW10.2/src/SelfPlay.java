@@ -0,0 +1,290 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javalib.worldimages.Posn;
+
+// chooses which cell an automated player clicks next
+interface Policy {
+  // returns the id of the cell to click on the given game
+  int choose(LightEmAll game, Random rand);
+
+  // returns the name of this policy
+  String name();
+}
+
+// clicks any cell
+class RandomPolicy implements Policy {
+  public int choose(LightEmAll game, Random rand) {
+    return rand.nextInt(game.nodes.size());
+  }
+
+  public String name() {
+    return "random";
+  }
+}
+
+// tries every turn of every powered cell and every unpowered cell next to
+// one, and clicks the cell that powers the most new cells per click, falling
+// back to a random one of those cells when no turn helps
+class GreedyPolicy implements Policy {
+  public int choose(LightEmAll game, Random rand) {
+    ArrayList<Integer> candidates = GreedyPolicy.frontier(game);
+    for (int cell = 0; cell < game.nodes.size(); cell++) {
+      if (game.pieceAt(cell).powered) {
+        candidates.add(cell);
+      }
+    }
+    // the turns are tried on a copy of the wires, so the game is not turned,
+    // scored, animated or sent to players while the policy looks ahead
+    int[] masks = new int[game.nodes.size()];
+    for (int cell = 0; cell < masks.length; cell++) {
+      masks[cell] = game.pieceAt(cell).wireMask();
+    }
+    int[] sources = GreedyPolicy.sources(game);
+    int best = -1;
+    double bestGain = 0;
+    int powered = GreedyPolicy.powered(game.topology, masks, sources);
+    for (int cell : candidates) {
+      int mask = masks[cell];
+      for (int turns = 1; turns < 4; turns++) {
+        // one clockwise quarter turn, as GamePiece.rotate does
+        masks[cell] = ((masks[cell] << 1) | (masks[cell] >> 3)) & 15;
+        double gain = (GreedyPolicy.powered(game.topology, masks, sources) - powered)
+            / (double) turns;
+        if (gain > bestGain) {
+          bestGain = gain;
+          best = cell;
+        }
+      }
+      masks[cell] = mask;
+    }
+    if (best < 0) {
+      return candidates.get(rand.nextInt(candidates.size()));
+    }
+    return best;
+  }
+
+  // returns the cells of the given game's stations
+  static int[] sources(LightEmAll game) {
+    if (game.stations == null) {
+      return new int[] { game.cellId(game.powerRow, game.powerCol) };
+    }
+    return Arrays.copyOf(game.stations.cells, game.stations.count);
+  }
+
+  // returns the number of cells the given wires join to any of the given
+  // stations, however far away they are
+  static int powered(Topology topology, int[] masks, int[] sources) {
+    if (sources.length == 1) {
+      return topology.reachable(masks, sources[0]).length;
+    }
+    boolean[] seen = new boolean[masks.length];
+    int count = 0;
+    for (int source : sources) {
+      for (int cell : topology.reachable(masks, source)) {
+        if (!seen[cell]) {
+          seen[cell] = true;
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  // returns the unpowered cells that have a powered neighbor
+  static ArrayList<Integer> frontier(LightEmAll game) {
+    ArrayList<Integer> cells = new ArrayList<Integer>();
+    Topology topology = game.topology;
+    for (int cell = 0; cell < topology.size(); cell++) {
+      if (game.pieceAt(cell).powered) {
+        continue;
+      }
+      for (int dir = 0; dir < topology.directions; dir++) {
+        int other = topology.neighbors[dir][cell];
+        if (other >= 0 && game.pieceAt(other).powered) {
+          cells.add(cell);
+          break;
+        }
+      }
+    }
+    return cells;
+  }
+
+  public String name() {
+    return "greedy";
+  }
+}
+
+// knows the generated solution and clicks the first cell that differs from it
+class SolverPolicy implements Policy {
+  public int choose(LightEmAll game, Random rand) {
+    for (int cell = 0; cell < game.nodes.size(); cell++) {
+      if (game.pieceAt(cell).wireMask() != game.difficulty.masks[cell]) {
+        return cell;
+      }
+    }
+    return rand.nextInt(game.nodes.size());
+  }
+
+  public String name() {
+    return "solver";
+  }
+}
+
+// knows the generated solution and clicks the wrong tile that would power
+// the most cells again if it alone were turned right
+class CriticalPolicy implements Policy {
+  public int choose(LightEmAll game, Random rand) {
+    int cell = game.critical.top();
+    return cell >= 0 ? cell : rand.nextInt(game.nodes.size());
+  }
+
+  public String name() {
+    return "critical";
+  }
+}
+
+// the outcome of a batch of self-played games
+class SelfPlayReport {
+  String policy;
+  int threads;
+  // the clicks of each game, in seed order
+  int[] moves;
+  boolean[] won;
+  double seconds;
+
+  SelfPlayReport(String policy, int threads, int[] moves, boolean[] won, double seconds) {
+    this.policy = policy;
+    this.threads = threads;
+    this.moves = moves;
+    this.won = won;
+    this.seconds = seconds;
+  }
+
+  // returns the number of games won
+  int wins() {
+    int wins = 0;
+    for (boolean w : this.won) {
+      if (w) {
+        wins++;
+      }
+    }
+    return wins;
+  }
+
+  // returns the median number of clicks of the games that were won, or -1 if
+  // none were
+  int medianMovesToWin() {
+    int[] winning = new int[this.wins()];
+    int i = 0;
+    for (int game = 0; game < this.moves.length; game++) {
+      if (this.won[game]) {
+        winning[i] = this.moves[game];
+        i++;
+      }
+    }
+    if (winning.length == 0) {
+      return -1;
+    }
+    Arrays.sort(winning);
+    return winning[winning.length / 2];
+  }
+
+  // returns the clicks handled per second over all games
+  double clicksPerSecond() {
+    long total = 0;
+    for (int m : this.moves) {
+      total += m;
+    }
+    return total / this.seconds;
+  }
+
+  public String toString() {
+    return String.format("%-7s %2d threads: %d/%d won, median %d clicks to win, "
+        + "%.0f clicks/s, %.2f s", this.policy, this.threads, this.wins(), this.moves.length,
+        this.medianMovesToWin(), this.clicksPerSecond(), this.seconds);
+  }
+}
+
+// plays many seeded boards with a policy on a pool of threads, clicking
+// through onMouseClicked like a player would
+class SelfPlay {
+  int games;
+  int size;
+  int maxMoves;
+  long seed;
+
+  SelfPlay(int games, int size, int maxMoves, long seed) {
+    this.games = games;
+    this.size = size;
+    this.maxMoves = maxMoves;
+    this.seed = seed;
+  }
+
+  // returns the number of clicks the given policy needed to win the given
+  // game, or maxMoves if it gave up
+  int play(LightEmAll game, Policy policy, Random rand) {
+    int moves = 0;
+    while (!game.gameOver && moves < this.maxMoves) {
+      int cell = policy.choose(game, rand);
+      Posn center = game.camera.center(game.topology.rowOf(cell), game.topology.colOf(cell));
+      game.onMouseClicked(center, "LeftButton");
+      moves++;
+    }
+    return moves;
+  }
+
+  // returns the results of playing every game with the given policy on the
+  // given number of threads; each game has its own seed, so the results do
+  // not depend on the number of threads
+  SelfPlayReport run(Policy policy, int threads) {
+    int[] moves = new int[this.games];
+    boolean[] won = new boolean[this.games];
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    try {
+      ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+      for (int i = 0; i < this.games; i++) {
+        int index = i;
+        results.add(pool.submit(() -> {
+          LightEmAll game = new LightEmAll(this.size, this.size, 0, false,
+              new Random(this.seed + index));
+          moves[index] = this.play(game, policy, new Random(~(this.seed + index)));
+          won[index] = game.gameOver;
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    }
+    catch (Exception e) {
+      throw new IllegalStateException("self-play failed", e);
+    }
+    finally {
+      pool.shutdown();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    return new SelfPlayReport(policy.name(), threads, moves, won, seconds);
+  }
+
+  // plays every policy on 1, 2, 4, ... threads up to the number of cores:
+  // java SelfPlay <games> <size> <maxMoves>
+  public static void main(String[] args) {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    int maxMoves = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+    SelfPlay selfPlay = new SelfPlay(games, size, maxMoves, 1);
+    Policy[] policies = { new RandomPolicy(), new GreedyPolicy(), new SolverPolicy(),
+        new CriticalPolicy() };
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (Policy policy : policies) {
+      for (int threads = 1; threads <= cores; threads *= 2) {
+        System.out.println(selfPlay.run(policy, threads));
+      }
+    }
+  }
+}
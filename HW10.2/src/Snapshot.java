@@ -0,0 +1,200 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+// The wire masks of a board split into fixed-size chunks that forks share
+// until one of them writes. Forking copies only the array of chunk
+// references; the first write to a shared chunk copies that chunk alone.
+class CowBoard {
+  // each chunk holds 1 << CHUNK_BITS cells
+  static final int CHUNK_BITS = 12;
+  static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  int size;
+  byte[][] chunks;
+  // whether this board is the only one holding each chunk, so it may write
+  // to it in place
+  boolean[] owned;
+  // how many chunks this board has copied on write
+  int copiedChunks;
+
+  CowBoard(int size) {
+    this.size = size;
+    int count = (size + CHUNK_MASK) >> CHUNK_BITS;
+    this.chunks = new byte[count][];
+    this.owned = new boolean[count];
+    for (int i = 0; i < count; i++) {
+      this.chunks[i] = new byte[CHUNK_SIZE];
+      this.owned[i] = true;
+    }
+  }
+
+  CowBoard(CowBoard parent) {
+    this.size = parent.size;
+    this.chunks = parent.chunks.clone();
+    this.owned = new boolean[this.chunks.length];
+  }
+
+  // returns the value of the given cell
+  int get(int cell) {
+    return this.chunks[cell >> CHUNK_BITS][cell & CHUNK_MASK];
+  }
+
+  // EFFECT: stores the given value for the given cell, first copying its
+  // chunk if it is shared
+  void set(int cell, int value) {
+    int chunk = cell >> CHUNK_BITS;
+    if (!this.owned[chunk]) {
+      this.chunks[chunk] = this.chunks[chunk].clone();
+      this.owned[chunk] = true;
+      this.copiedChunks++;
+    }
+    this.chunks[chunk][cell & CHUNK_MASK] = (byte) value;
+  }
+
+  // returns a board that shares every chunk with this one
+  // EFFECT: this board gives up writing to its chunks in place, since the
+  // fork now holds them too
+  CowBoard fork() {
+    java.util.Arrays.fill(this.owned, false);
+    return new CowBoard(this);
+  }
+}
+
+// A headless game position: the wires of every cell in a copy-on-write
+// board, the board's topology and the station. Power is worked out when
+// asked rather than stored, so reading it never copies chunks.
+class GameState {
+  Topology topology;
+  CowBoard wires;
+  int station;
+
+  GameState(Topology topology, CowBoard wires, int station) {
+    this.topology = topology;
+    this.wires = wires;
+    this.station = station;
+  }
+
+  // returns the state of the given packed board with the station at the
+  // given cell
+  static GameState of(PackedBoard board, int station) {
+    CowBoard wires = new CowBoard(board.size());
+    for (int cell = 0; cell < board.size(); cell++) {
+      wires.set(cell, board.wires(cell));
+    }
+    return new GameState(board.topology, wires, station);
+  }
+
+  // returns a copy of this state that can be changed without changing this
+  GameState fork() {
+    return new GameState(this.topology, this.wires.fork(), this.station);
+  }
+
+  // returns the number of cells
+  int size() {
+    return this.wires.size;
+  }
+
+  // returns the wires of the given cell
+  int wires(int cell) {
+    return this.wires.get(cell);
+  }
+
+  // EFFECT: rotates the given cell the given number of steps clockwise
+  void rotate(int cell, int turns) {
+    int dirs = this.topology.directions;
+    int all = (1 << dirs) - 1;
+    int mask = this.wires.get(cell);
+    for (int i = 0; i < turns % dirs; i++) {
+      mask = ((mask << 1) | (mask >> (dirs - 1))) & all;
+    }
+    this.wires.set(cell, mask);
+  }
+
+  // returns true if the given cell has a wire in the given direction that
+  // meets a wire of its neighbor
+  boolean joined(int cell, int dir) {
+    int other = this.topology.neighbors[dir][cell];
+    return other >= 0 && (this.wires.get(cell) & (1 << dir)) != 0
+        && (this.wires.get(other) & (1 << this.topology.opposite(dir))) != 0;
+  }
+
+  // returns which cells the station powers
+  boolean[] powered() {
+    boolean[] seen = new boolean[this.size()];
+    int[] queue = new int[this.size()];
+    int tail = 1;
+    queue[0] = this.station;
+    seen[this.station] = true;
+    for (int head = 0; head < tail; head++) {
+      int cell = queue[head];
+      for (int dir = 0; dir < this.topology.directions; dir++) {
+        int other = this.topology.neighbors[dir][cell];
+        if (other >= 0 && !seen[other] && this.joined(cell, dir)) {
+          seen[other] = true;
+          queue[tail] = other;
+          tail++;
+        }
+      }
+    }
+    return seen;
+  }
+
+  // returns the number of cells the station powers
+  int poweredCount() {
+    int count = 0;
+    for (boolean on : this.powered()) {
+      if (on) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // returns true if the station powers every cell
+  boolean solved() {
+    return this.poweredCount() == this.size();
+  }
+
+  // forks a 1M-cell state many times, changing a few cells of each fork, and
+  // compares that with copying the whole board:
+  // java GameState <size> <forks> <movesPerFork>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+    int forks = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    int moves = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    PackedBoard board = new PackedBoard(size, size);
+    new KruskalGenerator().generate(board, new Random(1));
+    board.scramble(new Random(2));
+    GameState root = GameState.of(board, 0);
+    Random rand = new Random(3);
+
+    ArrayList<GameState> kept = new ArrayList<GameState>();
+    long start = System.nanoTime();
+    for (int i = 0; i < forks; i++) {
+      GameState fork = root.fork();
+      for (int j = 0; j < moves; j++) {
+        fork.rotate(rand.nextInt(root.size()), 1);
+      }
+      if (i < 100) {
+        kept.add(fork);
+      }
+    }
+    double forkUs = (System.nanoTime() - start) / 1e3 / forks;
+
+    long copied = 0;
+    for (GameState fork : kept) {
+      copied += fork.wires.copiedChunks;
+    }
+    start = System.nanoTime();
+    for (int i = 0; i < 100; i++) {
+      board.cells.clone()[rand.nextInt(root.size())] ^= 1;
+    }
+    double copyUs = (System.nanoTime() - start) / 1e3 / 100;
+    System.out.printf("%dx%d board in %d chunks of %d cells%n", size, size,
+        root.wires.chunks.length, CowBoard.CHUNK_SIZE);
+    System.out.printf("fork + %d moves: %.2f us, %.1f chunks copied per fork%n", moves, forkUs,
+        copied / (double) kept.size());
+    System.out.printf("full byte[] copy: %.2f us%n", copyUs);
+  }
+}
@@ -0,0 +1,206 @@
+import java.util.Random;
+
+// The generated spanning tree as plain int arrays, rooted at the power
+// station: the parent of every cell, the size of the subtree under it, and
+// its depth. In the solved board a wrong tile cuts off exactly its subtree,
+// and the wire from the station to a cell is the chain of parents, so both
+// questions take at most one walk up the tree and allocate nothing.
+//
+// Moving the root flips the parents along the path between the old and the
+// new root; only the sizes on that path change, so moving the station one
+// cell is O(1). Depths are cached per root and refilled lazily after a move.
+class SolutionTree {
+  Topology topology;
+  int root;
+  // parent[cell] is the next cell towards the root, or -1 for the root and
+  // for cells the tree does not reach
+  int[] parent;
+  // the number of cells in the subtree under each cell, itself included
+  int[] size;
+  // the distance of each cell from the root, valid where depthEpoch matches
+  // epoch
+  int[] depth;
+  int[] depthEpoch;
+  int epoch;
+  // the cells on the walk up from a cell, reused by depthOf
+  int[] scratch;
+
+  // builds the tree of the given solved wires, rooted at the given cell
+  SolutionTree(Topology topology, int[] masks, int root) {
+    int cells = topology.size();
+    this.topology = topology;
+    this.root = root;
+    this.parent = new int[cells];
+    this.size = new int[cells];
+    this.depth = new int[cells];
+    this.depthEpoch = new int[cells];
+    this.scratch = new int[cells];
+    this.epoch = 1;
+    java.util.Arrays.fill(this.parent, -1);
+
+    // breadth-first from the root, then sizes from the leaves up
+    int[] order = this.scratch;
+    boolean[] seen = new boolean[cells];
+    order[0] = root;
+    seen[root] = true;
+    this.depthEpoch[root] = this.epoch;
+    int tail = 1;
+    for (int head = 0; head < tail; head++) {
+      int cell = order[head];
+      for (int dir = 0; dir < topology.directions; dir++) {
+        int other = topology.neighbors[dir][cell];
+        if (other >= 0 && !seen[other] && topology.joined(masks, cell, dir)) {
+          seen[other] = true;
+          this.parent[other] = cell;
+          this.depth[other] = this.depth[cell] + 1;
+          this.depthEpoch[other] = this.epoch;
+          order[tail] = other;
+          tail++;
+        }
+      }
+    }
+    for (int i = tail - 1; i >= 0; i--) {
+      int cell = order[i];
+      this.size[cell]++;
+      if (this.parent[cell] >= 0) {
+        this.size[this.parent[cell]] += this.size[cell];
+      }
+    }
+  }
+
+  // returns the number of cells in the tree
+  int cells() {
+    return this.size[this.root];
+  }
+
+  // EFFECT: makes the given cell the root, flipping the parents on the path
+  // up from it and fixing the sizes along that path
+  void reroot(int cell) {
+    if (cell == this.root || this.size[cell] == 0) {
+      return;
+    }
+    int total = this.cells();
+    this.root = cell;
+    int child = -1;
+    int childSize = 0;
+    while (cell >= 0) {
+      int next = this.parent[cell];
+      int oldSize = this.size[cell];
+      this.parent[cell] = child;
+      this.size[cell] = child < 0 ? total : total - childSize;
+      child = cell;
+      childSize = oldSize;
+      cell = next;
+    }
+    this.epoch++;
+  }
+
+  // returns the distance of the given cell from the root
+  // EFFECT: caches it, and the depths of the cells on the way up
+  int depthOf(int cell) {
+    int count = 0;
+    int cur = cell;
+    while (this.depthEpoch[cur] != this.epoch && this.parent[cur] >= 0) {
+      this.scratch[count] = cur;
+      count++;
+      cur = this.parent[cur];
+    }
+    int d = this.depthEpoch[cur] == this.epoch ? this.depth[cur] : 0;
+    this.depth[cur] = d;
+    this.depthEpoch[cur] = this.epoch;
+    for (int i = count - 1; i >= 0; i--) {
+      d++;
+      this.depth[this.scratch[i]] = d;
+      this.depthEpoch[this.scratch[i]] = this.epoch;
+    }
+    return this.depth[cell];
+  }
+
+  // returns the number of cells that lose power in the solved board if only
+  // the given tile is turned wrong: its subtree, or everything but the
+  // station when the station is wrong
+  int cutOff(int cell) {
+    return cell == this.root ? this.cells() - 1 : this.size[cell];
+  }
+
+  // returns true if the given cell loses power in the solved board when the
+  // given tile is turned wrong
+  boolean losesPower(int cell, int wrong) {
+    if (wrong == this.root) {
+      return cell != this.root;
+    }
+    for (int cur = cell; cur >= 0; cur = this.parent[cur]) {
+      if (cur == wrong) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // EFFECT: writes the cells on the wire from the station to the given cell,
+  // both included, into the start of the given array
+  // returns the number of cells written
+  int pathFromStation(int cell, int[] out) {
+    int length = this.depthOf(cell) + 1;
+    int i = length - 1;
+    for (int cur = cell; i >= 0; cur = this.parent[cur]) {
+      out[i] = cur;
+      i--;
+    }
+    return length;
+  }
+
+  // builds the tree of a large generated board and times each query against
+  // working the answer out with a search of the wires:
+  // java SolutionTree <size> <queries>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+    PackedBoard board = new PackedBoard(size, size);
+    new KruskalGenerator().generate(board, new Random(1));
+    int[] masks = board.masks();
+    long start = System.nanoTime();
+    SolutionTree tree = new SolutionTree(board.topology, masks, 0);
+    double buildMs = (System.nanoTime() - start) / 1e6;
+    Random rand = new Random(2);
+    int[] path = new int[board.size()];
+
+    long sum = 0;
+    start = System.nanoTime();
+    for (int i = 0; i < queries; i++) {
+      sum += tree.cutOff(rand.nextInt(board.size()));
+    }
+    double cutNs = (System.nanoTime() - start) / (double) queries;
+    start = System.nanoTime();
+    for (int i = 0; i < queries; i++) {
+      sum += tree.pathFromStation(rand.nextInt(board.size()), path);
+    }
+    double pathNs = (System.nanoTime() - start) / (double) queries;
+    // the station walks along the tree, one cell per move
+    start = System.nanoTime();
+    int station = tree.root;
+    for (int i = 0; i < queries; i++) {
+      int dir = rand.nextInt(4);
+      if (board.topology.joined(masks, station, dir)) {
+        station = board.topology.neighbors[dir][station];
+        tree.reroot(station);
+      }
+    }
+    double rerootNs = (System.nanoTime() - start) / (double) queries;
+
+    // the same cut-off by searching the wires with the tile removed
+    int searches = Math.max(1, queries / 100000);
+    start = System.nanoTime();
+    for (int i = 0; i < searches; i++) {
+      int wrong = rand.nextInt(board.size());
+      int saved = masks[wrong];
+      masks[wrong] = 0;
+      sum += board.size() - board.topology.reachable(masks, tree.root).length;
+      masks[wrong] = saved;
+    }
+    double searchNs = (System.nanoTime() - start) / (double) searches;
+    System.out.printf("%dx%d tree built in %.1f ms; cut-off %.0f ns, path %.0f ns, "
+        + "move station %.0f ns; cut-off by search %.0f ns (%d)%n", size, size, buildMs, cutNs,
+        pathNs, rerootNs, searchNs, sum % 10);
+  }
+}
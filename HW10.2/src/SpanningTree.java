@@ -0,0 +1,363 @@
+import java.util.Random;
+
+// A whole board held in one byte array, one byte per cell in row-major
+// order. The low six bits hold the wire mask, one bit per direction of the
+// board's topology; on a square board that is top 1, right 2, bottom 4,
+// left 8, the same layout as ChunkedBoardStore. The top two bits are free
+// for the generators to mark cells with while they work.
+class PackedBoard {
+  static final int WIRES = 63;
+  // the spare bits generators may use as marks
+  static final int MARK1 = 64;
+  static final int MARK2 = 128;
+
+  Topology topology;
+  int width;
+  int height;
+  byte[] cells;
+
+  PackedBoard(int width, int height) {
+    this(new SquareTopology(height, width));
+  }
+
+  PackedBoard(Topology topology) {
+    this.topology = topology;
+    this.width = topology.cols;
+    this.height = topology.rows;
+    this.cells = new byte[topology.size()];
+  }
+
+  // returns the number of cells
+  int size() {
+    return this.cells.length;
+  }
+
+  // returns the wires of the given cell
+  int wires(int cell) {
+    return this.cells[cell] & WIRES;
+  }
+
+  // returns the number of directions out of each cell
+  int directions() {
+    return this.topology.directions;
+  }
+
+  // returns the cell next to the given cell in the given direction, or -1 if
+  // that is off the board
+  int neighbor(int cell, int dir) {
+    return this.topology.neighbors[dir][cell];
+  }
+
+  // EFFECT: connects the given cell to its neighbor in the given direction
+  void connect(int cell, int dir) {
+    int other = this.neighbor(cell, dir);
+    this.cells[cell] |= 1 << dir;
+    this.cells[other] |= 1 << this.topology.opposite(dir);
+  }
+
+  // EFFECT: removes every wire and mark
+  void clear() {
+    java.util.Arrays.fill(this.cells, (byte) 0);
+  }
+
+  // EFFECT: clears the given mark bits on every cell
+  void clearMarks(int marks) {
+    for (int i = 0; i < this.cells.length; i++) {
+      this.cells[i] &= ~marks;
+    }
+  }
+
+  // EFFECT: rotates every cell a random number of times
+  void scramble(Random rand) {
+    int dirs = this.directions();
+    int all = (1 << dirs) - 1;
+    for (int i = 0; i < this.cells.length; i++) {
+      int mask = this.cells[i] & all;
+      int turns = rand.nextInt(dirs);
+      mask = ((mask << turns) | (mask >> (dirs - turns))) & all;
+      this.cells[i] = (byte) ((this.cells[i] & ~all) | mask);
+    }
+  }
+
+  // returns the wire masks of every cell as ints
+  int[] masks() {
+    int[] masks = new int[this.cells.length];
+    for (int i = 0; i < masks.length; i++) {
+      masks[i] = this.cells[i] & WIRES;
+    }
+    return masks;
+  }
+
+  // returns true if the wires form a tree that reaches every cell: every wire
+  // is matched by its neighbor, there is one wire fewer than cells, and a
+  // search from the first cell reaches them all
+  boolean isSpanningTree() {
+    int[] masks = this.masks();
+    long ends = 0;
+    for (int cell = 0; cell < this.cells.length; cell++) {
+      for (int dir = 0; dir < this.directions(); dir++) {
+        if ((masks[cell] & (1 << dir)) != 0) {
+          if (!this.topology.joined(masks, cell, dir)) {
+            return false;
+          }
+          ends++;
+        }
+      }
+    }
+    return ends == 2L * (this.cells.length - 1)
+        && this.topology.reachable(masks, 0).length == this.cells.length;
+  }
+
+  // returns a GamePiece showing the given cell of a square board
+  GamePiece pieceAt(int cell) {
+    int mask = this.cells[cell];
+    return new GamePiece(cell / this.width, cell % this.width, (mask & 8) != 0,
+        (mask & 2) != 0, (mask & 1) != 0, (mask & 4) != 0, false, false);
+  }
+
+  // generates 1M+ cell boards with every generator, reporting the time, the
+  // extra memory each one needs and how it compares to building the same
+  // board as GamePieces with initKruskal:
+  // java PackedBoard <size> <rounds> <objectSize>
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    int objectSize = args.length > 2 ? Integer.parseInt(args[2]) : size;
+    SpanningTreeGenerator[] generators = { new KruskalGenerator(), new WilsonGenerator(),
+        new DfsGenerator(), new PrimGenerator() };
+    PackedBoard board = new PackedBoard(size, size);
+    System.out.printf("%dx%d packed board: %d bytes%n", size, size, board.size());
+    for (SpanningTreeGenerator generator : generators) {
+      Random rand = new Random(1);
+      generator.generate(board, rand);
+      long start = System.nanoTime();
+      for (int i = 0; i < rounds; i++) {
+        generator.generate(board, rand);
+      }
+      double ms = (System.nanoTime() - start) / 1e6 / rounds;
+      System.out.printf("%-8s %8.1f ms  %6.1f Mcells/s  %9d workspace bytes  tree: %b%n",
+          generator.name(), ms, board.size() / ms / 1e3, generator.workspaceBytes(board),
+          board.isSpanningTree());
+    }
+
+    Runtime runtime = Runtime.getRuntime();
+    board = null;
+    System.gc();
+    long before = runtime.totalMemory() - runtime.freeMemory();
+    long start = System.nanoTime();
+    LightEmAll game = new LightEmAll(objectSize, objectSize, 0, false, new Random(1));
+    double ms = (System.nanoTime() - start) / 1e6;
+    System.gc();
+    long retained = runtime.totalMemory() - runtime.freeMemory() - before;
+    System.out.printf("%dx%d initKruskal %8.1f ms  %6.1f Mcells/s  %d bytes retained "
+        + "(%d edges)%n", objectSize, objectSize, ms, game.nodes.size() / ms / 1e3, retained,
+        game.mst.size());
+  }
+}
+
+// builds a random spanning tree straight into the wires of a packed board
+interface SpanningTreeGenerator {
+  // EFFECT: replaces the wires of the given board with a random spanning tree
+  void generate(PackedBoard board, Random rand);
+
+  // returns the number of bytes this generator allocates besides the board
+  // to build a tree on the given board
+  long workspaceBytes(PackedBoard board);
+
+  // returns the name of this generator
+  String name();
+}
+
+// Kruskal's algorithm over a shuffled edge list, which is the same as
+// sorting edges by random weights, with an int array union-find
+class KruskalGenerator implements SpanningTreeGenerator {
+  public void generate(PackedBoard board, Random rand) {
+    board.clear();
+    int cells = board.size();
+    // every edge leaves its cell in one of the first half of the directions
+    int half = board.directions() / 2;
+    int[] reps = new int[cells];
+    // each edge is its cell times half, plus its direction
+    int[] edges = new int[half * cells];
+    int count = 0;
+    for (int cell = 0; cell < cells; cell++) {
+      reps[cell] = cell;
+      for (int dir = 0; dir < half; dir++) {
+        if (board.neighbor(cell, dir) >= 0) {
+          edges[count] = cell * half + dir;
+          count++;
+        }
+      }
+    }
+    ChunkedBoardStore.shuffle(edges, count, rand);
+    int joined = 0;
+    for (int i = 0; i < count && joined < cells - 1; i++) {
+      int cell = edges[i] / half;
+      int dir = edges[i] % half;
+      int from = ChunkedBoardStore.find(reps, cell);
+      int to = ChunkedBoardStore.find(reps, board.neighbor(cell, dir));
+      if (from != to) {
+        reps[to] = from;
+        board.connect(cell, dir);
+        joined++;
+      }
+    }
+  }
+
+  public long workspaceBytes(PackedBoard board) {
+    return (1L + board.directions() / 2) * 4 * board.size();
+  }
+
+  public String name() {
+    return "kruskal";
+  }
+}
+
+// Wilson's algorithm: loop-erased random walks from every cell until they
+// hit the tree, giving every spanning tree the same chance. The walk
+// remembers only the last direction it left each cell by, which erases
+// loops for free.
+class WilsonGenerator implements SpanningTreeGenerator {
+  // marks a cell that is part of the tree
+  static final int IN_TREE = PackedBoard.MARK1;
+
+  public void generate(PackedBoard board, Random rand) {
+    board.clear();
+    int cells = board.size();
+    int dirs = board.directions();
+    byte[] next = new byte[cells];
+    board.cells[(board.height / 2) * board.width + board.width / 2] |= IN_TREE;
+    for (int start = 0; start < cells; start++) {
+      int cell = start;
+      while ((board.cells[cell] & IN_TREE) == 0) {
+        int dir = rand.nextInt(dirs);
+        int other = board.neighbor(cell, dir);
+        while (other < 0) {
+          dir = rand.nextInt(dirs);
+          other = board.neighbor(cell, dir);
+        }
+        next[cell] = (byte) dir;
+        cell = other;
+      }
+      cell = start;
+      while ((board.cells[cell] & IN_TREE) == 0) {
+        board.cells[cell] |= IN_TREE;
+        board.connect(cell, next[cell]);
+        cell = board.neighbor(cell, next[cell]);
+      }
+    }
+    board.clearMarks(IN_TREE);
+  }
+
+  public long workspaceBytes(PackedBoard board) {
+    return board.size();
+  }
+
+  public String name() {
+    return "wilson";
+  }
+}
+
+// randomized depth-first search with an explicit stack, which makes long
+// winding corridors with few branches
+class DfsGenerator implements SpanningTreeGenerator {
+  // marks a cell the search has reached
+  static final int VISITED = PackedBoard.MARK1;
+
+  public void generate(PackedBoard board, Random rand) {
+    board.clear();
+    int[] stack = new int[board.size()];
+    int[] options = new int[board.directions()];
+    int top = 0;
+    stack[0] = rand.nextInt(board.size());
+    board.cells[stack[0]] |= VISITED;
+    while (top >= 0) {
+      int cell = stack[top];
+      int count = 0;
+      for (int dir = 0; dir < board.directions(); dir++) {
+        int other = board.neighbor(cell, dir);
+        if (other >= 0 && (board.cells[other] & VISITED) == 0) {
+          options[count] = dir;
+          count++;
+        }
+      }
+      if (count == 0) {
+        top--;
+        continue;
+      }
+      int dir = options[rand.nextInt(count)];
+      int other = board.neighbor(cell, dir);
+      board.connect(cell, dir);
+      board.cells[other] |= VISITED;
+      top++;
+      stack[top] = other;
+    }
+    board.clearMarks(VISITED);
+  }
+
+  public long workspaceBytes(PackedBoard board) {
+    return 4L * board.size();
+  }
+
+  public String name() {
+    return "dfs";
+  }
+}
+
+// randomized Prim's algorithm: grows the tree from one cell by joining a
+// random frontier cell to a random tree neighbor, which makes many short
+// dead ends
+class PrimGenerator implements SpanningTreeGenerator {
+  // marks a cell that is part of the tree
+  static final int IN_TREE = PackedBoard.MARK1;
+  // marks a cell that is waiting on the frontier
+  static final int FRONTIER = PackedBoard.MARK2;
+
+  public void generate(PackedBoard board, Random rand) {
+    board.clear();
+    int[] frontier = new int[board.size()];
+    int[] options = new int[board.directions()];
+    int count = this.add(board, rand.nextInt(board.size()), frontier, 0);
+    while (count > 0) {
+      int pick = rand.nextInt(count);
+      int cell = frontier[pick];
+      count--;
+      frontier[pick] = frontier[count];
+      int choices = 0;
+      for (int dir = 0; dir < board.directions(); dir++) {
+        int other = board.neighbor(cell, dir);
+        if (other >= 0 && (board.cells[other] & IN_TREE) != 0) {
+          options[choices] = dir;
+          choices++;
+        }
+      }
+      board.connect(cell, options[rand.nextInt(choices)]);
+      count = this.add(board, cell, frontier, count);
+    }
+    board.clearMarks(IN_TREE | FRONTIER);
+  }
+
+  // EFFECT: adds the given cell to the tree and its new neighbors to the
+  // frontier
+  // returns the new size of the frontier
+  int add(PackedBoard board, int cell, int[] frontier, int count) {
+    board.cells[cell] = (byte) ((board.cells[cell] & ~FRONTIER) | IN_TREE);
+    for (int dir = 0; dir < board.directions(); dir++) {
+      int other = board.neighbor(cell, dir);
+      if (other >= 0 && (board.cells[other] & (IN_TREE | FRONTIER)) == 0) {
+        board.cells[other] |= FRONTIER;
+        frontier[count] = other;
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public long workspaceBytes(PackedBoard board) {
+    return 4L * board.size();
+  }
+
+  public String name() {
+    return "prim";
+  }
+}
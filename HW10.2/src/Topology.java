@@ -0,0 +1,179 @@
+import java.util.Arrays;
+
+// The shape of a board: which cell lies next to which. Cells are numbered in
+// row-major order, and the neighbor of every cell in every direction is
+// worked out once into one int array per direction, with -1 where there is
+// no neighbor, so traversals look neighbors up instead of checking bounds.
+//
+// A wire in direction dir is bit (1 << dir) of a cell's wire mask, and joins
+// the neighbor's wire in the opposite direction.
+abstract class Topology {
+  int rows;
+  int cols;
+  // the number of directions out of each cell
+  int directions;
+  // neighbors[dir][cell] is the cell next to cell in direction dir, or -1
+  int[][] neighbors;
+
+  Topology(int rows, int cols, int directions) {
+    this.rows = rows;
+    this.cols = cols;
+    this.directions = directions;
+    this.neighbors = new int[directions][rows * cols];
+    for (int dir = 0; dir < directions; dir++) {
+      for (int row = 0; row < rows; row++) {
+        for (int col = 0; col < cols; col++) {
+          this.neighbors[dir][row * cols + col] = this.neighborOf(row, col, dir);
+        }
+      }
+    }
+  }
+
+  // returns the cell next to the given position in the given direction, or
+  // -1 if there is none; only used to fill the table
+  abstract int neighborOf(int row, int col, int dir);
+
+  // returns the name of this topology
+  abstract String name();
+
+  // returns the number of cells
+  int size() {
+    return this.rows * this.cols;
+  }
+
+  // returns the id of the cell at the given position
+  int cellId(int row, int col) {
+    return row * this.cols + col;
+  }
+
+  // returns the row of the given cell
+  int rowOf(int cell) {
+    return cell / this.cols;
+  }
+
+  // returns the column of the given cell
+  int colOf(int cell) {
+    return cell % this.cols;
+  }
+
+  // returns the cell next to the given cell in the given direction, or -1
+  int neighbor(int cell, int dir) {
+    return this.neighbors[dir][cell];
+  }
+
+  // returns the direction pointing back the other way
+  int opposite(int dir) {
+    return (dir + this.directions / 2) % this.directions;
+  }
+
+  // returns true if the given cells are joined by matching wires in the
+  // given direction, reading wire masks from the given array
+  boolean joined(int[] masks, int cell, int dir) {
+    int other = this.neighbors[dir][cell];
+    return other >= 0 && (masks[cell] & (1 << dir)) != 0
+        && (masks[other] & (1 << this.opposite(dir))) != 0;
+  }
+
+  // returns the cells reachable from the given cell along matching wires, in
+  // the order a breadth-first search reaches them
+  int[] reachable(int[] masks, int start) {
+    boolean[] seen = new boolean[this.size()];
+    int[] queue = new int[this.size()];
+    int tail = 1;
+    queue[0] = start;
+    seen[start] = true;
+    for (int head = 0; head < tail; head++) {
+      int cell = queue[head];
+      for (int dir = 0; dir < this.directions; dir++) {
+        int other = this.neighbors[dir][cell];
+        if (other >= 0 && !seen[other] && this.joined(masks, cell, dir)) {
+          seen[other] = true;
+          queue[tail] = other;
+          tail++;
+        }
+      }
+    }
+    return Arrays.copyOf(queue, tail);
+  }
+
+  // returns the topology with the given name: square, torus or hex
+  static Topology named(String name, int rows, int cols) {
+    if (name.equals("square")) {
+      return new SquareTopology(rows, cols);
+    }
+    else if (name.equals("torus")) {
+      return new TorusTopology(rows, cols);
+    }
+    else if (name.equals("hex")) {
+      return new HexTopology(rows, cols);
+    }
+    throw new IllegalArgumentException("unknown topology: " + name);
+  }
+}
+
+// a plain grid; directions are top, right, bottom, left, matching the wire
+// bits of GamePiece
+class SquareTopology extends Topology {
+  static final int[] DROW = { -1, 0, 1, 0 };
+  static final int[] DCOL = { 0, 1, 0, -1 };
+
+  SquareTopology(int rows, int cols) {
+    super(rows, cols, 4);
+  }
+
+  int neighborOf(int row, int col, int dir) {
+    int row2 = row + DROW[dir];
+    int col2 = col + DCOL[dir];
+    if (row2 < 0 || row2 >= this.rows || col2 < 0 || col2 >= this.cols) {
+      return -1;
+    }
+    return row2 * this.cols + col2;
+  }
+
+  String name() {
+    return "square";
+  }
+}
+
+// a grid whose edges wrap around, so every cell has four neighbors
+class TorusTopology extends Topology {
+  TorusTopology(int rows, int cols) {
+    super(rows, cols, 4);
+  }
+
+  int neighborOf(int row, int col, int dir) {
+    int row2 = (row + SquareTopology.DROW[dir] + this.rows) % this.rows;
+    int col2 = (col + SquareTopology.DCOL[dir] + this.cols) % this.cols;
+    return row2 * this.cols + col2;
+  }
+
+  String name() {
+    return "torus";
+  }
+}
+
+// pointy-topped hexagons with every odd row shifted half a cell right;
+// directions are north-east, east, south-east, south-west, west, north-west
+class HexTopology extends Topology {
+  // column offsets of each direction for even and odd rows
+  static final int[] EVEN_DCOL = { 0, 1, 0, -1, -1, -1 };
+  static final int[] ODD_DCOL = { 1, 1, 1, 0, -1, 0 };
+  static final int[] DROW = { -1, 0, 1, 1, 0, -1 };
+
+  HexTopology(int rows, int cols) {
+    super(rows, cols, 6);
+  }
+
+  int neighborOf(int row, int col, int dir) {
+    int row2 = row + DROW[dir];
+    int col2 = col + (row % 2 == 0 ? EVEN_DCOL[dir] : ODD_DCOL[dir]);
+    if (row2 < 0 || row2 >= this.rows || col2 < 0 || col2 >= this.cols) {
+      return -1;
+    }
+    return row2 * this.cols + col2;
+  }
+
+  String name() {
+    return "hex";
+  }
+}
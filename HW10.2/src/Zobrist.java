@@ -0,0 +1,391 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+// A Zobrist hash of the wires of a board: the XOR of one random key per
+// (cell, wire mask), so turning a cell changes the hash by two XORs and the
+// fingerprint of a whole board is kept in O(1) per turn. Keys are worked out
+// from the cell and mask with splitmix64 rather than stored, so the hash
+// needs no memory per cell.
+//
+// The hash is also kept for every symmetry of the board at once: square
+// boards and tori have their mirror images and half turns, and all eight
+// symmetries when they are as tall as they are wide. The board seen through
+// a symmetry hashes the key of the cell it lands on with its wires turned
+// the same way; the smallest of these hashes is the same for every board in
+// the same class, which makes it a canonical fingerprint. Hex boards only
+// have the identity.
+class ZobristHash {
+  // the seed every hash shares, so hashes of different boards compare
+  static final long SEED = 0x4C69676874456D41L;
+
+  Topology topology;
+  // the bits of a wire mask
+  int bits;
+  // the symmetries kept: bit 2 transposes, then bit 1 flips the rows and bit
+  // 0 flips the columns
+  int symmetries;
+  // maskMap[s][mask] is the given wires seen through symmetry s
+  int[][] maskMap;
+  // the hash of the board seen through each symmetry; hashes[0] is the board
+  // itself
+  long[] hashes;
+
+  ZobristHash(Topology topology) {
+    this.topology = topology;
+    this.bits = topology.directions;
+    if (topology.directions != 4) {
+      this.symmetries = 1;
+    }
+    else if (topology.rows == topology.cols) {
+      this.symmetries = 8;
+    }
+    else {
+      this.symmetries = 4;
+    }
+    this.maskMap = new int[this.symmetries][1 << this.bits];
+    for (int s = 0; s < this.symmetries; s++) {
+      for (int mask = 0; mask < (1 << this.bits); mask++) {
+        this.maskMap[s][mask] = ZobristHash.mapMask(s, mask);
+      }
+    }
+    this.hashes = new long[this.symmetries];
+  }
+
+  // returns the splitmix64 finalizer of the given value
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  // returns the key of the given wires on the given cell
+  long key(int cell, int mask) {
+    return ZobristHash.mix(SEED + ((((long) cell << this.bits) | mask) + 1)
+        * 0x9E3779B97F4A7C15L);
+  }
+
+  // returns the given square wires seen through the given symmetry
+  static int mapMask(int s, int mask) {
+    if ((s & 4) != 0) {
+      // top and left trade places, and so do right and bottom
+      mask = (mask & 1) << 3 | (mask & 8) >> 3 | (mask & 2) << 1 | (mask & 4) >> 1;
+    }
+    if ((s & 2) != 0) {
+      mask = (mask & 10) | (mask & 1) << 2 | (mask & 4) >> 2;
+    }
+    if ((s & 1) != 0) {
+      mask = (mask & 5) | (mask & 2) << 2 | (mask & 8) >> 2;
+    }
+    return mask;
+  }
+
+  // returns the cell the given cell lands on through the given symmetry
+  int mapCell(int s, int cell) {
+    int row = this.topology.rowOf(cell);
+    int col = this.topology.colOf(cell);
+    if ((s & 4) != 0) {
+      int t = row;
+      row = col;
+      col = t;
+    }
+    if ((s & 2) != 0) {
+      row = this.topology.rows - 1 - row;
+    }
+    if ((s & 1) != 0) {
+      col = this.topology.cols - 1 - col;
+    }
+    return this.topology.cellId(row, col);
+  }
+
+  // EFFECT: hashes the given wires from scratch
+  void reset(int[] masks) {
+    Arrays.fill(this.hashes, 0);
+    for (int cell = 0; cell < masks.length; cell++) {
+      this.add(cell, masks[cell]);
+    }
+  }
+
+  // EFFECT: hashes the wires of the given pieces from scratch
+  void reset(ArrayList<GamePiece> pieces) {
+    Arrays.fill(this.hashes, 0);
+    for (int cell = 0; cell < pieces.size(); cell++) {
+      this.add(cell, pieces.get(cell).wireMask());
+    }
+  }
+
+  // EFFECT: XORs the keys of the given wires on the given cell into every
+  // symmetry's hash
+  void add(int cell, int mask) {
+    for (int s = 0; s < this.symmetries; s++) {
+      this.hashes[s] ^= this.key(this.mapCell(s, cell), this.maskMap[s][mask]);
+    }
+  }
+
+  // EFFECT: updates the hashes after the given cell's wires changed from the
+  // first mask to the second
+  void turned(int cell, int before, int after) {
+    if (before != after) {
+      this.add(cell, before);
+      this.add(cell, after);
+    }
+  }
+
+  // returns the hash of the board
+  long hash() {
+    return this.hashes[0];
+  }
+
+  // returns the same hash for the board and all its symmetric images
+  long canonical() {
+    long least = this.hashes[0];
+    for (int s = 1; s < this.symmetries; s++) {
+      least = Math.min(least, this.hashes[s]);
+    }
+    return least;
+  }
+
+  // returns the canonical hash of the given wires
+  static long canonical(Topology topology, int[] masks) {
+    ZobristHash hash = new ZobristHash(topology);
+    hash.reset(masks);
+    return hash.canonical();
+  }
+
+  // generates many small boards and counts the repeats by hash and by
+  // canonical hash, then solves scrambled boards by search with and without
+  // a transposition table: java ZobristHash <boards> <size>
+  public static void main(String[] args) {
+    int boards = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    Topology topology = new SquareTopology(size, size);
+    HashSet<Long> exact = new HashSet<Long>();
+    HashSet<Long> symmetric = new HashSet<Long>();
+    ZobristHash hash = new ZobristHash(topology);
+    Random rand = new Random(1);
+    long start = System.nanoTime();
+    for (int i = 0; i < boards; i++) {
+      PackedBoard board = new PackedBoard(topology);
+      new KruskalGenerator().generate(board, rand);
+      hash.reset(board.masks());
+      exact.add(hash.hash());
+      symmetric.add(hash.canonical());
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%d %dx%d boards in %.2f s: %d distinct, %d up to symmetry%n", boards,
+        size, size, seconds, exact.size(), symmetric.size());
+
+    for (int bits : new int[] { 0, 16 }) {
+      long nodes = 0;
+      long clicks = 0;
+      int unsolved = 0;
+      start = System.nanoTime();
+      for (int i = 0; i < 20; i++) {
+        PackedBoard board = new PackedBoard(topology);
+        new KruskalGenerator().generate(board, new Random(i));
+        int[] masks = board.masks();
+        Random turns = new Random(i);
+        for (int j = 0; j < 6; j++) {
+          int cell = turns.nextInt(masks.length);
+          // turned back a quarter, so one click puts it right
+          masks[cell] = ((masks[cell] << 3) | (masks[cell] >> 1)) & 15;
+        }
+        ClickSolver solver = new ClickSolver(topology, masks, bits);
+        int found = solver.solve(8);
+        if (found < 0) {
+          unsolved++;
+        }
+        else {
+          clicks += found;
+        }
+        nodes += solver.nodes;
+      }
+      System.out.printf("20 scrambled boards, %s: %d clicks, %d unsolved in 8, "
+          + "%d positions searched, %.2f s%n", bits == 0 ? "no table" : "table of 2^" + bits,
+          clicks, unsolved, nodes, (System.nanoTime() - start) / 1e9);
+    }
+  }
+}
+
+// A fixed-size table from board hashes to a small value, for searches that
+// reach the same board along several orders of clicks. Each hash has one
+// slot and a newer entry replaces an older one, so the table never grows.
+class TranspositionTable {
+  // the hash stored in each slot, 0 for an empty slot
+  long[] keys;
+  int[] values;
+  int slotMask;
+  long hits;
+  long misses;
+
+  // makes a table of 2 to the given power slots
+  TranspositionTable(int bits) {
+    this.keys = new long[1 << bits];
+    this.values = new int[1 << bits];
+    this.slotMask = (1 << bits) - 1;
+  }
+
+  // returns the slot of the given hash
+  int slot(long hash) {
+    return (int) (hash ^ (hash >>> 32)) & this.slotMask;
+  }
+
+  // returns the value stored for the given hash, or -1
+  int get(long hash) {
+    long key = hash == 0 ? 1 : hash;
+    int slot = this.slot(key);
+    if (this.keys[slot] == key) {
+      this.hits++;
+      return this.values[slot];
+    }
+    this.misses++;
+    return -1;
+  }
+
+  // EFFECT: stores the given value for the given hash
+  void put(long hash, int value) {
+    long key = hash == 0 ? 1 : hash;
+    int slot = this.slot(key);
+    this.keys[slot] = key;
+    this.values[slot] = value;
+  }
+
+  // EFFECT: empties the table
+  void clear() {
+    Arrays.fill(this.keys, 0);
+  }
+}
+
+// Finds the fewest clicks that turn a small board into one whose wires all
+// meet and reach every cell, by iterative deepening. The bound is the wires
+// that do not meet divided by the directions, since a click changes at most
+// that many pairs. Clicking a and then b reaches the same board as b and
+// then a, so with a table every board is searched once per depth instead of
+// once per order.
+class ClickSolver {
+  Topology topology;
+  int[] masks;
+  // the clicks after which each cell is back where it started
+  int[] period;
+  // the clicks made on each cell on the current path
+  int[] clicked;
+  ZobristHash hash;
+  // null to search without a table
+  TranspositionTable table;
+  // the pairs with a wire on one side only plus the wires off the board
+  int loose;
+  // the cells clicked, in order, once solve finds a solution
+  int[] path;
+  int pathLength;
+  long nodes;
+
+  // makes a solver for the given wires, changing them as it searches, with a
+  // table of 2 to the given power slots, or none for 0
+  ClickSolver(Topology topology, int[] masks, int tableBits) {
+    this.topology = topology;
+    this.masks = masks;
+    this.period = new int[masks.length];
+    this.clicked = new int[masks.length];
+    this.path = new int[0];
+    for (int cell = 0; cell < masks.length; cell++) {
+      int mask = masks[cell];
+      do {
+        mask = this.turn(mask);
+        this.period[cell]++;
+      } while (mask != masks[cell]);
+    }
+    this.hash = new ZobristHash(topology);
+    this.hash.reset(masks);
+    this.table = tableBits > 0 ? new TranspositionTable(tableBits) : null;
+    WireCounts counts = BulkCheck.scalar(topology, masks);
+    this.loose = (int) (counts.mismatched + counts.dangling);
+  }
+
+  // returns the given wires turned one click
+  int turn(int mask) {
+    int all = (1 << this.topology.directions) - 1;
+    return ((mask << 1) | (mask >> (this.topology.directions - 1))) & all;
+  }
+
+  // returns the loose wires around the given cell
+  int looseAt(int cell) {
+    int count = 0;
+    for (int dir = 0; dir < this.topology.directions; dir++) {
+      int other = this.topology.neighbors[dir][cell];
+      boolean wire = (this.masks[cell] & (1 << dir)) != 0;
+      if (other < 0) {
+        count += wire ? 1 : 0;
+      }
+      else if (wire != ((this.masks[other] & (1 << this.topology.opposite(dir))) != 0)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // EFFECT: turns the given cell the given number of clicks
+  void click(int cell, int clicks) {
+    int before = this.masks[cell];
+    this.loose -= this.looseAt(cell);
+    for (int i = 0; i < clicks; i++) {
+      this.masks[cell] = this.turn(this.masks[cell]);
+    }
+    this.loose += this.looseAt(cell);
+    this.hash.turned(cell, before, this.masks[cell]);
+  }
+
+  // returns the fewest clicks that solve the board, up to the given number,
+  // leaving the wires solved, or -1 if there are none
+  int solve(int maxClicks) {
+    this.path = new int[maxClicks];
+    for (int bound = 0; bound <= maxClicks; bound++) {
+      if (this.table != null) {
+        this.table.clear();
+      }
+      if (this.search(0, bound)) {
+        return this.pathLength;
+      }
+    }
+    return -1;
+  }
+
+  // returns true if the board can be solved in the given bound, having made
+  // the given number of clicks already
+  // EFFECT: leaves the wires solved and the clicks in path when it can
+  boolean search(int depth, int bound) {
+    this.nodes++;
+    int directions = this.topology.directions;
+    if (depth + (this.loose + directions - 1) / directions > bound) {
+      return false;
+    }
+    if (this.loose == 0
+        && this.topology.reachable(this.masks, 0).length == this.masks.length) {
+      this.pathLength = depth;
+      return true;
+    }
+    if (depth == bound) {
+      return false;
+    }
+    if (this.table != null) {
+      int seen = this.table.get(this.hash.hash());
+      if (seen >= 0 && seen <= depth) {
+        return false;
+      }
+      this.table.put(this.hash.hash(), depth);
+    }
+    for (int cell = 0; cell < this.masks.length; cell++) {
+      if (this.clicked[cell] + 1 < this.period[cell]) {
+        this.click(cell, 1);
+        this.clicked[cell]++;
+        this.path[depth] = cell;
+        if (this.search(depth + 1, bound)) {
+          return true;
+        }
+        this.clicked[cell]--;
+        this.click(cell, this.period[cell] - 1);
+      }
+    }
+    return false;
+  }
+}